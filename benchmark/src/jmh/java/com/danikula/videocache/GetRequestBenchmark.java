@@ -0,0 +1,44 @@
+package com.danikula.videocache;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures parsing of typical player's request to proxy: reading headers from stream and parsing them.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class GetRequestBenchmark {
+
+    private static final String REQUEST = "GET /http%3A%2F%2Fcdn.example.com%2Fvideos%2F2f1e7c%2Fmovie.mp4?vid=2f1e7c HTTP/1.1\r\n" +
+            "User-Agent: stagefright/1.2 (Linux;Android 7.1.1)\r\n" +
+            "Host: 127.0.0.1:43210\r\n" +
+            "Connection: Keep-Alive\r\n" +
+            "Accept-Encoding: gzip\r\n" +
+            "Range: bytes=1048576-\r\n" +
+            "\r\n";
+
+    private final byte[] requestBytes = REQUEST.getBytes(Charset.forName("US-ASCII"));
+
+    // GetRequest is package private, so results are returned as public types for generated benchmark code
+
+    @Benchmark
+    public String read() throws IOException {
+        return GetRequest.read(new ByteArrayInputStream(requestBytes)).uri;
+    }
+
+    @Benchmark
+    public long parse() {
+        return new GetRequest(REQUEST).rangeOffset;
+    }
+}
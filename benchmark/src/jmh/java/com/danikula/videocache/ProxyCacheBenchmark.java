@@ -0,0 +1,67 @@
+package com.danikula.videocache;
+
+import com.danikula.videocache.file.FileCache;
+import com.danikula.videocache.file.UnlimitedDiskUsage;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import static com.danikula.videocache.support.BenchmarkUtils.delete;
+import static com.danikula.videocache.support.BenchmarkUtils.generate;
+import static com.danikula.videocache.support.BenchmarkUtils.newTempDirectory;
+
+/**
+ * Measures reading whole source through {@link ProxyCache}: data is produced by {@link ByteArraySource}
+ * on source reader thread, cached to new {@link FileCache} and read by benchmark thread as soon as it is cached.
+ * So result includes handing data over between threads, not only disk speed.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ProxyCacheBenchmark {
+
+    @Param({"1048576", "16777216"})
+    public int sourceSize;
+
+    private File directory;
+    private byte[] data;
+    private int cachesCount;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = newTempDirectory("proxy-cache-benchmark");
+        data = generate(sourceSize);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        delete(directory);
+    }
+
+    @Benchmark
+    public long readWholeSource() throws ProxyCacheException {
+        File file = new File(directory, "cache-" + cachesCount++ + ".dat");
+        ProxyCache proxyCache = new ProxyCache(new ByteArraySource(data), new FileCache(file, new UnlimitedDiskUsage()));
+        byte[] buffer = new byte[ProxyCacheUtils.DEFAULT_BUFFER_SIZE];
+        long offset = 0;
+        int readBytes;
+        while ((readBytes = proxyCache.read(buffer, offset, buffer.length)) != -1) {
+            offset += readBytes;
+        }
+        proxyCache.shutdown();
+        delete(file);
+        return offset;
+    }
+}
@@ -0,0 +1,229 @@
+package com.danikula.videocache.file;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Trace driven simulator of cache eviction policies: compares hit ratio of LRU (used by {@link TotalSizeLruDiskUsage})
+ * and W-TinyLFU (used by {@link TinyLfuDiskUsage}) for different cache sizes.
+ * <p>
+ * Trace is a text file, every line is a request: {@code <video id> <size in bytes>}. If trace file is not passed,
+ * synthetic feed-like trace is generated: popular videos are replayed according to Zipf distribution,
+ * bursts of one-off preloads are mixed in. Both policies trim cache from max size to 90% of it like disk usages do.
+ * <p>
+ * Run: {@code ./gradlew :benchmark:simulateEviction [-PevictionTrace=path/to/trace]}
+ */
+public class EvictionSimulator {
+
+    private static final long MB = 1024 * 1024;
+    private static final long[] CACHE_SIZES = {128 * MB, 256 * MB, 512 * MB, 1024 * MB};
+
+    private static final int REQUESTS_COUNT = 200000;
+    private static final int POPULAR_VIDEOS_COUNT = 2000;
+    private static final double ZIPF_EXPONENT = 0.9;
+    private static final int PRELOADS_BURST_PERIOD = 20;
+    private static final int PRELOADS_BURST_SIZE = 10;
+
+    public static void main(String[] args) throws IOException {
+        List<Request> trace = args.length > 0 ? readTrace(args[0]) : generateTrace();
+        System.out.println(String.format(Locale.US, "Trace: %s, %d requests", args.length > 0 ? args[0] : "synthetic", trace.size()));
+        System.out.println(String.format(Locale.US, "%10s %10s %16s %16s", "Cache", "Policy", "Hits by requests", "Hits by bytes"));
+        for (long cacheSize : CACHE_SIZES) {
+            print(cacheSize, simulate(trace, new LruCache(cacheSize)));
+            print(cacheSize, simulate(trace, new TinyLfuCache(cacheSize)));
+        }
+    }
+
+    private static Result simulate(List<Request> trace, SimulatedCache cache) {
+        Result result = new Result(cache.getName());
+        for (Request request : trace) {
+            boolean hit = cache.contains(request.id);
+            result.requests++;
+            result.bytes += request.size;
+            if (hit) {
+                result.hitRequests++;
+                result.hitBytes += request.size;
+            }
+            cache.access(request.id, request.size);
+        }
+        return result;
+    }
+
+    private static void print(long cacheSize, Result result) {
+        System.out.println(String.format(Locale.US, "%7d MB %10s %15.2f%% %15.2f%%", cacheSize / MB, result.policy,
+                100.0 * result.hitRequests / result.requests, 100.0 * result.hitBytes / result.bytes));
+    }
+
+    private static List<Request> readTrace(String path) throws IOException {
+        List<Request> trace = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(new FileReader(path));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.trim().split("\\s+");
+                if (parts.length == 2) {
+                    trace.add(new Request(parts[0], Long.parseLong(parts[1])));
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return trace;
+    }
+
+    private static List<Request> generateTrace() {
+        Random random = new Random(0);
+        long[] sizes = new long[POPULAR_VIDEOS_COUNT];
+        double[] cumulativeProbabilities = new double[POPULAR_VIDEOS_COUNT];
+        double sum = 0;
+        for (int i = 0; i < POPULAR_VIDEOS_COUNT; i++) {
+            sizes[i] = MB + (long) (random.nextDouble() * 9 * MB);
+            sum += 1 / Math.pow(i + 1, ZIPF_EXPONENT);
+            cumulativeProbabilities[i] = sum;
+        }
+        List<Request> trace = new ArrayList<>(REQUESTS_COUNT);
+        int preloadsCount = 0;
+        while (trace.size() < REQUESTS_COUNT) {
+            if (trace.size() % PRELOADS_BURST_PERIOD == 0) {
+                for (int i = 0; i < PRELOADS_BURST_SIZE; i++) {
+                    trace.add(new Request("preload-" + preloadsCount++, MB + (long) (random.nextDouble() * MB)));
+                }
+            }
+            double point = random.nextDouble() * sum;
+            int video = 0;
+            while (cumulativeProbabilities[video] < point) {
+                video++;
+            }
+            trace.add(new Request("video-" + video, sizes[video]));
+        }
+        return trace;
+    }
+
+    private static final class Request {
+
+        private final String id;
+        private final long size;
+
+        Request(String id, long size) {
+            this.id = id;
+            this.size = size;
+        }
+    }
+
+    private static final class Result {
+
+        private final String policy;
+        private long requests;
+        private long hitRequests;
+        private long bytes;
+        private long hitBytes;
+
+        Result(String policy) {
+            this.policy = policy;
+        }
+    }
+
+    private abstract static class SimulatedCache {
+
+        private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>();
+        private final long maxSize;
+        private final long lowWatermarkSize;
+        private long totalSize;
+
+        SimulatedCache(long maxSize) {
+            this.maxSize = maxSize;
+            this.lowWatermarkSize = maxSize - maxSize / 10;
+        }
+
+        boolean contains(String id) {
+            return entries.containsKey(id);
+        }
+
+        void access(String id, long size) {
+            Long oldSize = entries.remove(id);
+            totalSize += size - (oldSize == null ? 0 : oldSize);
+            entries.put(id, size);
+            onAccess(id, size);
+            if (totalSize > maxSize) {
+                while (totalSize > lowWatermarkSize) {
+                    String victim = selectVictim();
+                    totalSize -= entries.remove(victim);
+                    onRemove(victim);
+                }
+            }
+        }
+
+        String leastRecentlyUsed() {
+            return entries.keySet().iterator().next();
+        }
+
+        abstract String getName();
+
+        abstract void onAccess(String id, long size);
+
+        abstract void onRemove(String id);
+
+        abstract String selectVictim();
+    }
+
+    private static final class LruCache extends SimulatedCache {
+
+        LruCache(long maxSize) {
+            super(maxSize);
+        }
+
+        @Override
+        String getName() {
+            return "LRU";
+        }
+
+        @Override
+        void onAccess(String id, long size) {
+        }
+
+        @Override
+        void onRemove(String id) {
+        }
+
+        @Override
+        String selectVictim() {
+            return leastRecentlyUsed();
+        }
+    }
+
+    private static final class TinyLfuCache extends SimulatedCache {
+
+        private final WTinyLfuPolicy policy;
+
+        TinyLfuCache(long maxSize) {
+            super(maxSize);
+            this.policy = new WTinyLfuPolicy(maxSize, new FrequencySketch(TinyLfuDiskUsage.SKETCH_WIDTH));
+        }
+
+        @Override
+        String getName() {
+            return "W-TinyLFU";
+        }
+
+        @Override
+        void onAccess(String id, long size) {
+            policy.onAccess(id, size);
+        }
+
+        @Override
+        void onRemove(String id) {
+            policy.onRemove(id);
+        }
+
+        @Override
+        String selectVictim() {
+            return policy.selectVictim();
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.danikula.videocache.file;
+
+import com.danikula.videocache.ProxyCacheException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static com.danikula.videocache.support.BenchmarkUtils.delete;
+import static com.danikula.videocache.support.BenchmarkUtils.generate;
+import static com.danikula.videocache.support.BenchmarkUtils.newTempDirectory;
+
+/**
+ * Measures writing data to {@link FileCache}: sequential appending as source reader does and writing chunks
+ * at random offsets of sparse file as segmented downloader and seek requests do.
+ * Cache file is recreated when it reaches {@link #MAX_FILE_SIZE} to keep disk usage bounded.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class FileCacheAppendBenchmark {
+
+    private static final long MAX_FILE_SIZE = 64 * 1024 * 1024;
+
+    @Param({"8192", "65536"})
+    public int chunkSize;
+
+    private final Random random = new Random(0);
+    private File directory;
+    private byte[] chunk;
+    private FileCache cache;
+    private long written;
+    private int filesCount;
+
+    @Setup(Level.Iteration)
+    public void setUp() throws IOException, ProxyCacheException {
+        directory = newTempDirectory("append-benchmark");
+        chunk = generate(chunkSize);
+        newCache();
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws ProxyCacheException {
+        cache.close();
+        delete(directory);
+    }
+
+    @Benchmark
+    public long append() throws ProxyCacheException {
+        recreateCacheIfNeeded();
+        cache.append(chunk, chunk.length);
+        return written += chunk.length;
+    }
+
+    @Benchmark
+    public long writeAtRandomOffset() throws ProxyCacheException {
+        recreateCacheIfNeeded();
+        long chunks = MAX_FILE_SIZE / chunk.length;
+        long offset = (long) random.nextInt((int) chunks) * chunk.length;
+        cache.write(offset, chunk, chunk.length);
+        return written += chunk.length;
+    }
+
+    private void recreateCacheIfNeeded() throws ProxyCacheException {
+        if (written >= MAX_FILE_SIZE) {
+            cache.close();
+            delete(cache.getFile());
+            delete(FileCache.getRangesFile(cache.getFile()));
+            newCache();
+        }
+    }
+
+    private void newCache() throws ProxyCacheException {
+        cache = new FileCache(new File(directory, "cache-" + filesCount++ + ".dat"), new UnlimitedDiskUsage());
+        written = 0;
+    }
+}
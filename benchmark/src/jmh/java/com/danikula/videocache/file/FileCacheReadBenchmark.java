@@ -0,0 +1,90 @@
+package com.danikula.videocache.file;
+
+import com.danikula.videocache.ProxyCacheException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static com.danikula.videocache.support.BenchmarkUtils.createFile;
+import static com.danikula.videocache.support.BenchmarkUtils.delete;
+import static com.danikula.videocache.support.BenchmarkUtils.newTempDirectory;
+
+/**
+ * Measures random reads of 8 Kb blocks from {@link FileCache} by one, 4 and 16 concurrent readers.
+ * <p>
+ * Modes: {@code file} - completed cache read with help of {@link java.io.RandomAccessFile},
+ * {@code mapped} - completed cache read with help of memory mapping,
+ * {@code partial} - not completed (sparse) cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class FileCacheReadBenchmark {
+
+    private static final int FILE_SIZE = 64 * 1024 * 1024;
+    private static final int BLOCK_SIZE = 8 * 1024;
+
+    @Param({"file", "mapped", "partial"})
+    public String mode;
+
+    private File directory;
+    private FileCache cache;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, ProxyCacheException {
+        directory = newTempDirectory("read-benchmark");
+        boolean partial = "partial".equals(mode);
+        File file = new File(directory, "cache.dat");
+        createFile(partial ? new File(directory, "cache.dat.download") : file, FILE_SIZE);
+        cache = new FileCache(file, new UnlimitedDiskUsage(), "mapped".equals(mode));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws ProxyCacheException {
+        cache.close();
+        delete(directory);
+    }
+
+    @Benchmark
+    public int read(Reader reader) throws ProxyCacheException {
+        return reader.read(cache);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public int readConcurrently(Reader reader) throws ProxyCacheException {
+        return reader.read(cache);
+    }
+
+    @Benchmark
+    @Threads(16)
+    public int readWithContention(Reader reader) throws ProxyCacheException {
+        return reader.read(cache);
+    }
+
+    @State(Scope.Thread)
+    public static class Reader {
+
+        private final Random random = new Random();
+        private final byte[] buffer = new byte[BLOCK_SIZE];
+
+        int read(FileCache cache) throws ProxyCacheException {
+            long offset = (long) random.nextInt(FILE_SIZE / BLOCK_SIZE) * BLOCK_SIZE;
+            return cache.read(buffer, offset, BLOCK_SIZE);
+        }
+    }
+}
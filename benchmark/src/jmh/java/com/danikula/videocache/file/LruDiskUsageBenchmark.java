@@ -0,0 +1,66 @@
+package com.danikula.videocache.file;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static com.danikula.videocache.support.BenchmarkUtils.createFile;
+import static com.danikula.videocache.support.BenchmarkUtils.delete;
+import static com.danikula.videocache.support.BenchmarkUtils.newTempDirectory;
+
+/**
+ * Measures work done by {@link LruDiskUsage} worker for every touch of cache file: updating usage index and journal.
+ * Limit is never exceeded, so files are not deleted and results are comparable.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class LruDiskUsageBenchmark {
+
+    private static final int FILE_SIZE = 1024;
+
+    @Param({"100", "1000", "5000"})
+    public int filesCount;
+
+    private final Random random = new Random(0);
+    private File directory;
+    private File[] files;
+    private LruDiskUsage diskUsage;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = newTempDirectory("lru-benchmark");
+        files = new File[filesCount];
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < filesCount; i++) {
+            files[i] = new File(directory, i + ".mp4");
+            createFile(files[i], FILE_SIZE);
+            files[i].setLastModified(now - (filesCount - i) * 1000L);
+        }
+        diskUsage = new TotalSizeLruDiskUsage(Long.MAX_VALUE);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        delete(directory);
+    }
+
+    @Benchmark
+    public File touch() throws IOException {
+        File file = files[random.nextInt(files.length)];
+        diskUsage.touchInBackground(file);
+        return file;
+    }
+}
@@ -0,0 +1,29 @@
+package com.danikula.videocache.file;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures generating of cache file name, it is done for every request to proxy.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class Md5FileNameGeneratorBenchmark {
+
+    private static final String ID = "2f1e7c0a-5b3d-4c1e-9f7a-6d2b8e4c1a90";
+    private static final String URL = "https://cdn.example.com/videos/2f1e7c/movie.mp4?token=c2VjcmV0LXRva2Vu&expires=1700000000";
+
+    private final Md5FileNameGenerator generator = new Md5FileNameGenerator();
+
+    @Benchmark
+    public String generate() {
+        return generator.generate(ID, URL);
+    }
+}
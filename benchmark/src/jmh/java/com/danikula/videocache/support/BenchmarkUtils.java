@@ -0,0 +1,48 @@
+package com.danikula.videocache.support;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+/**
+ * Utils for benchmarks.
+ */
+public class BenchmarkUtils {
+
+    public static File newTempDirectory(String name) throws IOException {
+        File directory = File.createTempFile(name, "");
+        if (!directory.delete() || !directory.mkdirs()) {
+            throw new IOException("Error creating directory " + directory);
+        }
+        return directory;
+    }
+
+    public static void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    public static byte[] generate(int capacity) {
+        byte[] result = new byte[capacity];
+        new Random(capacity).nextBytes(result);
+        return result;
+    }
+
+    public static void createFile(File file, long length) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            byte[] chunk = generate(64 * 1024);
+            for (long written = 0; written < length; written += chunk.length) {
+                randomAccessFile.write(chunk, 0, (int) Math.min(chunk.length, length - written));
+            }
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.danikula.videocache;
+
+import com.danikula.videocache.admission.AdmissionPolicy;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of bytes passed through {@link HttpProxyCacheServer}: admitted bytes are fetched from source and written
+ * to cache, rejected bytes are streamed to clients without caching because video is not admitted by {@link AdmissionPolicy}.
+ */
+final class AdmissionCounters {
+
+    private final AtomicLong admittedBytes = new AtomicLong();
+    private final AtomicLong rejectedBytes = new AtomicLong();
+
+    void onAdmitted(long bytes) {
+        admittedBytes.addAndGet(bytes);
+    }
+
+    void onRejected(long bytes) {
+        rejectedBytes.addAndGet(bytes);
+    }
+
+    long getAdmittedBytes() {
+        return admittedBytes.get();
+    }
+
+    long getRejectedBytes() {
+        return rejectedBytes.get();
+    }
+}
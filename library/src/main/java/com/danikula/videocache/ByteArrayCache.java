@@ -37,6 +37,11 @@ public class ByteArrayCache implements Cache {
         return data.length;
     }
 
+    @Override
+    public long available(long offset) throws ProxyCacheException {
+        return Math.max(0, data.length - offset);
+    }
+
     @Override
     public void append(byte[] newData, int length) throws ProxyCacheException {
         Preconditions.checkNotNull(data);
@@ -9,6 +9,12 @@ public interface Cache {
 
     long available() throws ProxyCacheException;
 
+    /**
+     * Returns count of bytes cached continuously starting from passed offset.
+     * Cache may contain data for offsets that are greater than {@link #available()}.
+     */
+    long available(long offset) throws ProxyCacheException;
+
     int read(byte[] buffer, long offset, int length) throws ProxyCacheException;
 
     void append(byte[] data, int length) throws ProxyCacheException;
@@ -1,7 +1,12 @@
 package com.danikula.videocache;
 
+import com.danikula.videocache.admission.AdmissionPolicy;
+import com.danikula.videocache.file.CacheVolumes;
 import com.danikula.videocache.file.DiskUsage;
+import com.danikula.videocache.file.FileCache;
 import com.danikula.videocache.file.FileNameGenerator;
+import com.danikula.videocache.file.MemoryTier;
+import com.danikula.videocache.file.WriteBehindPolicy;
 import com.danikula.videocache.headers.HeaderInjector;
 import com.danikula.videocache.sourcestorage.SourceInfoStorage;
 
@@ -19,18 +24,51 @@ class Config {
     public final DiskUsage diskUsage;
     public final SourceInfoStorage sourceInfoStorage;
     public final HeaderInjector headerInjector;
+    public final int nioProcessorThreads;
+    public final int keepAliveTimeoutMs;
+    public final boolean mappedReads;
+    public final int downloadConnections;
+    public final AdmissionPolicy admissionPolicy;
+    public final CacheVolumes cacheVolumes;
+    public final MemoryTier memoryTier;
+    public final boolean preallocation;
+    public final WriteBehindPolicy writeBehind;
 
-    Config(File cacheRoot, FileNameGenerator fileNameGenerator, DiskUsage diskUsage, SourceInfoStorage sourceInfoStorage, HeaderInjector headerInjector) {
+    Config(File cacheRoot, FileNameGenerator fileNameGenerator, DiskUsage diskUsage, SourceInfoStorage sourceInfoStorage,
+           HeaderInjector headerInjector, int nioProcessorThreads, int keepAliveTimeoutMs, boolean mappedReads,
+           int downloadConnections, AdmissionPolicy admissionPolicy, CacheVolumes cacheVolumes,
+           MemoryTier memoryTier, boolean preallocation, WriteBehindPolicy writeBehind) {
         this.cacheRoot = cacheRoot;
         this.fileNameGenerator = fileNameGenerator;
         this.diskUsage = diskUsage;
         this.sourceInfoStorage = sourceInfoStorage;
         this.headerInjector = headerInjector;
+        this.nioProcessorThreads = nioProcessorThreads;
+        this.keepAliveTimeoutMs = keepAliveTimeoutMs;
+        this.mappedReads = mappedReads;
+        this.downloadConnections = downloadConnections;
+        this.admissionPolicy = admissionPolicy;
+        this.cacheVolumes = cacheVolumes;
+        this.memoryTier = memoryTier;
+        this.preallocation = preallocation;
+        this.writeBehind = writeBehind;
+    }
+
+    boolean isKeepAliveEnabled() {
+        return keepAliveTimeoutMs > 0;
+    }
+
+    boolean isNioEngine() {
+        return nioProcessorThreads > 0;
     }
 
     File generateCacheFile(String id, String url) {
         String name = fileNameGenerator.generate(id, url);
-        return new File(cacheRoot, name);
+        return cacheVolumes.getFile(name);
+    }
+
+    FileCache newFileCache(String id, String url) throws ProxyCacheException {
+        return new FileCache(generateCacheFile(id, url), diskUsage, mappedReads, memoryTier, writeBehind);
     }
 
 }
@@ -0,0 +1,57 @@
+package com.danikula.videocache;
+
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.Call;
+import okhttp3.Connection;
+import okhttp3.EventListener;
+
+/**
+ * Counters of connections used by clients of {@link OkHttpProvider}: hit is connection taken from pool of
+ * shared clients, miss is connection that has been opened (with TLS handshake for https) for request.
+ * <p>
+ * Calls to {@link HttpProxyCacheServer} itself (pings of health watchdog, preloading) aren't counted,
+ * so counters reflect only connections to sources.
+ */
+public final class ConnectionPoolCounters implements EventListener.Factory {
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    ConnectionPoolCounters() {
+    }
+
+    @Override
+    public EventListener create(Call call) {
+        if (HttpProxyCacheServer.PROXY_HOST.equals(call.request().url().host())) {
+            return EventListener.NONE;
+        }
+        return new CallListener();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    private final class CallListener extends EventListener {
+
+        private volatile boolean connecting;
+
+        @Override
+        public void connectStart(Call call, InetSocketAddress address, Proxy proxy) {
+            connecting = true;
+        }
+
+        @Override
+        public void connectionAcquired(Call call, Connection connection) {
+            (connecting ? misses : hits).incrementAndGet();
+            connecting = false;
+        }
+    }
+}
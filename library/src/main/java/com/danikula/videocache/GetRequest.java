@@ -1,13 +1,13 @@
 package com.danikula.videocache;
 
-import android.net.Uri;
 import android.text.TextUtils;
-import android.util.Log;
 
-import java.io.BufferedReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -20,12 +20,16 @@ import static com.danikula.videocache.Preconditions.checkNotNull;
  */
 class GetRequest {
 
+    private static final Logger LOG = LoggerFactory.getLogger("GetRequest");
     private static final Pattern RANGE_HEADER_PATTERN = Pattern.compile("[R,r]ange:[ ]?bytes=(\\d*)-");
     private static final Pattern URL_PATTERN = Pattern.compile("GET /(.*) HTTP");
+    private static final Pattern HTTP_VERSION_PATTERN = Pattern.compile("GET /.* HTTP/(\\d\\.\\d)");
+    private static final Pattern CONNECTION_HEADER_PATTERN = Pattern.compile("(?im)^connection:[ ]*([\\w-]+)");
 
     public final String uri;
     public final long rangeOffset;
     public final boolean partial;
+    public final boolean keepAlive;
 
     public GetRequest(String request) {
         checkNotNull(request);
@@ -33,19 +37,57 @@ class GetRequest {
         this.rangeOffset = Math.max(0, offset);
         this.partial = offset >= 0;
         this.uri = findUri(request);
-        Log.d("GetRequest", "rangeOffset:" + rangeOffset + " offset:" + offset + uri);
+        this.keepAlive = isKeepAlive(request);
+        LOG.debug("rangeOffset:{} offset:{} {}", rangeOffset, offset, uri);
+    }
+
+    private GetRequest(GetRequest request, boolean keepAlive) {
+        this.uri = request.uri;
+        this.rangeOffset = request.rangeOffset;
+        this.partial = request.partial;
+        this.keepAlive = keepAlive;
     }
 
+    /**
+     * Returns same request that doesn't allow to reuse connection, e.g. if server doesn't support keep-alive.
+     *
+     * @return a request without keep-alive.
+     */
+    GetRequest withoutKeepAlive() {
+        return keepAlive ? new GetRequest(this, false) : this;
+    }
+
+    /**
+     * Reads single request from stream. Stream is not read beyond headers ending, so next (pipelined)
+     * request can be read from same stream. Stream should be buffered because it is read byte by byte.
+     *
+     * @param inputStream a stream to read request from.
+     * @return a request or {@code null} if stream is closed before any request data.
+     * @throws IOException if error occur while reading stream.
+     */
     public static GetRequest read(InputStream inputStream) throws IOException {
-        BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, "UTF-8"));
         StringBuilder stringRequest = new StringBuilder();
         String line;
-        while (!TextUtils.isEmpty(line = reader.readLine())) { // until new line (headers ending)
+        while (!TextUtils.isEmpty(line = readLine(inputStream))) { // until new line (headers ending)
             stringRequest.append(line).append('\n');
         }
+        if (line == null && stringRequest.length() == 0) {
+            return null;
+        }
         return new GetRequest(stringRequest.toString());
     }
 
+    private static String readLine(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int read;
+        while ((read = inputStream.read()) != -1 && read != '\n') {
+            if (read != '\r') {
+                line.write(read);
+            }
+        }
+        return read == -1 && line.size() == 0 ? null : line.toString("UTF-8");
+    }
+
     private long findRangeOffset(String request) {
         Matcher matcher = RANGE_HEADER_PATTERN.matcher(request);
         if (matcher.find()) {
@@ -55,6 +97,17 @@ class GetRequest {
         return -1;
     }
 
+    private boolean isKeepAlive(String request) {
+        Matcher versionMatcher = HTTP_VERSION_PATTERN.matcher(request);
+        boolean http11 = !versionMatcher.find() || !"1.0".equals(versionMatcher.group(1));
+        Matcher connectionMatcher = CONNECTION_HEADER_PATTERN.matcher(request);
+        if (connectionMatcher.find()) {
+            String connection = connectionMatcher.group(1);
+            return http11 ? !"close".equalsIgnoreCase(connection) : "keep-alive".equalsIgnoreCase(connection);
+        }
+        return http11;
+    }
+
     private String findUri(String request) {
         Matcher matcher = URL_PATTERN.matcher(request);
         if (matcher.find()) {
@@ -68,6 +121,7 @@ class GetRequest {
         return "GetRequest{" +
                 "rangeOffset=" + rangeOffset +
                 ", partial=" + partial +
+                ", keepAlive=" + keepAlive +
                 ", uri='" + uri + '\'' +
                 '}';
     }
@@ -0,0 +1,95 @@
+package com.danikula.videocache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.danikula.videocache.Preconditions.checkNotNull;
+
+/**
+ * Tracks liveness of {@link HttpProxyCacheServer} in background.
+ * <p>
+ * State of server's accept loop is checked on every {@link #isAlive()} call, it is cheap. Full self-probe
+ * (http request to server with help of {@link Pinger}) is done periodically by watchdog thread, so callers
+ * never wait for network round trip. If accept loop dies, watchdog restarts it.
+ */
+final class HealthWatchdog {
+
+    private static final Logger LOG = LoggerFactory.getLogger("HealthWatchdog");
+    private static final long PROBE_INTERVAL_MS = 10 * 1000;
+
+    private final ScheduledExecutorService watchdogThread;
+    private final MonitoredServer server;
+    private volatile boolean probeSucceeded = true;
+
+    HealthWatchdog(MonitoredServer server) {
+        this(server, Executors.newSingleThreadScheduledExecutor());
+    }
+
+    /**
+     * Creates watchdog that runs checks on passed executor.
+     *
+     * @param server         a server to be monitored.
+     * @param watchdogThread an executor for checks, it is shut down by {@link #shutdown()}.
+     */
+    HealthWatchdog(MonitoredServer server, ScheduledExecutorService watchdogThread) {
+        this.server = checkNotNull(server);
+        this.watchdogThread = checkNotNull(watchdogThread);
+    }
+
+    void start() {
+        watchdogThread.scheduleWithFixedDelay(new CheckRunnable(), 0, PROBE_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Checks is server able to process requests. Never blocks.
+     *
+     * @return {@code true} if accept loop works and last self-probe succeeded.
+     */
+    boolean isAlive() {
+        return probeSucceeded && server.isAccepting();
+    }
+
+    void shutdown() {
+        watchdogThread.shutdownNow();
+    }
+
+    private void check() {
+        if (!server.isAccepting()) {
+            LOG.warn("Accept loop of proxy server is dead. Restarting…");
+            server.restart();
+        }
+        boolean pinged = server.ping();
+        if (pinged != probeSucceeded) {
+            LOG.info("Proxy server is " + (pinged ? "alive" : "not pingable"));
+        }
+        probeSucceeded = pinged;
+    }
+
+    /**
+     * Server to be monitored by {@link HealthWatchdog}.
+     */
+    interface MonitoredServer {
+
+        boolean isAccepting();
+
+        boolean ping();
+
+        void restart();
+    }
+
+    private final class CheckRunnable implements Runnable {
+
+        @Override
+        public void run() {
+            try {
+                check();
+            } catch (RuntimeException e) {
+                LOG.error("Error checking proxy server health", e); // don't let scheduled checks stop
+            }
+        }
+    }
+}
@@ -9,6 +9,7 @@ import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.net.Socket;
+import java.nio.channels.WritableByteChannel;
 import java.util.Locale;
 
 import static com.danikula.videocache.ProxyCacheUtils.DEFAULT_BUFFER_SIZE;
@@ -21,48 +22,189 @@ import static com.danikula.videocache.ProxyCacheUtils.DEFAULT_BUFFER_SIZE;
 class HttpProxyCache extends ProxyCache {
 
     private static final float NO_CACHE_BARRIER = .2f;
+    private static final long SOURCE_LENGTH_TIMEOUT_MS = 10000;
 
     private final HttpUrlSource source;
     private final FileCache cache;
+    private final SegmentedDownloader segmentedDownloader;
     private CacheListener listener;
+    private volatile AdmissionCounters admissionCounters;
+    private volatile TierCounters tierCounters;
+    private volatile boolean preallocation;
 
     public HttpProxyCache(HttpUrlSource source, FileCache cache) {
+        this(source, cache, 1);
+    }
+
+    /**
+     * Creates proxy cache.
+     *
+     * @param source              a source to be cached.
+     * @param cache               a cache for source's data.
+     * @param downloadConnections count of concurrent connections used for downloading source.
+     *                            If it is greater than 1, source is downloaded by segments with help of {@link SegmentedDownloader}.
+     */
+    public HttpProxyCache(HttpUrlSource source, FileCache cache, int downloadConnections) {
         super(source, cache);
         this.cache = cache;
         this.source = source;
+        this.segmentedDownloader = downloadConnections > 1 ?
+                new SegmentedDownloader(source, cache, downloadConnections, new DownloaderCallback()) : null;
     }
 
     public void registerCacheListener(CacheListener cacheListener) {
         this.listener = cacheListener;
     }
 
-    public void processRequest(GetRequest request, Socket socket) throws IOException, ProxyCacheException {
+    /**
+     * Sets counters to be notified about every byte fetched from source and written to cache.
+     *
+     * @param counters counters of admitted bytes, may be {@code null}.
+     */
+    public void setAdmissionCounters(AdmissionCounters counters) {
+        this.admissionCounters = counters;
+    }
+
+    /**
+     * Sets counters to be notified which tier of cache holds offset of every request.
+     *
+     * @param counters counters of requests by tiers, may be {@code null}.
+     */
+    public void setTierCounters(TierCounters counters) {
+        this.tierCounters = counters;
+    }
+
+    /**
+     * Enables preallocation of cache file when length of source is known, see {@link FileCache#preallocate(long)}.
+     *
+     * @param preallocation {@code true} to reserve space for whole cache file before data is fetched.
+     */
+    public void setPreallocation(boolean preallocation) {
+        this.preallocation = preallocation;
+    }
+
+    /**
+     * Writes response for request to socket.
+     *
+     * @param request a request to be processed.
+     * @param socket  a socket to write response to.
+     * @return {@code true} if connection can be reused for next request.
+     */
+    public boolean processRequest(GetRequest request, Socket socket) throws IOException, ProxyCacheException {
         OutputStream out = new BufferedOutputStream(socket.getOutputStream());
-        String responseHeaders = newResponseHeaders(request);
+        awaitContentInfoFromData(request);
+        countTierHit(request);
+        preallocateIfNeeded();
+        boolean keepAlive = isKeepAlive(request);
+        String responseHeaders = newResponseHeaders(request, keepAlive);
         out.write(responseHeaders.getBytes("UTF-8"));
 
         long offset = request.rangeOffset;
         if (isUseCache(request)) {
             Log.d("ProxyCache", "useCache:" + offset);
-            responseWithCache(out, offset);
+            long end = responseWithCache(out, socket.getChannel(), offset);
+            return keepAlive && end == getContentLength(); // body may be truncated if proxy is stopped
+        } else {
+            Log.d("ProxyCache", "useRanges:" + offset);
+            responseWithRanges(out, socket.getChannel(), offset);
+        }
+        return keepAlive;
+    }
+
+    /**
+     * Prepares response to be written by {@link NioProxyServer}.
+     *
+     * @param request a request to be processed.
+     * @return response that never blocks while reading body.
+     */
+    public NioResponse newNioResponse(GetRequest request) throws IOException, ProxyCacheException {
+        awaitContentInfoFromData(request);
+        countTierHit(request);
+        preallocateIfNeeded();
+        boolean keepAlive = isKeepAlive(request);
+        String responseHeaders = newResponseHeaders(request, keepAlive);
+        long offset = request.rangeOffset;
+        if (isUseCache(request)) {
+            Log.d("ProxyCache", "useCache:" + offset);
+            return new CachedNioResponse(responseHeaders, keepAlive, offset, getContentLength());
         } else {
-            Log.d("ProxyCache", "WithoutCache:" + offset);
-            responseWithoutCache(out, offset);
+            Log.d("ProxyCache", "useRanges:" + offset);
+            return new RangesNioResponse(responseHeaders, keepAlive, offset);
+        }
+    }
+
+    /**
+     * Starts reading source before headers of response are built if length of source is unknown, so it is taken
+     * from headers of data response instead of separate probe request. Probe is used if data request isn't needed
+     * for request (e.g. user seeks video), it isn't opened in time or data response has no mime.
+     */
+    private void awaitContentInfoFromData(GetRequest request) throws ProxyCacheException {
+        if (segmentedDownloader != null || cache.isCompleted() || source.isLengthKnown() || request.rangeOffset > cache.available()) {
+            return; // segments are calculated by length of source, seek is served by separate connection
+        }
+        startReadingSource();
+        try {
+            source.awaitLength(SOURCE_LENGTH_TIMEOUT_MS);
+        } catch (InterruptedException e) {
+            throw new InterruptedProxyCacheException("Waiting length of " + source.getUrl() + " is interrupted", e);
+        }
+    }
+
+    private void countTierHit(GetRequest request) throws ProxyCacheException {
+        TierCounters counters = tierCounters;
+        if (counters != null) {
+            counters.onRequest(cache, request.rangeOffset);
         }
     }
 
+    /**
+     * Reserves space for cache file before response is started, so request fails at once if there is no free space
+     * instead of failing in the middle of stream.
+     */
+    private void preallocateIfNeeded() throws ProxyCacheException {
+        if (preallocation && !cache.isCompleted()) {
+            long sourceLength = source.length();
+            if (sourceLength > 0) {
+                cache.preallocate(sourceLength);
+            }
+        }
+    }
+
+    private boolean isKeepAlive(GetRequest request) throws ProxyCacheException {
+        // connection can be reused only if client is able to find body ending
+        return request.keepAlive && getContentLength() >= 0;
+    }
+
+    private long getContentLength() throws ProxyCacheException {
+        return cache.isCompleted() ? cache.available() : source.length();
+    }
+
     private boolean isUseCache(GetRequest request) throws ProxyCacheException {
+        if (segmentedDownloader != null) {
+            return true; // segments from requested offset are downloaded first, no need to bypass cache for seek
+        }
         long sourceLength = source.length();
         boolean sourceLengthKnown = sourceLength > 0;
         long cacheAvailable = cache.available();
-        // do not use cache for partial requests which too far from available cache. It seems user seek video.
+        // do not wait sequential caching for partial requests which too far from available cache. It seems user seek video.
         return !sourceLengthKnown || !request.partial || request.rangeOffset <= cacheAvailable + sourceLength * NO_CACHE_BARRIER;
     }
 
-    private String newResponseHeaders(GetRequest request) throws IOException, ProxyCacheException {
-        String mime = source.getMime();
+    private String newResponseHeaders(GetRequest request, boolean keepAlive) throws ProxyCacheException {
+        return newResponseHeaders(request, source.getMime(), getContentLength(), keepAlive);
+    }
+
+    /**
+     * Builds headers of response for request.
+     *
+     * @param request   a request to be responded.
+     * @param mime      a mime type of content, may be {@code null} if unknown.
+     * @param length    a full length of content, negative if unknown.
+     * @param keepAlive {@code true} if connection can be reused after response.
+     * @return headers of response including empty line after them.
+     */
+    static String newResponseHeaders(GetRequest request, String mime, long length, boolean keepAlive) {
         boolean mimeKnown = !TextUtils.isEmpty(mime);
-        long length = cache.isCompleted() ? cache.available() : source.length();
         boolean lengthKnown = length >= 0;
         long contentLength = request.partial ? length - request.rangeOffset : length;
         boolean addRange = lengthKnown && request.partial;
@@ -72,37 +214,131 @@ class HttpProxyCache extends ProxyCache {
                 .append(lengthKnown ? format("Content-Length: %d\n", contentLength) : "")
                 .append(addRange ? format("Content-Range: bytes %d-%d/%d\n", request.rangeOffset, length - 1, length) : "")
                 .append(mimeKnown ? format("Content-Type: %s\n", mime) : "")
+                .append(keepAlive ? "Connection: keep-alive\n" : "Connection: close\n")
                 .append("\n") // headers end
                 .toString();
     }
 
-    private void responseWithCache(OutputStream out, long offset) throws ProxyCacheException, IOException {
+    /**
+     * Writes cached data to client. Data that is already on disk is transferred to socket channel with zero-copy
+     * {@link FileCache#transferTo(long, long, WritableByteChannel)}, copying through buffer is used only for tail
+     * that is still being downloaded or if socket doesn't have channel. Tail is sent as soon as any new bytes are
+     * fetched, without waiting for whole buffer to be filled.
+     *
+     * @return offset next to last written byte.
+     */
+    private long responseWithCache(OutputStream out, WritableByteChannel channel, long offset) throws ProxyCacheException, IOException {
         byte[] buffer = new byte[DEFAULT_BUFFER_SIZE];
-        int readBytes;
-        while ((readBytes = read(buffer, offset, buffer.length)) != -1) {
+        while (true) {
+            long transferred = channel != null ? transferCached(out, channel, offset) : 0;
+            if (transferred > 0) {
+                offset += transferred;
+                continue;
+            }
+            int readBytes = readAvailable(buffer, offset, buffer.length);
+            if (readBytes == -1) {
+                break;
+            }
             out.write(buffer, 0, readBytes);
             offset += readBytes;
         }
         out.flush();
+        return offset;
+    }
+
+    private long transferCached(OutputStream out, WritableByteChannel channel, long offset) throws ProxyCacheException, IOException {
+        long cached = cache.availableInFile(offset);
+        if (cached <= 0) {
+            return 0;
+        }
+        out.flush(); // keep order of already buffered data
+        return cache.transferTo(offset, cached, channel);
+    }
+
+    /**
+     * Writes response for request that is too far from sequentially cached data (it seems user seeks video).
+     * Ranges cached before are taken from cache, gaps between them are fetched from source with separate connection
+     * and written to cache, so this part of file isn't downloaded again next time.
+     */
+    private void responseWithRanges(OutputStream out, WritableByteChannel channel, long offset) throws ProxyCacheException, IOException {
+        long length = source.length();
+        byte[] buffer = new byte[DEFAULT_BUFFER_SIZE];
+        while (offset < length) {
+            long cached = cache.available(offset);
+            long rangeEnd = cached > 0 ? offset + writeCachedRange(out, channel, buffer, offset, cached) : fetchRange(out, buffer, offset);
+            if (rangeEnd == offset) {
+                throw new ProxyCacheException("Source " + source + " is shorter than " + length + " bytes");
+            }
+            offset = rangeEnd;
+        }
+        out.flush();
+        tryComplete();
+    }
+
+    private long writeCachedRange(OutputStream out, WritableByteChannel channel, byte[] buffer, long offset, long cached) throws ProxyCacheException, IOException {
+        if (channel != null) {
+            out.flush(); // keep order of already buffered data
+            long transferred = cache.transferTo(offset, cached, channel);
+            if (transferred > 0) {
+                return transferred;
+            }
+        }
+        int readBytes = cache.read(buffer, offset, (int) Math.min(buffer.length, cached));
+        if (readBytes > 0) {
+            out.write(buffer, 0, readBytes);
+        }
+        return Math.max(readBytes, 0);
     }
 
-    private void responseWithoutCache(OutputStream out, long offset) throws ProxyCacheException, IOException {
-        HttpUrlSource newSourceNoCache = new HttpUrlSource(this.source);
+    /**
+     * Fetches data from source till end of source or start of next cached range.
+     *
+     * @return offset next to last fetched byte.
+     */
+    private long fetchRange(OutputStream out, byte[] buffer, long offset) throws ProxyCacheException, IOException {
+        HttpUrlSource rangeSource = new HttpUrlSource(this.source);
         try {
-            newSourceNoCache.open((int) offset);
-            byte[] buffer = new byte[DEFAULT_BUFFER_SIZE];
+            if (rangeSource.open(offset)) {
+                throw new ProxyCacheException("Source " + source + " doesn't support range requests");
+            }
             int readBytes;
-            while ((readBytes = newSourceNoCache.read(buffer)) != -1) {
+            while ((readBytes = rangeSource.read(buffer)) != -1) {
+                cache.write(offset, buffer, readBytes);
+                notifyRangeCached(offset, offset + readBytes, source.length());
                 out.write(buffer, 0, readBytes);
                 offset += readBytes;
+                if (cache.available(offset) > 0) {
+                    break; // rest of data is cached already
+                }
             }
-            out.flush();
+            return offset;
         } finally {
-            newSourceNoCache.close();
+            rangeSource.close();
+        }
+    }
+
+    @Override
+    protected void readSource() {
+        if (segmentedDownloader == null) {
+            super.readSource();
+            return;
+        }
+        try {
+            long sourceLength = source.length();
+            if (sourceLength <= 0) {
+                super.readSource(); // segments can't be calculated
+                return;
+            }
+            segmentedDownloader.download(sourceLength);
+            tryComplete();
+        } catch (InterruptedException e) {
+            Log.d("ProxyCache", "Downloading segments is interrupted");
+        } catch (Throwable e) {
+            onSourceError(e);
         }
     }
 
-    private String format(String pattern, Object... args) {
+    private static String format(String pattern, Object... args) {
         return String.format(Locale.US, pattern, args);
     }
 
@@ -112,4 +348,94 @@ class HttpProxyCache extends ProxyCache {
             listener.onCacheAvailable(cache.file, source.getUrl(), percents);
         }
     }
+
+    @Override
+    protected void onDataCached(long bytes) {
+        AdmissionCounters counters = admissionCounters;
+        if (counters != null) {
+            counters.onAdmitted(bytes);
+        }
+    }
+
+    private final class DownloaderCallback implements SegmentedDownloader.Callback {
+
+        @Override
+        public long getReadPosition() {
+            return HttpProxyCache.this.getReadPosition();
+        }
+
+        @Override
+        public void onRangeCached(long start, long end) throws ProxyCacheException {
+            notifyRangeCached(start, end, source.length());
+        }
+    }
+
+    private final class CachedNioResponse extends NioResponse {
+
+        private final long end;
+        private long offset;
+        private Runnable dataListener;
+
+        CachedNioResponse(String headers, boolean keepAlive, long offset, long end) {
+            super(headers, keepAlive);
+            this.offset = offset;
+            this.end = end;
+        }
+
+        @Override
+        boolean isBodyComplete() {
+            return offset == end;
+        }
+
+        @Override
+        int read(byte[] buffer) throws ProxyCacheException {
+            int read = tryRead(buffer, offset, buffer.length);
+            if (read > 0) {
+                offset += read;
+            }
+            return read;
+        }
+
+        @Override
+        long transferTo(WritableByteChannel channel) throws ProxyCacheException, IOException {
+            long cached = cache.availableInFile(offset);
+            if (cached <= 0) {
+                return -1;
+            }
+            long transferred = cache.transferTo(offset, cached, channel);
+            offset += transferred;
+            return transferred;
+        }
+
+        @Override
+        void setDataListener(Runnable listener) {
+            this.dataListener = listener;
+            addSourceDataListener(listener);
+        }
+
+        @Override
+        protected void release() {
+            if (dataListener != null) {
+                removeSourceDataListener(dataListener);
+            }
+        }
+    }
+
+    /**
+     * Response for seek requests (see {@link #responseWithRanges(OutputStream, WritableByteChannel, long)}).
+     */
+    private final class RangesNioResponse extends StreamNioResponse {
+
+        private final long offset;
+
+        RangesNioResponse(String headers, boolean keepAlive, long offset) {
+            super(headers, keepAlive, "Ranges reader for " + source);
+            this.offset = offset;
+        }
+
+        @Override
+        protected void writeBody(OutputStream out) throws ProxyCacheException, IOException {
+            responseWithRanges(out, null, offset);
+        }
+    }
 }
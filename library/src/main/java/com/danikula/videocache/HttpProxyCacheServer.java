@@ -4,12 +4,18 @@ import android.content.Context;
 import android.net.Uri;
 import android.util.Log;
 
+import com.danikula.videocache.admission.AdmissionPolicy;
+import com.danikula.videocache.admission.AdmitAllPolicy;
+import com.danikula.videocache.file.CacheVolume;
+import com.danikula.videocache.file.CacheVolumes;
 import com.danikula.videocache.file.DiskUsage;
 import com.danikula.videocache.file.FileCache;
 import com.danikula.videocache.file.FileNameGenerator;
 import com.danikula.videocache.file.Md5FileNameGenerator;
+import com.danikula.videocache.file.MemoryTier;
 import com.danikula.videocache.file.TotalCountLruDiskUsage;
 import com.danikula.videocache.file.TotalSizeLruDiskUsage;
+import com.danikula.videocache.file.WriteBehindPolicy;
 import com.danikula.videocache.headers.EmptyHeadersInjector;
 import com.danikula.videocache.headers.HeaderInjector;
 import com.danikula.videocache.sourcestorage.SourceInfoStorage;
@@ -18,14 +24,22 @@ import com.danikula.videocache.sourcestorage.SourceInfoStorageFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.InetAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.InetSocketAddress;
 import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.channels.ServerSocketChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
@@ -58,16 +72,23 @@ import static com.danikula.videocache.Preconditions.checkNotNull;
 public class HttpProxyCacheServer {
 
     private static final Logger LOG = LoggerFactory.getLogger("HttpProxyCacheServer");
-    private static final String PROXY_HOST = "127.0.0.1";
+    static final String PROXY_HOST = "127.0.0.1";
 
     private final Object clientsLock = new Object();
     private final ExecutorService socketProcessor = Executors.newFixedThreadPool(8);
     private final Map<String, HttpProxyCacheServerClients> clientsMap = new ConcurrentHashMap<>();
-    private final ServerSocket serverSocket;
-    private final int port;
-    private final Thread waitConnectionThread;
+    private final Object serverLock = new Object();
     private final Config config;
-    private final Pinger pinger;
+    private final HealthWatchdog healthWatchdog;
+    private final AdmissionCounters admissionCounters = new AdmissionCounters();
+    private final TierCounters tierCounters;
+    private volatile ServerSocket serverSocket;
+    private volatile int port;
+    private final IgnoreHostProxySelector proxySelector;
+    private volatile Thread waitConnectionThread;
+    private volatile NioProxyServer nioProxyServer;
+    private volatile Pinger pinger;
+    private volatile boolean shutdown;
 
     public HttpProxyCacheServer(Context context) {
         this(new Builder(context).buildConfig());
@@ -75,25 +96,119 @@ public class HttpProxyCacheServer {
 
     private HttpProxyCacheServer(Config config) {
         this.config = checkNotNull(config);
+        this.tierCounters = new TierCounters(config.cacheVolumes);
         PreloadManager.getInstance().setConfig(config);
         PreloadManager.getInstance().setProxyCacheServer(this);
+        if (config.cacheVolumes.isSharded()) {
+            migrateToShardedLayout(config.cacheVolumes);
+        }
         try {
-            InetAddress inetAddress = InetAddress.getByName(PROXY_HOST);
-            this.serverSocket = new ServerSocket(0, 8, inetAddress);
-            this.port = serverSocket.getLocalPort();
-            IgnoreHostProxySelector.install(PROXY_HOST, port);
+            startServer(0);
+            this.proxySelector = IgnoreHostProxySelector.install(PROXY_HOST, port);
+            this.healthWatchdog = new HealthWatchdog(new WatchdogServer());
+            this.healthWatchdog.start();
+            LOG.info("Proxy cache server started on port " + port);
+        } catch (IOException | InterruptedException e) {
+            socketProcessor.shutdown();
+            throw new IllegalStateException("Error starting local proxy server", e);
+        }
+    }
+
+    private void migrateToShardedLayout(final CacheVolumes cacheVolumes) {
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                cacheVolumes.migrate();
+            }
+        }, "Cache layout migration").start();
+    }
+
+    /**
+     * Starts accepting connections.
+     *
+     * @param preferredPort a port to bind server to, e.g. port of stopped server, {@code 0} to use any free port.
+     */
+    private void startServer(int preferredPort) throws IOException, InterruptedException {
+        InetAddress inetAddress = InetAddress.getByName(PROXY_HOST);
+        // socket from channel allows zero-copy transferring of cached data to client
+        ServerSocketChannel serverChannel = bind(inetAddress, preferredPort, config.isNioEngine() ? 50 : 8);
+        this.serverSocket = serverChannel.socket();
+        this.port = serverSocket.getLocalPort();
+        if (config.isNioEngine()) {
+            this.waitConnectionThread = null;
+            this.nioProxyServer = new NioProxyServer(serverChannel, config.nioProcessorThreads,
+                    config.keepAliveTimeoutMs, new NioRequestHandler());
+            this.nioProxyServer.start();
+        } else {
+            this.nioProxyServer = null;
             CountDownLatch startSignal = new CountDownLatch(1);
-            this.waitConnectionThread = new Thread(new WaitRequestsRunnable(startSignal));
+            this.waitConnectionThread = new Thread(new WaitRequestsRunnable(serverSocket, startSignal));
             this.waitConnectionThread.start();
             startSignal.await(); // freeze thread, wait for server starts
+        }
+        Pinger oldPinger = pinger;
+        if (oldPinger == null || oldPinger.getPort() != port) { // restarted server usually keeps its port
             this.pinger = new Pinger(PROXY_HOST, port);
-            LOG.info("Proxy cache server started. Is it alive? " + isAlive());
-        } catch (IOException | InterruptedException e) {
-            socketProcessor.shutdown();
-            throw new IllegalStateException("Error starting local proxy server", e);
+            if (oldPinger != null) {
+                oldPinger.shutdown();
+            }
+        }
+    }
+
+    private ServerSocketChannel bind(InetAddress inetAddress, int preferredPort, int backlog) throws IOException {
+        if (preferredPort > 0) {
+            ServerSocketChannel serverChannel = ServerSocketChannel.open();
+            try {
+                serverChannel.socket().setReuseAddress(true); // connections of stopped server may be in TIME_WAIT state
+                serverChannel.socket().bind(new InetSocketAddress(inetAddress, preferredPort), backlog);
+                return serverChannel;
+            } catch (IOException e) {
+                ProxyCacheUtils.close(serverChannel);
+                LOG.warn("Error binding proxy server to port " + preferredPort + ", proxy urls returned before are invalidated", e);
+            }
+        }
+        ServerSocketChannel serverChannel = ServerSocketChannel.open();
+        serverChannel.socket().bind(new InetSocketAddress(inetAddress, 0), backlog);
+        return serverChannel;
+    }
+
+    private void stopServer() {
+        if (nioProxyServer != null) {
+            nioProxyServer.shutdown();
+        } else if (waitConnectionThread != null) {
+            waitConnectionThread.interrupt();
+        }
+        try {
+            if (!serverSocket.isClosed()) {
+                serverSocket.close();
+            }
+        } catch (IOException e) {
+            onError(new ProxyCacheException("Error shutting down proxy server", e));
+        }
+    }
+
+    private void restartServer() {
+        synchronized (serverLock) {
+            if (shutdown) {
+                return;
+            }
+            stopServer();
+            try {
+                startServer(port); // proxy urls returned before stay valid if port is free yet
+                proxySelector.setPortToIgnore(port);
+                LOG.info("Proxy cache server restarted on port " + port);
+            } catch (IOException | InterruptedException e) {
+                onError(new ProxyCacheException("Error restarting proxy server", e));
+            }
         }
     }
 
+    private boolean isAccepting() {
+        NioProxyServer nioServer = nioProxyServer;
+        Thread acceptThread = waitConnectionThread;
+        return nioServer != null ? nioServer.isRunning() : acceptThread != null && acceptThread.isAlive();
+    }
+
     /**
      * Returns url that wrap original url and should be used for client (MediaPlayer, ExoPlayer, etc).
      * <p>
@@ -114,6 +229,9 @@ public class HttpProxyCacheServer {
      * <p>
      * If parameter {@code allowCachedFileUri} is {@code true} and file for this url is fully cached
      * (it means method {@link #isCached(String, String)} returns {@code true}) then file:// uri to cached file will be returned.
+     * <p>
+     * If accept loop of proxy dies, proxy is restarted on same port, so returned url stays valid. If port is taken
+     * by other app meanwhile, proxy is started on new port and urls returned before are invalidated.
      *
      * @param url                a url to file that should be cached.
      * @param allowCachedFileUri {@code true} if allow to return file:// uri if url is fully cached
@@ -164,6 +282,7 @@ public class HttpProxyCacheServer {
 
     /**
      * Checks is cache contains fully cached file for particular url.
+     * Cache file is completed as soon as cached ranges cover all source data, no matter in which order they are fetched.
      *
      * @param url an url cache file will be checked for.
      * @return {@code true} if cache contains fully cached file for passed in parameters url.
@@ -173,25 +292,72 @@ public class HttpProxyCacheServer {
         return getCacheFile(id, url).exists();
     }
 
+    /**
+     * Returns count of bytes fetched from source and written to cache since proxy is started.
+     *
+     * @return count of admitted bytes.
+     */
+    public long getAdmittedBytes() {
+        return admissionCounters.getAdmittedBytes();
+    }
+
+    /**
+     * Returns count of bytes streamed to clients without caching since proxy is started,
+     * because videos were not admitted to cache by {@link AdmissionPolicy}.
+     *
+     * @return count of rejected bytes.
+     */
+    public long getRejectedBytes() {
+        return admissionCounters.getRejectedBytes();
+    }
+
+    /**
+     * Returns share of requests served by every tier of cache since proxy is started: memory tier
+     * (see {@link Builder#memoryTier(long, int)}), every cache volume and source for not cached data.
+     * Request is counted by tier that holds requested offset when request is started.
+     *
+     * @return hit ratios by tier names ({@code "memory"}, paths of cache directories, {@code "source"}), fastest tier first.
+     */
+    public Map<String, Float> getTierHitRatios() {
+        return tierCounters.getHitRatios();
+    }
+
+    /**
+     * Returns count of requests to sources that reused connection from pool of shared http clients
+     * (see {@link OkHttpProvider}) since app is started. Requests of {@link PreloadManager} are counted too.
+     *
+     * @return count of pool hits.
+     */
+    public long getConnectionPoolHits() {
+        return OkHttpProvider.INSTANCE.getPoolCounters().getHits();
+    }
+
+    /**
+     * Returns count of requests to sources that opened new connection since app is started.
+     *
+     * @return count of pool misses.
+     */
+    public long getConnectionPoolMisses() {
+        return OkHttpProvider.INSTANCE.getPoolCounters().getMisses();
+    }
+
     public void shutdown() {
         LOG.info("Shutdown proxy server");
 
+        healthWatchdog.shutdown();
         shutdownClients();
 
         config.sourceInfoStorage.release();
 
-        waitConnectionThread.interrupt();
-        try {
-            if (!serverSocket.isClosed()) {
-                serverSocket.close();
-            }
-        } catch (IOException e) {
-            onError(new ProxyCacheException("Error shutting down proxy server", e));
+        synchronized (serverLock) {
+            shutdown = true;
+            stopServer();
+            pinger.shutdown();
         }
     }
 
     private boolean isAlive() {
-        return pinger.ping(3, 70);   // 70+140+280=max~500ms
+        return healthWatchdog.isAlive();
     }
 
     private String appendToProxyUrl(String videoId, String url) {
@@ -199,9 +365,7 @@ public class HttpProxyCacheServer {
     }
 
     public File getCacheFile(String id, String url) {
-        File cacheDir = config.cacheRoot;
-        String fileName = config.fileNameGenerator.generate(id, url);
-        return new File(cacheDir, fileName);
+        return config.generateCacheFile(id, url);
     }
 
     private void touchFileSafely(File cacheFile) {
@@ -221,7 +385,7 @@ public class HttpProxyCacheServer {
         }
     }
 
-    private void waitForRequest() {
+    private void waitForRequest(ServerSocket serverSocket) {
         try {
             while (!Thread.currentThread().isInterrupted()) {
                 Socket socket = serverSocket.accept();
@@ -235,16 +399,20 @@ public class HttpProxyCacheServer {
 
     private void processSocket(Socket socket) {
         try {
-            GetRequest request = GetRequest.read(socket.getInputStream());
-            LOG.debug("Request to cache proxy:" + request);
-            String url = ProxyCacheUtils.decode(request.uri);
-            if (pinger.isPingRequest(url)) {
-                pinger.responseToPing(socket);
-            } else {
-                String id = Uri.parse(url).getQueryParameter("vid");
-                HttpProxyCacheServerClients clients = getClients(id, url);
-                clients.processRequest(request, socket);
+            if (config.isKeepAliveEnabled()) {
+                socket.setSoTimeout(config.keepAliveTimeoutMs);
+            }
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            GetRequest request;
+            boolean keepAlive = true;
+            while (keepAlive && (request = GetRequest.read(in)) != null) {
+                if (!config.isKeepAliveEnabled()) {
+                    request = request.withoutKeepAlive(); // idle connection would hold one of few processing threads
+                }
+                keepAlive = processRequest(request, socket);
             }
+        } catch (SocketTimeoutException e) {
+            LOG.debug("Closing idle socket… Keep-alive timeout is expired.");
         } catch (SocketException e) {
             // There is no way to determine that client closed connection http://stackoverflow.com/a/10241044/999458
             // So just to prevent log flooding don't log stacktrace
@@ -255,12 +423,7 @@ public class HttpProxyCacheServer {
                 try {
                     OutputStream out = new BufferedOutputStream(socket.getOutputStream());
 
-                    String responseHeaders = "HTTP/1.1 " +
-                        e.getErrorCode() +
-                        " " +
-                        e.getMessage() +
-                        "\n" +
-                        "Content-Length: 0\n\n";
+                    String responseHeaders = newErrorResponseHeaders(e);
                     LOG.debug(responseHeaders);
 
                     out.write(responseHeaders.getBytes("UTF-8"));
@@ -279,12 +442,32 @@ public class HttpProxyCacheServer {
         }
     }
 
+    private boolean processRequest(GetRequest request, Socket socket) throws IOException, ProxyCacheException {
+        LOG.debug("Request to cache proxy:" + request);
+        String url = ProxyCacheUtils.decode(request.uri);
+        if (pinger.isPingRequest(url)) {
+            pinger.responseToPing(socket);
+            return false;
+        }
+        String id = Uri.parse(url).getQueryParameter("vid");
+        HttpProxyCacheServerClients clients = getClients(id, url);
+        return clients.processRequest(request, socket);
+    }
+
+    private String newErrorResponseHeaders(ProxyCacheException e) {
+        return "HTTP/1.1 " +
+            e.getErrorCode() +
+            " " +
+            e.getMessage() +
+            "\n" +
+            "Content-Length: 0\n\n";
+    }
 
     private HttpProxyCacheServerClients getClients(String id, String url) throws ProxyCacheException {
         synchronized (clientsLock) {
             HttpProxyCacheServerClients clients = clientsMap.get(id);
             if (clients == null) {
-                clients = new HttpProxyCacheServerClients(id, url, config);
+                clients = new HttpProxyCacheServerClients(id, url, config, admissionCounters, tierCounters);
                 clientsMap.put(id, clients);
             }
             return clients;
@@ -354,16 +537,36 @@ public class HttpProxyCacheServer {
 
     private final class WaitRequestsRunnable implements Runnable {
 
+        private final ServerSocket serverSocket;
         private final CountDownLatch startSignal;
 
-        public WaitRequestsRunnable(CountDownLatch startSignal) {
+        public WaitRequestsRunnable(ServerSocket serverSocket, CountDownLatch startSignal) {
+            this.serverSocket = serverSocket;
             this.startSignal = startSignal;
         }
 
         @Override
         public void run() {
             startSignal.countDown();
-            waitForRequest();
+            waitForRequest(serverSocket);
+        }
+    }
+
+    private final class WatchdogServer implements HealthWatchdog.MonitoredServer {
+
+        @Override
+        public boolean isAccepting() {
+            return HttpProxyCacheServer.this.isAccepting();
+        }
+
+        @Override
+        public boolean ping() {
+            return pinger.ping(3, 70);   // 70+140+280=max~500ms
+        }
+
+        @Override
+        public void restart() {
+            restartServer();
         }
     }
 
@@ -381,18 +584,55 @@ public class HttpProxyCacheServer {
         }
     }
 
+    private final class NioRequestHandler implements NioProxyServer.RequestHandler {
+
+        @Override
+        public NioResponse handle(GetRequest request) throws ProxyCacheException, IOException {
+            String url = ProxyCacheUtils.decode(request.uri);
+            if (pinger.isPingRequest(url)) {
+                return pinger.newPingResponse();
+            }
+            String id = Uri.parse(url).getQueryParameter("vid");
+            HttpProxyCacheServerClients clients = getClients(id, url);
+            return clients.processNioRequest(request);
+        }
+
+        @Override
+        public NioResponse handleError(ProxyCacheException e) {
+            if (e.getErrorType() == ProxyCacheException.ERROR_TYPE_HTTP) {
+                String responseHeaders = newErrorResponseHeaders(e);
+                LOG.debug(responseHeaders);
+                return NioResponse.newFixedResponse(responseHeaders, new byte[0]);
+            }
+            onError(e);
+            return null;
+        }
+    }
+
     /**
      * Builder for {@link HttpProxyCacheServer}.
      */
     public static final class Builder {
 
         private static final long DEFAULT_MAX_SIZE = 512 * 1024 * 1024;
+        private static final int DEFAULT_KEEP_ALIVE_TIMEOUT_MS = 5000;
 
         private File cacheRoot;
         private FileNameGenerator fileNameGenerator;
         private DiskUsage diskUsage;
         private SourceInfoStorage sourceInfoStorage;
         private HeaderInjector headerInjector;
+        private int nioProcessorThreads;
+        private int keepAliveTimeoutMs;
+        private boolean mappedReads;
+        private int downloadConnections;
+        private AdmissionPolicy admissionPolicy;
+        private boolean shardedLayout;
+        private final List<CacheVolume> cacheVolumes = new ArrayList<>();
+        private boolean tieredCacheVolumes;
+        private MemoryTier memoryTier;
+        private boolean preallocation;
+        private WriteBehindPolicy writeBehind;
 
         public Builder(Context context) {
             this.sourceInfoStorage = SourceInfoStorageFactory.newSourceInfoStorage(context);
@@ -400,6 +640,8 @@ public class HttpProxyCacheServer {
             this.diskUsage = new TotalSizeLruDiskUsage(DEFAULT_MAX_SIZE);
             this.fileNameGenerator = new Md5FileNameGenerator();
             this.headerInjector = new EmptyHeadersInjector();
+            this.admissionPolicy = new AdmitAllPolicy();
+            this.downloadConnections = 1;
         }
 
         /**
@@ -433,7 +675,7 @@ public class HttpProxyCacheServer {
         /**
          * Sets max cache size in bytes.
          * <p>
-         * All files that exceeds limit will be deleted using LRU strategy.
+         * All files that exceeds limit will be deleted using LRU strategy, cache is trimmed to 90% of limit.
          * Default value is 512 Mb.
          * </p>
          * Note this method overrides result of calling {@link #maxCacheFilesCount(int)}
@@ -448,7 +690,7 @@ public class HttpProxyCacheServer {
 
         /**
          * Sets max cache files count.
-         * All files that exceeds limit will be deleted using LRU strategy.
+         * All files that exceeds limit will be deleted using LRU strategy, cache is trimmed to 90% of limit.
          * Note this method overrides result of calling {@link #maxCacheSize(long)}
          *
          * @param count max cache files count.
@@ -461,6 +703,7 @@ public class HttpProxyCacheServer {
 
         /**
          * Set custom DiskUsage logic for handling when to keep or clean cache.
+         * E.g. {@link com.danikula.videocache.file.TinyLfuDiskUsage} keeps frequently used files instead of recently used ones.
          *
          * @param diskUsage a disk usage strategy, cant be {@code null}.
          * @return a builder.
@@ -481,6 +724,200 @@ public class HttpProxyCacheServer {
             return this;
         }
 
+        /**
+         * Switches proxy server to selector based engine.
+         * <p>
+         * By default every connection is processed by own thread from pool of 8 threads, so 8 long-lived video streams
+         * block all other requests. Selector based engine multiplexes all connections by single thread and uses
+         * small pool of threads only for preparing responses.
+         * </p>
+         *
+         * @param processorThreads count of threads for preparing responses, must be positive.
+         * @return a builder.
+         */
+        public Builder nioEngine(int processorThreads) {
+            Preconditions.checkArgument(processorThreads > 0, "Processor threads count must be positive!");
+            this.nioProcessorThreads = processorThreads;
+            return this;
+        }
+
+        /**
+         * Enables keep-alive and sets how long idle connection is kept open waiting for next request.
+         * <p>
+         * Connection with client is reused for successive requests (e.g. range requests on seek) if client asks for it.
+         * Connection is always closed after response which body isn't fully written.
+         * Keep-alive is enabled with 5 seconds timeout by default for {@link #nioEngine(int) NIO engine} and disabled
+         * for default engine, because default engine holds one of few processing threads while connection is open.
+         * Prefer short timeout if it is enabled for default engine.
+         * </p>
+         *
+         * @param timeoutMs idle timeout in milliseconds, must be positive.
+         * @return a builder.
+         */
+        public Builder keepAliveTimeout(int timeoutMs) {
+            Preconditions.checkArgument(timeoutMs > 0, "Keep-alive timeout must be positive!");
+            this.keepAliveTimeoutMs = timeoutMs;
+            return this;
+        }
+
+        /**
+         * Enables reading of fully cached files with help of memory mapping.
+         * <p>
+         * By default every read from cache file is synchronized, so several clients of same video (e.g. player and preloader)
+         * wait for each other. Mapped files are read without any locks. Disabled by default.
+         * </p>
+         *
+         * @param mappedReads {@code true} to read completed cache files using memory mapping.
+         * @return a builder.
+         */
+        public Builder memoryMappedReads(boolean mappedReads) {
+            this.mappedReads = mappedReads;
+            return this;
+        }
+
+        /**
+         * Sets count of concurrent connections used for downloading single video.
+         * <p>
+         * By default video is downloaded by single connection, so on high-latency networks speed of one TCP flow limits
+         * download speed. If count is greater than 1, video is downloaded by segments with help of several concurrent
+         * range requests, segments the player is reading now are downloaded first. Origin server must support range requests.
+         * </p>
+         *
+         * @param connections count of connections per video, must be positive.
+         * @return a builder.
+         */
+        public Builder downloadConnections(int connections) {
+            Preconditions.checkArgument(connections > 0, "Connections count must be positive!");
+            this.downloadConnections = connections;
+            return this;
+        }
+
+        /**
+         * Sets policy that decides which videos are cached on disk.
+         * <p>
+         * Not admitted video is streamed from source to player without caching, so videos opened only once
+         * (e.g. scrolled in feed) don't take disk space and don't push other videos out of cache. Video that already
+         * has cache file is always cached. By default every video is cached.
+         * E.g. {@link com.danikula.videocache.admission.DoorkeeperAdmissionPolicy} caches video when it is requested
+         * second time. See {@link HttpProxyCacheServer#getAdmittedBytes()} and {@link HttpProxyCacheServer#getRejectedBytes()}
+         * to estimate effect of policy.
+         * </p>
+         *
+         * @param admissionPolicy an admission policy, cant be {@code null}.
+         * @return a builder.
+         */
+        public Builder admissionPolicy(AdmissionPolicy admissionPolicy) {
+            this.admissionPolicy = checkNotNull(admissionPolicy);
+            return this;
+        }
+
+        /**
+         * Enables layout of cache directory with two levels of subdirectories.
+         * <p>
+         * By default all files are stored in cache directory itself, so listing, lookups and deleting of files
+         * become slower when there are tens of thousands of cached files. Sharded layout spreads files over 256
+         * subdirectories named by hash of file name. Files cached before with flat layout are moved to subdirectories
+         * in background, see {@link com.danikula.videocache.file.ShardedLayout}. Disabled by default.
+         * </p>
+         *
+         * @param sharded {@code true} to store cache files in subdirectories.
+         * @return a builder.
+         */
+        public Builder shardedCacheDirectory(boolean sharded) {
+            this.shardedLayout = sharded;
+            return this;
+        }
+
+        /**
+         * Adds cache volume, e.g. directory on internal flash or on SD card, to spread cache over several directories.
+         * <p>
+         * Every video is placed to one of volumes by hash of its name, volume gets share of videos proportional to its weight.
+         * Every volume is trimmed by own disk usage strategy, so total cache size is sum of volumes' limits.
+         * If volume is not available (e.g. SD card is unmounted), videos are cached to other volumes.
+         * Note if any volume is added, {@link #cacheDirectory(File)} and disk usage set by other methods are ignored.
+         * </p>
+         * <b>Note</b> every directory must be used <b>only</b> for AndroidVideoCache files.
+         *
+         * @param directory a cache directory of volume, can't be null.
+         * @param diskUsage a disk usage strategy of volume, every volume needs own instance.
+         * @param weight    a relative share of videos placed to volume, must be positive.
+         * @return a builder.
+         */
+        public Builder addCacheVolume(File directory, DiskUsage diskUsage, int weight) {
+            this.cacheVolumes.add(new CacheVolume(checkNotNull(directory), checkNotNull(diskUsage), weight));
+            return this;
+        }
+
+        /**
+         * Uses cache volumes as tiers instead of spreading videos by hash.
+         * <p>
+         * Volumes are tiers in order they are added, the fastest storage should be added first (e.g. internal flash,
+         * then SD card). New videos are cached to first available tier, video evicted from tier is moved to next tier
+         * instead of deleting, video played from lower tier is moved back to first tier in background. Weights of
+         * volumes are ignored. Disabled by default.
+         * </p>
+         *
+         * @param tiered {@code true} to use cache volumes as tiers.
+         * @return a builder.
+         */
+        public Builder tieredCacheVolumes(boolean tiered) {
+            this.tieredCacheVolumes = tiered;
+            return this;
+        }
+
+        /**
+         * Enables memory tier that keeps beginnings of recently played videos.
+         * <p>
+         * Beginning of fully cached video is kept in memory when video is played, so next playback starts without
+         * reading storage. Beginnings of least recently played videos are dropped when memory limit is exceeded.
+         * See {@link HttpProxyCacheServer#getTierHitRatios()} to estimate effect. Disabled by default.
+         * </p>
+         *
+         * @param maxSize  max size of memory used by tier, in bytes.
+         * @param headSize size of kept beginning of single video, in bytes.
+         * @return a builder.
+         */
+        public Builder memoryTier(long maxSize, int headSize) {
+            this.memoryTier = new MemoryTier(maxSize, headSize);
+            return this;
+        }
+
+        /**
+         * Enables preallocation of cache files.
+         * <p>
+         * By default cache file grows with every chunk of fetched data, so file is fragmented and its metadata is
+         * updated by every write. If length of video is known, preallocated file gets space for whole video before
+         * downloading. If there is no free space, least recently used files are deleted and request fails at once
+         * with {@link InsufficientSpaceException} instead of failing in the middle of playback. Note partially watched
+         * video takes space of whole video. Disabled by default.
+         * </p>
+         *
+         * @param preallocation {@code true} to reserve space for whole cache file.
+         * @return a builder.
+         */
+        public Builder preallocateCacheFiles(boolean preallocation) {
+            this.preallocation = preallocation;
+            return this;
+        }
+
+        /**
+         * Sets policy of writing fetched data to cache files.
+         * <p>
+         * By default every chunk fetched from network is written to cache file at once. With write-behind policy
+         * fetched data is gathered in memory into large blocks (e.g. 256 Kb) and every block is written by single
+         * positional write, so storage gets few large aligned writes instead of many small ones. Players get data that
+         * isn't written yet from memory. Not full block is written when it is older than max delay of policy or when
+         * caching is stopped, so not written data may be lost only if app is killed. Disabled by default.
+         * </p>
+         *
+         * @param writeBehind a policy of writing, {@code null} to write every fetched chunk at once.
+         * @return a builder.
+         */
+        public Builder writeBehind(WriteBehindPolicy writeBehind) {
+            this.writeBehind = writeBehind;
+            return this;
+        }
+
         /**
          * Builds new instance of {@link HttpProxyCacheServer}.
          *
@@ -492,7 +929,11 @@ public class HttpProxyCacheServer {
         }
 
         private Config buildConfig() {
-            return new Config(cacheRoot, fileNameGenerator, diskUsage, sourceInfoStorage, headerInjector);
+            List<CacheVolume> volumes = cacheVolumes.isEmpty() ? Collections.singletonList(new CacheVolume(cacheRoot, diskUsage, 1)) : cacheVolumes;
+            CacheVolumes placement = new CacheVolumes(volumes, shardedLayout, tieredCacheVolumes);
+            int keepAliveTimeout = keepAliveTimeoutMs > 0 || nioProcessorThreads == 0 ? keepAliveTimeoutMs : DEFAULT_KEEP_ALIVE_TIMEOUT_MS;
+            return new Config(volumes.get(0).getRoot(), fileNameGenerator, placement, sourceInfoStorage, headerInjector, nioProcessorThreads, keepAliveTimeout,
+                    mappedReads, downloadConnections, admissionPolicy, placement, memoryTier, preallocation, writeBehind);
         }
 
     }
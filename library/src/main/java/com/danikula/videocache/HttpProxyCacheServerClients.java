@@ -12,11 +12,17 @@ import java.net.Socket;
 import java.util.List;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static com.danikula.videocache.Preconditions.checkNotNull;
 
 /**
  * Client for {@link HttpProxyCacheServer}
+ * <p>
+ * When video is requested while it isn't played, {@link Config#admissionPolicy} decides whether video is cached
+ * by {@link HttpProxyCache} or streamed without caching by {@link PassThroughProxy}. Decision is kept for playback
+ * session: policy is asked again only when video is requested from the beginning while it isn't played, so seeks
+ * (range requests after all clients are finished) within not admitted video don't count as new requests of video.
  *
  * @author Alexey Danilov (danikula@gmail.com).
  */
@@ -25,39 +31,87 @@ final class HttpProxyCacheServerClients {
     private final AtomicInteger clientsCount = new AtomicInteger(0);
     private final String url;
     private final String vid;
+    private final AtomicLong streamedBytes = new AtomicLong();
     private volatile HttpProxyCache proxyCache;
+    private volatile PassThroughProxy passThroughProxy;
     private final List<CacheListener> listeners = new CopyOnWriteArrayList<>();
     private final CacheListener uiCacheListener;
     private final Config config;
+    private final AdmissionCounters admissionCounters;
+    private final TierCounters tierCounters;
 
-    public HttpProxyCacheServerClients(String vid, String url, Config config) {
+    public HttpProxyCacheServerClients(String vid, String url, Config config, AdmissionCounters admissionCounters,
+                                       TierCounters tierCounters) {
         this.url = checkNotNull(url);
         this.vid = checkNotNull(vid);
         this.config = checkNotNull(config);
+        this.admissionCounters = checkNotNull(admissionCounters);
+        this.tierCounters = checkNotNull(tierCounters);
         this.uiCacheListener = new UiListenerHandler(vid, listeners);
     }
 
-    public void processRequest(GetRequest request, Socket socket) throws ProxyCacheException, IOException {
-        startProcessRequest();
+    public boolean processRequest(GetRequest request, Socket socket) throws ProxyCacheException, IOException {
+        startProcessRequest(request);
         try {
             clientsCount.incrementAndGet();
-            proxyCache.processRequest(request, socket);
+            PassThroughProxy passThrough = passThroughProxy;
+            return passThrough != null ? passThrough.processRequest(request, socket) : proxyCache.processRequest(request, socket);
         } finally {
             finishProcessRequest();
         }
     }
 
-    private synchronized void startProcessRequest() throws ProxyCacheException {
-        proxyCache = proxyCache == null ? newHttpProxyCache() : proxyCache;
+    /**
+     * Prepares response for {@link NioProxyServer}. Client is counted until returned response is closed.
+     */
+    public NioResponse processNioRequest(GetRequest request) throws ProxyCacheException, IOException {
+        startProcessRequest(request);
+        clientsCount.incrementAndGet();
+        try {
+            PassThroughProxy passThrough = passThroughProxy;
+            NioResponse response = passThrough != null ? passThrough.newNioResponse(request) : proxyCache.newNioResponse(request);
+            response.setCloseListener(new Runnable() {
+                @Override
+                public void run() {
+                    finishProcessRequest();
+                }
+            });
+            return response;
+        } catch (ProxyCacheException | IOException | RuntimeException e) {
+            finishProcessRequest();
+            throw e;
+        }
+    }
+
+    private synchronized void startProcessRequest(GetRequest request) throws ProxyCacheException {
+        if (proxyCache != null) {
+            return;
+        }
+        boolean newPlayback = request.rangeOffset == 0;
+        if (passThroughProxy != null && (clientsCount.get() > 0 || !newPlayback)) {
+            return; // video is played or seeked within session that isn't admitted
+        }
+        if (isAdmitted()) {
+            passThroughProxy = null;
+            proxyCache = newHttpProxyCache();
+        } else if (passThroughProxy == null) {
+            passThroughProxy = newPassThroughProxy();
+        }
     }
 
     private synchronized void finishProcessRequest() {
         if (clientsCount.decrementAndGet() <= 0) {
-            proxyCache.shutdown();
-            proxyCache = null;
+            if (proxyCache != null) {
+                proxyCache.shutdown();
+                proxyCache = null;
+            }
         }
     }
 
+    private boolean isAdmitted() {
+        return FileCache.isCacheStarted(config.generateCacheFile(vid, url)) || config.admissionPolicy.admit(vid, streamedBytes.get());
+    }
+
     public void registerCacheListener(CacheListener cacheListener) {
         listeners.add(cacheListener);
     }
@@ -68,6 +122,7 @@ final class HttpProxyCacheServerClients {
 
     public void shutdown() {
         listeners.clear();
+        passThroughProxy = null;
         if (proxyCache != null) {
             proxyCache.registerCacheListener(null);
             proxyCache.shutdown();
@@ -85,12 +140,26 @@ final class HttpProxyCacheServerClients {
             PreloadManager.getInstance().cancel(url);
         }
         HttpUrlSource source = new HttpUrlSource(url, config.sourceInfoStorage, config.headerInjector);
-        FileCache fileCache = new FileCache(config.generateCacheFile(vid, url), config.diskUsage);
-        HttpProxyCache httpProxyCache = new HttpProxyCache(source, fileCache);
+        FileCache fileCache = config.newFileCache(vid, url);
+        HttpProxyCache httpProxyCache = new HttpProxyCache(source, fileCache, config.downloadConnections);
         httpProxyCache.registerCacheListener(uiCacheListener);
+        httpProxyCache.setAdmissionCounters(admissionCounters);
+        httpProxyCache.setTierCounters(tierCounters);
+        httpProxyCache.setPreallocation(config.preallocation);
         return httpProxyCache;
     }
 
+    private PassThroughProxy newPassThroughProxy() {
+        HttpUrlSource source = new HttpUrlSource(url, config.sourceInfoStorage, config.headerInjector);
+        return new PassThroughProxy(source, new PassThroughProxy.Listener() {
+            @Override
+            public void onStreamed(long bytes) {
+                streamedBytes.addAndGet(bytes);
+                admissionCounters.onRejected(bytes);
+            }
+        });
+    }
+
     private static final class UiListenerHandler extends Handler implements CacheListener {
 
         private final String vid;
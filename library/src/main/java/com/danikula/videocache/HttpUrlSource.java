@@ -17,7 +17,6 @@ import java.io.InterruptedIOException;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.util.Map;
-import java.util.concurrent.TimeUnit;
 
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
@@ -43,7 +42,8 @@ public class HttpUrlSource implements Source {
     private static final int MAX_REDIRECTS = 5;
     private final SourceInfoStorage sourceInfoStorage;
     private final HeaderInjector headerInjector;
-    private SourceInfo sourceInfo;
+    private volatile SourceInfo sourceInfo;
+    private boolean openAttempted;
     private Response response;
     private InputStream inputStream;
 
@@ -93,16 +93,76 @@ public class HttpUrlSource implements Source {
             long length = readSourceAvailableBytes(response, offset, response.code());
             this.sourceInfo = new SourceInfo(sourceInfo.url, length, mime);
             this.sourceInfoStorage.put(sourceInfo.url, sourceInfo);
+            onOpened();
         } catch (IOException e) {
+            onOpened();
             throw new ProxyCacheException("Error opening connection for " + sourceInfo.url + " with offset " + offset, e);
         }
         return needCover;
     }
 
+    private synchronized void onOpened() {
+        openAttempted = true;
+        notifyAll(); // length is fetched by data request or opening is failed
+    }
+
+    /**
+     * Checks is length of source known without requests to source.
+     *
+     * @return {@code true} if length is known.
+     */
+    public boolean isLengthKnown() {
+        return sourceInfo.length != Integer.MIN_VALUE;
+    }
+
+    /**
+     * Waits for length fetched by {@link #open(long)} called by other thread, so {@link #length()} doesn't send
+     * separate request to source. Doesn't wait if source has been opened before. Mime isn't awaited,
+     * if data response doesn't have it, {@link #getMime()} fetches it.
+     *
+     * @param timeoutMs max time to wait, in milliseconds.
+     * @return {@code true} if length is known, {@code false} if opening is failed or timeout is elapsed.
+     * @throws InterruptedException if waiting is interrupted.
+     */
+    public synchronized boolean awaitLength(long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (!isLengthKnown() && !openAttempted) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                break;
+            }
+            wait(remaining);
+        }
+        return isLengthKnown();
+    }
+
+    /**
+     * Opens connection for part of source. Unlike {@link #open(long)} it never falls back to reading source from start.
+     *
+     * @param offset a first byte to be read.
+     * @param end    a last byte to be read (inclusive).
+     * @throws ProxyCacheException if connection can't be opened or source doesn't support partial requests.
+     */
+    public void openRange(long offset, long end) throws ProxyCacheException {
+        try {
+            response = request(offset, end, -1);
+            if (response.code() != HTTP_PARTIAL && offset > 0) {
+                response.close();
+                throw new ProxyCacheException("Source " + sourceInfo.url + " doesn't support range requests, response code " + response.code());
+            }
+            inputStream = new BufferedInputStream(response.body().byteStream(), DEFAULT_BUFFER_SIZE);
+        } catch (IOException e) {
+            throw new ProxyCacheException("Error opening connection for " + sourceInfo.url + " with range " + offset + "-" + end, e);
+        }
+    }
+
     private long readSourceAvailableBytes(Response response, long offset, int responseCode) throws IOException {
         long contentLength = getContentLength(response);
-        return responseCode == HTTP_OK ? contentLength
-                : responseCode == HTTP_PARTIAL ? contentLength + offset : sourceInfo.length;
+        if (responseCode == HTTP_PARTIAL) {
+            long totalLength = getTotalLength(response);
+            return totalLength >= 0 ? totalLength : contentLength < 0 ? -1 : contentLength + offset;
+        }
+        return responseCode == HTTP_OK ? contentLength : sourceInfo.length;
     }
 
     private long getContentLength(Response response) {
@@ -110,6 +170,24 @@ public class HttpUrlSource implements Source {
         return contentLengthValue == null ? -1 : Long.parseLong(contentLengthValue);
     }
 
+    /**
+     * Returns full length of source from header of partial response, e.g. {@code Content-Range: bytes 0-0/1234}.
+     *
+     * @return full length or {@code -1} if it is unknown.
+     */
+    private long getTotalLength(Response response) {
+        String contentRange = response.header("Content-Range");
+        int slash = contentRange == null ? -1 : contentRange.lastIndexOf('/');
+        if (slash < 0) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(contentRange.substring(slash + 1).trim());
+        } catch (NumberFormatException e) {
+            return -1; // length is unknown: bytes 0-0/*
+        }
+    }
+
     @Override
     public void close() throws ProxyCacheException {
         if (response != null) {
@@ -143,13 +221,20 @@ public class HttpUrlSource implements Source {
         }
     }
 
+    /**
+     * Fetches length and mime of source with request for single byte, so probe doesn't download data and
+     * connection can be reused. Full length is taken from {@code Content-Range}, if source doesn't support
+     * range requests it is taken from {@code Content-Length} of full response.
+     * <p>
+     * {@code HEAD} request is not used, because signed urls of some CDNs are valid only for {@code GET}.
+     */
     private void fetchContentInfo() throws ProxyCacheException {
         LOG.debug("Read content info from " + sourceInfo.url);
         Response response = null;
         InputStream inputStream = null;
         try {
-            response = request(0, 10000);
-            long length = getContentLength(response);
+            response = request(OkHttpProvider.INSTANCE.getProbe(), 0, 0, -1);
+            long length = response.code() == HTTP_PARTIAL ? getTotalLength(response) : getContentLength(response);
             String mime = response.header("content-type");
             inputStream = response.body().byteStream();
             this.sourceInfo = new SourceInfo(sourceInfo.url, length, mime);
@@ -166,6 +251,14 @@ public class HttpUrlSource implements Source {
     }
 
     private Response request(long offset, int timeout) throws IOException, ProxyCacheException {
+        return request(offset, -1, timeout);
+    }
+
+    private Response request(long offset, long end, int timeout) throws IOException, ProxyCacheException {
+        return request(OkHttpProvider.INSTANCE.getOkHttp(), offset, end, timeout);
+    }
+
+    private Response request(OkHttpClient client, long offset, long end, int timeout) throws IOException, ProxyCacheException {
         Response response;
         boolean redirected;
         int redirectCount = 0;
@@ -177,16 +270,11 @@ public class HttpUrlSource implements Source {
             injectCustomHeaders(requestBuilder, url);
 //            connection = (HttpURLConnection) new URL(url).openConnection();
 //            injectCustomHeaders(connection, url);
-            if (offset > 0) {
-                requestBuilder.addHeader("Range", "bytes=" + offset + "-");
-            }
-            OkHttpClient.Builder clientBuilder = OkHttpProvider.INSTANCE.getBuilder();
-            clientBuilder.followRedirects(false);
-            if (timeout > 0) {
-                clientBuilder.connectTimeout(timeout, TimeUnit.SECONDS);
-                clientBuilder.readTimeout(timeout, TimeUnit.SECONDS);
+            if (offset > 0 || end >= 0) {
+                requestBuilder.addHeader("Range", "bytes=" + offset + "-" + (end >= 0 ? end : ""));
             }
-            response = clientBuilder.build().newCall(requestBuilder.build()).execute();
+            SourceTimeouts.apply(requestBuilder, timeout);
+            response = client.newCall(requestBuilder.build()).execute();
             redirected = response.isRedirect();
             if (redirected) {
                 url = response.header("Location");
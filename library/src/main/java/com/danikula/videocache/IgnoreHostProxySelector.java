@@ -23,7 +23,7 @@ class IgnoreHostProxySelector extends ProxySelector {
 
     private final ProxySelector defaultProxySelector;
     private final String hostToIgnore;
-    private final int portToIgnore;
+    private volatile int portToIgnore;
 
     IgnoreHostProxySelector(ProxySelector defaultProxySelector, String hostToIgnore, int portToIgnore) {
         this.defaultProxySelector = checkNotNull(defaultProxySelector);
@@ -31,10 +31,20 @@ class IgnoreHostProxySelector extends ProxySelector {
         this.portToIgnore = portToIgnore;
     }
 
-    static void install(String hostToIgnore, int portToIgnore) {
+    static IgnoreHostProxySelector install(String hostToIgnore, int portToIgnore) {
         ProxySelector defaultProxySelector = ProxySelector.getDefault();
-        ProxySelector ignoreHostProxySelector = new IgnoreHostProxySelector(defaultProxySelector, hostToIgnore, portToIgnore);
+        IgnoreHostProxySelector ignoreHostProxySelector = new IgnoreHostProxySelector(defaultProxySelector, hostToIgnore, portToIgnore);
         ProxySelector.setDefault(ignoreHostProxySelector);
+        return ignoreHostProxySelector;
+    }
+
+    /**
+     * Changes ignored port, e.g. when server is restarted on another port, so installed selector isn't wrapped again.
+     *
+     * @param portToIgnore a new port to be ignored.
+     */
+    void setPortToIgnore(int portToIgnore) {
+        this.portToIgnore = portToIgnore;
     }
 
     @Override
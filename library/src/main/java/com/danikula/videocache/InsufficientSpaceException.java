@@ -0,0 +1,16 @@
+package com.danikula.videocache;
+
+/**
+ * Indicates that there is no free space for cache file. Cache is trimmed to free space when it is thrown,
+ * so request may be retried.
+ */
+public class InsufficientSpaceException extends ProxyCacheException {
+
+    public InsufficientSpaceException(String message) {
+        super(message);
+    }
+
+    public InsufficientSpaceException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -26,7 +26,7 @@ public class ItemCachesHolder {
             if (fileCacheMap.containsKey(id)) {
                 return fileCacheMap.get(id);
             } else {
-                FileCache fileCache = new FileCache(config.generateCacheFile(id, url), config.diskUsage);
+                FileCache fileCache = config.newFileCache(id, url);
                 fileCacheMap.put(id, fileCache);
                 return fileCache;
             }
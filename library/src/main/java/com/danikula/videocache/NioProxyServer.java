@@ -0,0 +1,418 @@
+package com.danikula.videocache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.danikula.videocache.Preconditions.checkArgument;
+import static com.danikula.videocache.Preconditions.checkNotNull;
+import static com.danikula.videocache.ProxyCacheUtils.DEFAULT_BUFFER_SIZE;
+
+/**
+ * Selector based engine for {@link HttpProxyCacheServer}.
+ * <p/>
+ * All client connections are multiplexed by single selector thread: requests are read and responses are written
+ * with non-blocking {@link SocketChannel}s. Only preparing of response (that may require request to origin server)
+ * is done by small pool of processor threads, so count of threads doesn't depend on count of connections.
+ * Bodies produced by blocking code (see {@link StreamNioResponse}) are written by bounded pool of stream writers,
+ * responses above the limit wait for free writer.
+ * <p/>
+ * Connections are kept alive between requests (if both client and response allow it) and closed after idle timeout.
+ * Pipelined requests are processed one by one in order of arrival.
+ */
+final class NioProxyServer {
+
+    private static final Logger LOG = LoggerFactory.getLogger("NioProxyServer");
+    private static final int MAX_REQUEST_HEADERS_SIZE = 8 * 1024;
+    private static final int MAX_BYTES_PER_WRITE_TURN = 32 * DEFAULT_BUFFER_SIZE;
+    private static final long SELECT_TIMEOUT_MS = 1000;
+    private static final int MAX_STREAM_WRITERS = 16;
+    private static final long STREAM_WRITER_KEEP_ALIVE_SEC = 60;
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+    private final ServerSocketChannel serverChannel;
+    private final Selector selector;
+    private final ExecutorService requestProcessor;
+    private final ExecutorService streamWriters;
+    private final RequestHandler requestHandler;
+    private final int keepAliveTimeoutMs;
+    private final Queue<Runnable> selectorTasks = new ConcurrentLinkedQueue<>();
+    private final Thread selectorThread;
+    private volatile boolean running;
+    private long lastIdleCheckTime;
+
+    NioProxyServer(ServerSocketChannel serverChannel, int processorThreads, int keepAliveTimeoutMs,
+                   RequestHandler requestHandler) throws IOException {
+        checkArgument(processorThreads > 0, "Processor threads count must be positive!");
+        checkArgument(keepAliveTimeoutMs > 0, "Keep-alive timeout must be positive!");
+        this.serverChannel = checkNotNull(serverChannel);
+        this.keepAliveTimeoutMs = keepAliveTimeoutMs;
+        this.requestHandler = checkNotNull(requestHandler);
+        this.requestProcessor = Executors.newFixedThreadPool(processorThreads);
+        this.streamWriters = newStreamWriters();
+        this.selector = Selector.open();
+        this.serverChannel.configureBlocking(false);
+        this.serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        this.selectorThread = new Thread(new SelectorRunnable(), "Proxy selector");
+    }
+
+    void start() {
+        running = true;
+        selectorThread.start();
+    }
+
+    boolean isRunning() {
+        return running && selectorThread.isAlive();
+    }
+
+    void shutdown() {
+        running = false;
+        selector.wakeup();
+        requestProcessor.shutdownNow();
+        streamWriters.shutdownNow();
+    }
+
+    private static ExecutorService newStreamWriters() {
+        ThreadPoolExecutor writers = new ThreadPoolExecutor(MAX_STREAM_WRITERS, MAX_STREAM_WRITERS,
+                STREAM_WRITER_KEEP_ALIVE_SEC, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        writers.allowCoreThreadTimeOut(true); // no idle threads if nothing is streamed
+        return writers;
+    }
+
+    private void runOnSelectorThread(Runnable task) {
+        selectorTasks.add(task);
+        selector.wakeup();
+    }
+
+    private void waitForEvents() {
+        try {
+            while (running) {
+                selector.select(SELECT_TIMEOUT_MS);
+                runSelectorTasks();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                    } else {
+                        ((Connection) key.attachment()).onReady(key);
+                    }
+                }
+                closeIdleConnections();
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            LOG.error("Error during waiting selector events", e);
+        } finally {
+            running = false;
+            releaseSelector();
+        }
+    }
+
+    private void runSelectorTasks() {
+        Runnable task;
+        while ((task = selectorTasks.poll()) != null) {
+            task.run();
+        }
+    }
+
+    private void closeIdleConnections() {
+        long now = System.currentTimeMillis();
+        if (now - lastIdleCheckTime < SELECT_TIMEOUT_MS) {
+            return;
+        }
+        lastIdleCheckTime = now;
+        for (SelectionKey key : selector.keys()) {
+            Object attachment = key.attachment();
+            if (attachment instanceof Connection && ((Connection) attachment).isIdleExpired(now)) {
+                LOG.debug("Closing idle channel… Keep-alive timeout is expired.");
+                ((Connection) attachment).close();
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = serverChannel.accept()) != null) {
+            LOG.debug("Accept new channel " + channel);
+            channel.configureBlocking(false);
+            SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+            key.attach(new Connection(channel, key));
+        }
+    }
+
+    private void releaseSelector() {
+        for (SelectionKey key : selector.keys()) {
+            Object attachment = key.attachment();
+            if (attachment instanceof Connection) {
+                ((Connection) attachment).close();
+            }
+        }
+        runSelectorTasks(); // release responses prepared for already closed connections
+        ProxyCacheUtils.close(serverChannel);
+        ProxyCacheUtils.close(selector);
+    }
+
+    /**
+     * Handler for requests accepted by {@link NioProxyServer}. Is called from processor thread, so it is allowed to block.
+     */
+    interface RequestHandler {
+
+        NioResponse handle(GetRequest request) throws ProxyCacheException, IOException;
+
+        NioResponse handleError(ProxyCacheException e);
+    }
+
+    private final class Connection {
+
+        private final SocketChannel channel;
+        private final SelectionKey key;
+        private final ByteBuffer requestBuffer = ByteBuffer.allocate(MAX_REQUEST_HEADERS_SIZE);
+        private final byte[] bodyBuffer = new byte[DEFAULT_BUFFER_SIZE];
+        private final AtomicBoolean wakeUpScheduled = new AtomicBoolean();
+        private ByteBuffer pendingBody;
+        private NioResponse response;
+        private boolean processing;
+        private boolean closed;
+        private long lastActivityTime;
+
+        Connection(SocketChannel channel, SelectionKey key) {
+            this.channel = channel;
+            this.key = key;
+            this.lastActivityTime = System.currentTimeMillis();
+        }
+
+        boolean isIdleExpired(long now) {
+            return !processing && now - lastActivityTime > keepAliveTimeoutMs;
+        }
+
+        void onReady(SelectionKey key) {
+            try {
+                if (key.isReadable()) {
+                    onReadable();
+                }
+                if (key.isValid() && key.isWritable()) {
+                    onWritable();
+                }
+            } catch (IOException e) {
+                // There is no way to determine that client closed connection http://stackoverflow.com/a/10241044/999458
+                // So just to prevent log flooding don't log stacktrace
+                LOG.debug("Closing channel… Channel is closed by client.");
+                close();
+            } catch (ProxyCacheException e) {
+                LOG.error("Error writing response", e);
+                close();
+            }
+        }
+
+        private void onReadable() throws IOException {
+            int read = channel.read(requestBuffer);
+            if (read == -1) {
+                close();
+                return;
+            }
+            lastActivityTime = System.currentTimeMillis();
+            processBufferedRequest();
+        }
+
+        private void processBufferedRequest() {
+            String headers = pollRequestHeaders();
+            if (headers != null) {
+                processing = true;
+                key.interestOps(0);
+                processRequestAsync(headers);
+            } else if (!requestBuffer.hasRemaining()) {
+                LOG.warn("Request headers exceed " + MAX_REQUEST_HEADERS_SIZE + " bytes. Closing channel.");
+                close();
+            } else {
+                key.interestOps(SelectionKey.OP_READ);
+            }
+        }
+
+        /**
+         * Extracts headers of first request from buffer. Rest of data (pipelined requests) is kept in buffer.
+         */
+        private String pollRequestHeaders() {
+            String received = new String(requestBuffer.array(), 0, requestBuffer.position(), ISO_8859_1);
+            int end = received.indexOf("\r\n\r\n");
+            int delimiterLength = 4;
+            if (end == -1) {
+                end = received.indexOf("\n\n");
+                delimiterLength = 2;
+            }
+            if (end == -1) {
+                return null;
+            }
+            requestBuffer.flip();
+            requestBuffer.position(end + delimiterLength);
+            requestBuffer.compact();
+            return received.substring(0, end);
+        }
+
+        private void processRequestAsync(final String headers) {
+            requestProcessor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    NioResponse response = processRequest(headers);
+                    onResponseReady(response);
+                }
+            });
+        }
+
+        private NioResponse processRequest(String headers) {
+            try {
+                GetRequest request = new GetRequest(headers);
+                LOG.debug("Request to cache proxy:" + request);
+                return startWriting(requestHandler.handle(request));
+            } catch (ProxyCacheException e) {
+                return requestHandler.handleError(e);
+            } catch (IOException | RuntimeException e) {
+                LOG.error("Error processing request", e);
+                return null;
+            }
+        }
+
+        private NioResponse startWriting(NioResponse response) {
+            try {
+                response.start(streamWriters);
+                return response;
+            } catch (RejectedExecutionException e) {
+                LOG.debug("Response isn't started, server is stopped");
+                response.close();
+                return null;
+            }
+        }
+
+        private void onResponseReady(final NioResponse response) {
+            runOnSelectorThread(new Runnable() {
+                @Override
+                public void run() {
+                    startResponse(response);
+                }
+            });
+        }
+
+        private void startResponse(NioResponse response) {
+            if (response == null || closed) {
+                if (response != null) {
+                    response.close();
+                }
+                close();
+                return;
+            }
+            this.response = response;
+            response.setDataListener(new Runnable() {
+                @Override
+                public void run() {
+                    onDataAvailable();
+                }
+            });
+            key.interestOps(SelectionKey.OP_WRITE);
+        }
+
+        private void onDataAvailable() {
+            if (wakeUpScheduled.compareAndSet(false, true)) {
+                runOnSelectorThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        wakeUpScheduled.set(false);
+                        if (!closed && key.isValid()) {
+                            key.interestOps(SelectionKey.OP_WRITE);
+                        }
+                    }
+                });
+            }
+        }
+
+        private void onWritable() throws IOException, ProxyCacheException {
+            ByteBuffer headers = response.headers();
+            if (headers.hasRemaining()) {
+                channel.write(headers);
+                if (headers.hasRemaining()) {
+                    return;
+                }
+            }
+            int written = 0;
+            while (written < MAX_BYTES_PER_WRITE_TURN) {
+                if (pendingBody == null || !pendingBody.hasRemaining()) {
+                    long transferred = response.transferTo(channel);
+                    if (transferred == 0) {
+                        return; // socket buffer is full, wait until channel is writable
+                    }
+                    if (transferred > 0) {
+                        written += transferred;
+                        continue;
+                    }
+                    int read = response.read(bodyBuffer);
+                    if (read == -1) {
+                        finishResponse();
+                        return;
+                    }
+                    if (read == 0) {
+                        key.interestOps(0); // wait for data listener
+                        return;
+                    }
+                    pendingBody = ByteBuffer.wrap(bodyBuffer, 0, read);
+                }
+                written += channel.write(pendingBody);
+                if (pendingBody.hasRemaining()) {
+                    return; // socket buffer is full, wait until channel is writable
+                }
+            }
+        }
+
+        private void finishResponse() {
+            if (!response.isKeepAlive() || !response.isBodyComplete()) {
+                close();
+                return;
+            }
+            response.close();
+            response = null;
+            pendingBody = null;
+            processing = false;
+            lastActivityTime = System.currentTimeMillis();
+            processBufferedRequest();
+        }
+
+        void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            key.cancel();
+            if (response != null) {
+                response.close();
+            }
+            ProxyCacheUtils.close(channel);
+        }
+    }
+
+    private final class SelectorRunnable implements Runnable {
+
+        @Override
+        public void run() {
+            waitForEvents();
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.danikula.videocache;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Response to be written by {@link NioProxyServer} without blocking selector thread.
+ * <p/>
+ * Consists of headers and body. Body is pulled by chunks with help of {@link #read(byte[])} that never blocks:
+ * it returns {@code 0} if there is no data yet. In this case response should notify listener passed to
+ * {@link #setDataListener(Runnable)} as soon as new data is available.
+ */
+abstract class NioResponse {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final ByteBuffer headers;
+    private final boolean keepAlive;
+    private Runnable closeListener;
+    private boolean closed;
+
+    NioResponse(String headers, boolean keepAlive) {
+        this.headers = ByteBuffer.wrap(headers.getBytes(UTF_8));
+        this.keepAlive = keepAlive;
+    }
+
+    static NioResponse newFixedResponse(String headers, byte[] body) {
+        return new FixedNioResponse(headers, body);
+    }
+
+    final ByteBuffer headers() {
+        return headers;
+    }
+
+    /**
+     * Returns {@code true} if connection can be reused for next request after body is fully written.
+     *
+     * @return {@code true} if connection should be kept alive.
+     */
+    final boolean isKeepAlive() {
+        return keepAlive;
+    }
+
+    /**
+     * Returns {@code false} if body is read till end, but it is shorter than declared by headers (e.g. proxy is
+     * stopped), so client can't find body ending and connection must be closed.
+     *
+     * @return {@code true} if whole body is read.
+     */
+    boolean isBodyComplete() {
+        return true;
+    }
+
+    /**
+     * Reads next chunk of body.
+     *
+     * @param buffer a buffer to be used for reading data.
+     * @return a count of read bytes, {@code 0} if data is not available yet or {@code -1} if body is fully read.
+     * @throws ProxyCacheException if error occur while reading data.
+     * @throws IOException         if error occur while reading data.
+     */
+    abstract int read(byte[] buffer) throws ProxyCacheException, IOException;
+
+    /**
+     * Transfers next chunk of body directly to channel if response supports zero-copy transfer.
+     *
+     * @param channel a non-blocking channel to transfer data to.
+     * @return a count of transferred bytes ({@code 0} if channel is not ready for writing)
+     * or {@code -1} if nothing can be transferred now and {@link #read(byte[])} should be used instead.
+     * @throws ProxyCacheException if error occur while reading data.
+     * @throws IOException         if error occur while transferring data.
+     */
+    long transferTo(WritableByteChannel channel) throws ProxyCacheException, IOException {
+        return -1;
+    }
+
+    /**
+     * Starts preparing body if it is produced by blocking code. Called by {@link NioProxyServer} once before body
+     * is read.
+     *
+     * @param executor a bounded pool shared by all responses of server to run blocking producers on.
+     */
+    void start(ExecutorService executor) {
+    }
+
+    /**
+     * Sets listener to be notified when new data for body is available.
+     * Listener can be called from any thread.
+     *
+     * @param listener a listener to be notified.
+     */
+    void setDataListener(Runnable listener) {
+    }
+
+    final void setCloseListener(Runnable closeListener) {
+        this.closeListener = closeListener;
+    }
+
+    final synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            release();
+        } finally {
+            if (closeListener != null) {
+                closeListener.run();
+            }
+        }
+    }
+
+    protected void release() {
+    }
+
+    private static final class FixedNioResponse extends NioResponse {
+
+        private final byte[] body;
+        private int offset;
+
+        FixedNioResponse(String headers, byte[] body) {
+            super(headers, false);
+            this.body = body;
+        }
+
+        @Override
+        int read(byte[] buffer) {
+            if (offset >= body.length) {
+                return -1;
+            }
+            int length = Math.min(buffer.length, body.length - offset);
+            System.arraycopy(body, offset, buffer, 0, length);
+            offset += length;
+            return length;
+        }
+    }
+}
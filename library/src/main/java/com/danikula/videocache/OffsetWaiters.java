@@ -0,0 +1,100 @@
+package com.danikula.videocache;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Registry of threads waiting for cache to contain data at some offset.
+ * <p>
+ * Unlike waiting on single monitor, every waiter parks on its own monitor and is woken up only when data it needs
+ * is cached, so caching of every chunk doesn't wake all readers of the same source.
+ * <p>
+ * To not miss notification that happens between checking cache and starting waiting, reader takes {@link #version()}
+ * before checking cache and passes it to {@link #await(long, long, long)}: waiting is skipped if any data is cached
+ * after version is taken.
+ */
+final class OffsetWaiters {
+
+    private final List<Waiter> waiters = new ArrayList<>();
+    private long version;
+
+    synchronized long version() {
+        return version;
+    }
+
+    /**
+     * Blocks until byte before target offset is cached, {@link #releaseAll()} is called or timeout expires.
+     *
+     * @param target    an offset to wait for.
+     * @param version   a version taken before checking cache.
+     * @param timeoutMs max waiting time. Used only as safety net for missed notification.
+     * @throws InterruptedException if waiting is interrupted.
+     */
+    void await(long target, long version, long timeoutMs) throws InterruptedException {
+        Waiter waiter = new Waiter(target);
+        synchronized (this) {
+            if (this.version != version) {
+                return;
+            }
+            waiters.add(waiter);
+        }
+        try {
+            waiter.await(timeoutMs);
+        } finally {
+            synchronized (this) {
+                waiters.remove(waiter);
+            }
+        }
+    }
+
+    /**
+     * Wakes up threads waiting for offsets in passed range.
+     *
+     * @param start a first cached byte.
+     * @param end   a byte next to last cached byte.
+     */
+    synchronized void onAvailable(long start, long end) {
+        version++;
+        for (int i = waiters.size() - 1; i >= 0; i--) {
+            Waiter waiter = waiters.get(i);
+            if (waiter.target > start && waiter.target <= end) {
+                waiters.remove(i).release();
+            }
+        }
+    }
+
+    /**
+     * Wakes up all waiting threads, e.g. if source is read with error or reading is finished.
+     */
+    synchronized void releaseAll() {
+        version++;
+        for (Waiter waiter : waiters) {
+            waiter.release();
+        }
+        waiters.clear();
+    }
+
+    private static final class Waiter {
+
+        private final long target;
+        private boolean released;
+
+        Waiter(long target) {
+            this.target = target;
+        }
+
+        synchronized void await(long timeoutMs) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + timeoutMs;
+            long left = timeoutMs;
+            while (!released && left > 0) {
+                wait(left);
+                left = deadline - System.currentTimeMillis();
+            }
+        }
+
+        synchronized void release() {
+            released = true;
+            notifyAll();
+        }
+    }
+}
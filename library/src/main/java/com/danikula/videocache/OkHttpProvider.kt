@@ -3,14 +3,40 @@ package com.danikula.videocache
 import okhttp3.OkHttpClient
 import java.util.concurrent.TimeUnit
 
+/**
+ * Long-lived OkHttp clients for accessing sources. All clients share one connection pool and dispatcher,
+ * so connections and TLS sessions to same host are reused by requests of any kind. Clients don't follow
+ * redirects, redirects are followed by callers. Timeouts of single call are set by [SourceTimeouts].
+ */
 object OkHttpProvider {
-    val okHttp : OkHttpClient = OkHttpClient.Builder()
+
+    /** Counters of connections reused from pool and opened by all clients. */
+    val poolCounters: ConnectionPoolCounters = ConnectionPoolCounters()
+
+    /** Client for reading video data. */
+    val okHttp: OkHttpClient = OkHttpClient.Builder()
         .connectTimeout(60, TimeUnit.SECONDS)
-        .readTimeout(60, TimeUnit.SECONDS).build()
+        .readTimeout(60, TimeUnit.SECONDS)
+        .followRedirects(false)
+        .addInterceptor(SourceTimeouts.INTERCEPTOR)
+        .eventListenerFactory(poolCounters)
+        .build()
+
+    /** Client for fetching length and mime of source. */
+    val probe: OkHttpClient = okHttp.newBuilder()
+        .connectTimeout(10, TimeUnit.SECONDS)
+        .readTimeout(10, TimeUnit.SECONDS)
+        .build()
+
+    /** Client for preloading videos through proxy. */
+    val preload: OkHttpClient = okHttp.newBuilder()
+        .readTimeout(30, TimeUnit.SECONDS)
+        .build()
 
+    @Deprecated("Don't build client per request, use shared clients", ReplaceWith("okHttp"))
     val builder: OkHttpClient.Builder
         get() {
             return okHttp.newBuilder()
         }
 
-}
\ No newline at end of file
+}
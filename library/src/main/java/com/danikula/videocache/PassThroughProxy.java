@@ -0,0 +1,99 @@
+package com.danikula.videocache;
+
+import com.danikula.videocache.admission.AdmissionPolicy;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+
+import static com.danikula.videocache.ProxyCacheUtils.DEFAULT_BUFFER_SIZE;
+
+/**
+ * Proxy for video that is not admitted to cache by {@link AdmissionPolicy}: every request is served by separate
+ * connection to source and data is streamed to client without writing anything to disk.
+ */
+final class PassThroughProxy {
+
+    private final HttpUrlSource source;
+    private final Listener listener;
+
+    PassThroughProxy(HttpUrlSource source, Listener listener) {
+        this.source = source;
+        this.listener = listener;
+    }
+
+    /**
+     * Writes response for request to socket.
+     *
+     * @param request a request to be processed.
+     * @param socket  a socket to write response to.
+     * @return {@code true} if connection can be reused for next request.
+     */
+    public boolean processRequest(GetRequest request, Socket socket) throws IOException, ProxyCacheException {
+        OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+        boolean keepAlive = isKeepAlive(request);
+        out.write(newResponseHeaders(request, keepAlive).getBytes("UTF-8"));
+        stream(out, request.rangeOffset);
+        return keepAlive;
+    }
+
+    /**
+     * Prepares response to be written by {@link NioProxyServer}.
+     *
+     * @param request a request to be processed.
+     * @return response that never blocks while reading body.
+     */
+    public NioResponse newNioResponse(GetRequest request) throws ProxyCacheException {
+        boolean keepAlive = isKeepAlive(request);
+        final long offset = request.rangeOffset;
+        return new StreamNioResponse(newResponseHeaders(request, keepAlive), keepAlive, "Pass-through reader for " + source) {
+            @Override
+            protected void writeBody(OutputStream out) throws ProxyCacheException, IOException {
+                stream(out, offset);
+            }
+        };
+    }
+
+    private boolean isKeepAlive(GetRequest request) throws ProxyCacheException {
+        return request.keepAlive && source.length() >= 0;
+    }
+
+    private String newResponseHeaders(GetRequest request, boolean keepAlive) throws ProxyCacheException {
+        return HttpProxyCache.newResponseHeaders(request, source.getMime(), source.length(), keepAlive);
+    }
+
+    private void stream(OutputStream out, long offset) throws ProxyCacheException, IOException {
+        HttpUrlSource streamSource = new HttpUrlSource(source);
+        try {
+            if (streamSource.open(offset) && offset > 0) {
+                throw new ProxyCacheException("Source " + source + " doesn't support range requests");
+            }
+            byte[] buffer = new byte[DEFAULT_BUFFER_SIZE];
+            int readBytes;
+            while ((readBytes = streamSource.read(buffer)) != -1) {
+                out.write(buffer, 0, readBytes);
+                listener.onStreamed(readBytes);
+                offset += readBytes;
+            }
+            out.flush();
+            long length = source.length();
+            if (length >= 0 && offset < length) {
+                // client would wait for rest of declared body on reused connection
+                throw new ProxyCacheException("Source " + source + " is shorter than " + length + " bytes");
+            }
+        } finally {
+            streamSource.close();
+        }
+    }
+
+    interface Listener {
+
+        /**
+         * Called when data is streamed to client.
+         *
+         * @param bytes a count of streamed bytes.
+         */
+        void onStreamed(long bytes);
+    }
+}
@@ -45,6 +45,10 @@ class Pinger {
         this.port = port;
     }
 
+    int getPort() {
+        return port;
+    }
+
     boolean ping(int maxAttempts, int startTimeout) {
         checkArgument(maxAttempts >= 1);
         checkArgument(startTimeout > 0);
@@ -83,6 +87,13 @@ class Pinger {
         }
     }
 
+    /**
+     * Stops thread used for pinging, pinger can't be used anymore.
+     */
+    void shutdown() {
+        pingExecutor.shutdownNow();
+    }
+
     boolean isPingRequest(String request) {
         return PING_REQUEST.equals(request);
     }
@@ -93,6 +104,10 @@ class Pinger {
         out.write(PING_RESPONSE.getBytes());
     }
 
+    NioResponse newPingResponse() {
+        return NioResponse.newFixedResponse("HTTP/1.1 200 OK\n\n", PING_RESPONSE.getBytes());
+    }
+
     private boolean pingServer() throws ProxyCacheException {
         String pingUrl = getPingUrl();
         HttpUrlSource source = new HttpUrlSource(pingUrl);
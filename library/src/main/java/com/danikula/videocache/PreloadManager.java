@@ -14,9 +14,7 @@ import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
-import java.util.concurrent.TimeUnit;
 
-import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.Response;
 
@@ -119,13 +117,8 @@ public class PreloadManager {
             if (size > 0) {
                 requestBuilder.addHeader("Range", "bytes=0-" + size);
             }
-            OkHttpClient.Builder clientBuilder = OkHttpProvider.INSTANCE.getBuilder();
-            clientBuilder.followRedirects(false);
-            if (timeout > 0) {
-                clientBuilder.connectTimeout(timeout, TimeUnit.SECONDS);
-                clientBuilder.readTimeout(timeout, TimeUnit.SECONDS);
-            }
-            response = clientBuilder.build().newCall(requestBuilder.build()).execute();
+            SourceTimeouts.apply(requestBuilder, timeout);
+            response = OkHttpProvider.INSTANCE.getPreload().newCall(requestBuilder.build()).execute();
             redirected = response.isRedirect();
             if (redirected) {
                 url = response.header("Location");
@@ -3,6 +3,8 @@ package com.danikula.videocache;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.danikula.videocache.Preconditions.checkNotNull;
@@ -11,7 +13,8 @@ import static com.danikula.videocache.Preconditions.checkNotNull;
  * Proxy for {@link Source} with caching support ({@link Cache}).
  * <p/>
  * Can be used only for sources with persistent data (that doesn't change with time).
- * Method {@link #read(byte[], long, int)} will be blocked while fetching data from source.
+ * Method {@link #read(byte[], long, int)} will be blocked while fetching data from source. Every reader waits
+ * for offset it needs and is woken up as soon as this offset is fetched (see {@link OffsetWaiters}).
  * Useful for streaming something with caching e.g. streaming video/audio etc.
  *
  * @author Alexey Danilov (danikula@gmail.com).
@@ -23,12 +26,14 @@ class ProxyCache {
 
     private final Source source;
     private final Cache cache;
-    private final Object wc = new Object();
+    private final OffsetWaiters offsetWaiters = new OffsetWaiters();
     private final Object stopLock = new Object();
     private final AtomicInteger readSourceErrorsCount;
+    private final List<Runnable> sourceDataListeners = new CopyOnWriteArrayList<>();
     private volatile Thread sourceReaderThread;
     private volatile boolean stopped;
     private volatile int percentsAvailable = -1;
+    private volatile long readPosition;
     private ProxyCacheException exception;
 
     public ProxyCache(Source source, Cache cache) {
@@ -40,11 +45,63 @@ class ProxyCache {
     public int read(byte[] buffer, long offset, int length) throws ProxyCacheException {
         ProxyCacheUtils.assertBuffer(buffer, offset, length);
 
-        while (!cache.isCompleted() && cache.available() < (offset + length) && !stopped) {
-            readSourceAsync();
-            waitForSourceData();
+        waitForSourceData(offset, length);
+        return readCache(buffer, offset, length);
+    }
+
+    /**
+     * Version of {@link #read(byte[], long, int)} that doesn't wait for whole requested range.
+     * <p/>
+     * Method is blocked only while there is no data for passed offset at all and returns as soon as at least one byte
+     * is available, so data is delivered to client while it is fetched from source chunk by chunk.
+     *
+     * @return a count of read bytes (may be less than requested) or {@code -1} if there is no more data.
+     */
+    int readAvailable(byte[] buffer, long offset, int length) throws ProxyCacheException {
+        ProxyCacheUtils.assertBuffer(buffer, offset, length);
+
+        waitForSourceData(offset, 1);
+        return readCache(buffer, offset, length);
+    }
+
+    /**
+     * Non-blocking version of {@link #read(byte[], long, int)}.
+     * <p/>
+     * If cache doesn't contain any data for passed offset then fetching data from source is started (if needed)
+     * and {@code 0} is returned. Listeners passed to {@link #addSourceDataListener(Runnable)} are notified when new
+     * data is fetched.
+     *
+     * @return a count of read bytes, {@code 0} if data is not available yet or {@code -1} if there is no more data.
+     */
+    int tryRead(byte[] buffer, long offset, int length) throws ProxyCacheException {
+        ProxyCacheUtils.assertBuffer(buffer, offset, length);
+
+        if (!cache.isCompleted() && cache.available(offset) <= 0 && !stopped) {
             checkReadSourceErrorsCount();
+            readPosition = offset;
+            readSourceAsync();
+            return 0;
         }
+        return readCache(buffer, offset, length);
+    }
+
+    /**
+     * Starts fetching data from source in background if it isn't fetched yet.
+     */
+    void startReadingSource() throws ProxyCacheException {
+        checkReadSourceErrorsCount();
+        readSourceAsync();
+    }
+
+    void addSourceDataListener(Runnable listener) {
+        sourceDataListeners.add(listener);
+    }
+
+    void removeSourceDataListener(Runnable listener) {
+        sourceDataListeners.remove(listener);
+    }
+
+    private int readCache(byte[] buffer, long offset, int length) throws ProxyCacheException {
         int read = cache.read(buffer, offset, length);
         if (cache.isCompleted() && percentsAvailable != 100) {
             percentsAvailable = 100;
@@ -72,6 +129,7 @@ class ProxyCache {
                 if (sourceReaderThread != null) {
                     sourceReaderThread.interrupt();
                 }
+                offsetWaiters.releaseAll();
                 cache.close();
                 ItemCachesHolder.getInstance().removeFileCache(cache);
             } catch (ProxyCacheException e) {
@@ -88,24 +146,61 @@ class ProxyCache {
         }
     }
 
-    private void waitForSourceData() throws ProxyCacheException {
-        synchronized (wc) {
+    private void waitForSourceData(long offset, int length) throws ProxyCacheException {
+        long version = offsetWaiters.version();
+        while (!cache.isCompleted() && cache.available(offset) < length && !stopped) {
+            readPosition = offset;
+            readSourceAsync();
             try {
-                wc.wait(1000);
+                offsetWaiters.await(offset + length, version, 1000);
             } catch (InterruptedException e) {
                 throw new ProxyCacheException("Waiting source data is interrupted!", e);
             }
+            checkReadSourceErrorsCount();
+            version = offsetWaiters.version();
         }
     }
 
     private void notifyNewCacheDataAvailable(long cacheAvailable, long sourceAvailable) {
         onCacheAvailable(cacheAvailable, sourceAvailable);
 
-        synchronized (wc) {
-            wc.notifyAll();
+        offsetWaiters.onAvailable(0, cacheAvailable);
+        notifySourceDataListeners();
+    }
+
+    /**
+     * Notifies readers that range of data is cached. Should be called by subclasses that write data
+     * not only to the end of cache.
+     *
+     * @param start        a first cached byte.
+     * @param end          a byte next to last cached byte.
+     * @param sourceLength a length of source.
+     */
+    protected final void notifyRangeCached(long start, long end, long sourceLength) throws ProxyCacheException {
+        onDataCached(end - start);
+        onCacheAvailable(cache.available(), sourceLength);
+
+        offsetWaiters.onAvailable(start, end);
+        notifySourceDataListeners();
+    }
+
+    private void notifySourceDataListeners() {
+        for (Runnable listener : sourceDataListeners) {
+            listener.run();
         }
     }
 
+    /**
+     * Returns offset that clients are going to read now. Data for this offset should be fetched first.
+     */
+    protected final long getReadPosition() {
+        return readPosition;
+    }
+
+    protected final boolean isStopped() {
+        return Thread.currentThread().isInterrupted() || stopped;
+    }
+
     protected void onCacheAvailable(long cacheAvailable, long sourceLength) {
         boolean zeroLengthSource = sourceLength == 0;
         int percents = zeroLengthSource ? 100 : (int) ((float) cacheAvailable / sourceLength * 100);
@@ -120,7 +215,19 @@ class ProxyCache {
     protected void onCachePercentsAvailableChanged(int percentsAvailable) {
     }
 
-    private void readSource() {
+    /**
+     * Called when data fetched from source is written to cache.
+     *
+     * @param bytes a count of written bytes.
+     */
+    protected void onDataCached(long bytes) {
+    }
+
+    /**
+     * Fetches data from source to cache. Called on separate thread, readers are waiting for data while it works.
+     * By default source is read sequentially from end of cached data.
+     */
+    protected void readSource() {
         long sourceAvailable = -1;
         long offset = 0;
         try {
@@ -134,19 +241,32 @@ class ProxyCache {
             int readBytes;
             while ((readBytes = source.read(buffer)) != -1) {
                 synchronized (stopLock) {
-                    if (isStopped()) {
+                    if (isStopped() || cache.isCompleted()) {
                         return;
                     }
                     cache.append(buffer, readBytes);
                 }
                 offset += readBytes;
+                onDataCached(readBytes);
                 notifyNewCacheDataAvailable(offset, sourceAvailable);
+                long cacheAvailable = cache.available();
+                if (!needCover && cacheAvailable > offset) {
+                    // appended data is joined with range cached before (e.g. by seek request), skip this range
+                    offset = cacheAvailable;
+                    notifyNewCacheDataAvailable(offset, sourceAvailable);
+                    if (offset >= sourceAvailable && sourceAvailable >= 0) {
+                        break;
+                    }
+                    closeSource();
+                    if (source.open(offset)) {
+                        throw new ProxyCacheException("Source " + source + " can't be reopened with offset " + offset);
+                    }
+                }
             }
             tryComplete();
             onSourceRead();
         } catch (Throwable e) {
-            readSourceErrorsCount.incrementAndGet();
-            onError(e);
+            onSourceError(e);
         } finally {
             closeSource();
             notifyNewCacheDataAvailable(offset, sourceAvailable);
@@ -159,7 +279,10 @@ class ProxyCache {
         onCachePercentsAvailableChanged(percentsAvailable);
     }
 
-    private void tryComplete() throws ProxyCacheException {
+    /**
+     * Completes cache if all source data is cached.
+     */
+    protected final void tryComplete() throws ProxyCacheException {
         synchronized (stopLock) {
             if (!isStopped() && cache.available() == source.length()) {
                 cache.complete();
@@ -167,9 +290,6 @@ class ProxyCache {
         }
     }
 
-    private boolean isStopped() {
-        return Thread.currentThread().isInterrupted() || stopped;
-    }
 
     private void closeSource() {
         try {
@@ -179,6 +299,14 @@ class ProxyCache {
         }
     }
 
+    /**
+     * Handles error of reading source. Readers waiting for data will get error.
+     */
+    protected final void onSourceError(Throwable e) {
+        readSourceErrorsCount.incrementAndGet();
+        onError(e);
+    }
+
     protected final void onError(final Throwable e) {
         boolean interruption = e instanceof InterruptedProxyCacheException;
         if (interruption) {
@@ -195,7 +323,11 @@ class ProxyCache {
 
         @Override
         public void run() {
-            readSource();
+            try {
+                readSource();
+            } finally {
+                offsetWaiters.releaseAll(); // source is read or failed, let waiters check state by themselves
+            }
         }
     }
 }
@@ -0,0 +1,187 @@
+package com.danikula.videocache;
+
+import com.danikula.videocache.file.FileCache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static com.danikula.videocache.Preconditions.checkArgument;
+import static com.danikula.videocache.Preconditions.checkNotNull;
+import static com.danikula.videocache.ProxyCacheUtils.DEFAULT_BUFFER_SIZE;
+
+/**
+ * Downloads http source to sparse {@link FileCache} with help of several concurrent range requests.
+ * <p>
+ * Source is split into segments of fixed size, every connection downloads one segment at a time. Segments are taken
+ * in order starting from segment clients read now (see {@link Callback#getReadPosition()}), so after seek data
+ * the player needs is fetched first. If clients start reading segment nobody downloads, one of connections
+ * leaves its segment and switches to the new one. Ranges cached before are skipped.
+ */
+final class SegmentedDownloader {
+
+    private static final Logger LOG = LoggerFactory.getLogger("SegmentedDownloader");
+    static final long SEGMENT_SIZE = 1024 * 1024;
+
+    private final HttpUrlSource source;
+    private final FileCache cache;
+    private final int connections;
+    private final Callback callback;
+    private boolean[] inProgress;
+    private long sourceLength;
+
+    SegmentedDownloader(HttpUrlSource source, FileCache cache, int connections, Callback callback) {
+        checkArgument(connections > 0);
+        this.source = checkNotNull(source);
+        this.cache = checkNotNull(cache);
+        this.connections = connections;
+        this.callback = checkNotNull(callback);
+    }
+
+    /**
+     * Downloads all not cached segments of source. Blocks until all data is cached.
+     *
+     * @param sourceLength a length of source, must be known.
+     * @throws ProxyCacheException  if any segment can't be downloaded.
+     * @throws InterruptedException if downloading is interrupted.
+     */
+    void download(long sourceLength) throws ProxyCacheException, InterruptedException {
+        checkArgument(sourceLength > 0);
+        synchronized (this) {
+            this.sourceLength = sourceLength;
+            this.inProgress = new boolean[(int) ((sourceLength + SEGMENT_SIZE - 1) / SEGMENT_SIZE)];
+        }
+        ExecutorService workers = Executors.newFixedThreadPool(connections);
+        CompletionService<Void> results = new ExecutorCompletionService<>(workers);
+        try {
+            for (int i = 0; i < connections; i++) {
+                results.submit(new SegmentsWorker());
+            }
+            for (int i = 0; i < connections; i++) {
+                results.take().get(); // fail as soon as any connection fails
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof ProxyCacheException ? (ProxyCacheException) cause
+                    : new ProxyCacheException("Error downloading segments of " + source, cause);
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+    private synchronized int takeSegment() throws ProxyCacheException, InterruptedException {
+        while (true) {
+            int readSegment = (int) Math.min(callback.getReadPosition() / SEGMENT_SIZE, inProgress.length - 1);
+            boolean anyInProgress = false;
+            for (int i = 0; i < inProgress.length; i++) {
+                int segment = (readSegment + i) % inProgress.length; // segments before read position are last
+                anyInProgress |= inProgress[segment];
+                if (!inProgress[segment] && !isCached(segment)) {
+                    inProgress[segment] = true;
+                    return segment;
+                }
+            }
+            if (!anyInProgress) {
+                return -1;
+            }
+            wait(); // other connection may leave its segment
+        }
+    }
+
+    private synchronized void releaseSegment(int segment) {
+        inProgress[segment] = false;
+        notifyAll();
+    }
+
+    private synchronized boolean shouldSwitch(int segment) throws ProxyCacheException {
+        int readSegment = (int) Math.min(callback.getReadPosition() / SEGMENT_SIZE, inProgress.length - 1);
+        return readSegment != segment && !inProgress[readSegment] && !isCached(readSegment);
+    }
+
+    private boolean isCached(int segment) throws ProxyCacheException {
+        long start = segment * SEGMENT_SIZE;
+        return cache.isCompleted() || cache.available(start) >= getSegmentEnd(segment) - start;
+    }
+
+    private long getSegmentEnd(int segment) {
+        return Math.min(sourceLength, (segment + 1) * SEGMENT_SIZE);
+    }
+
+    private void downloadSegment(int segment) throws ProxyCacheException {
+        long offset = segment * SEGMENT_SIZE;
+        long end = getSegmentEnd(segment);
+        while (!shouldSwitch(segment)) {
+            offset += cache.available(offset); // skip data cached before
+            if (offset >= end || cache.isCompleted()) {
+                return;
+            }
+            long fetchedTo = fetch(segment, offset, end);
+            if (fetchedTo == offset) {
+                throw new ProxyCacheException("Source " + source + " is shorter than " + sourceLength + " bytes");
+            }
+            offset = fetchedTo;
+        }
+        LOG.debug("Segment " + segment + " is left for segment clients read now");
+    }
+
+    /**
+     * Fetches data from source till end of segment, start of cached range or request for switching to another segment.
+     *
+     * @return offset next to last fetched byte.
+     */
+    private long fetch(int segment, long offset, long end) throws ProxyCacheException {
+        HttpUrlSource segmentSource = new HttpUrlSource(source);
+        try {
+            segmentSource.openRange(offset, end - 1);
+            byte[] buffer = new byte[DEFAULT_BUFFER_SIZE];
+            int readBytes;
+            while (offset < end && (readBytes = segmentSource.read(buffer)) != -1) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedProxyCacheException("Downloading segment " + segment + " of " + source + " is interrupted");
+                }
+                readBytes = (int) Math.min(readBytes, end - offset); // server may ignore end of range
+                cache.write(offset, buffer, readBytes);
+                callback.onRangeCached(offset, offset + readBytes);
+                offset += readBytes;
+                if (cache.available(offset) > 0 || shouldSwitch(segment)) {
+                    break;
+                }
+            }
+            return offset;
+        } finally {
+            segmentSource.close();
+        }
+    }
+
+    /**
+     * Receives events of {@link SegmentedDownloader}.
+     */
+    interface Callback {
+
+        long getReadPosition();
+
+        void onRangeCached(long start, long end) throws ProxyCacheException;
+    }
+
+    private final class SegmentsWorker implements Callable<Void> {
+
+        @Override
+        public Void call() throws Exception {
+            int segment;
+            while ((segment = takeSegment()) != -1) {
+                try {
+                    downloadSegment(segment);
+                } finally {
+                    releaseSegment(segment);
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.danikula.videocache;
+
+import java.io.IOException;
+
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * Timeouts of single call to source. Shared clients of {@link OkHttpProvider} are never rebuilt to change timeouts,
+ * timeouts are attached to request as tag and applied by {@link #INTERCEPTOR} of clients.
+ */
+final class SourceTimeouts {
+
+    static final Interceptor INTERCEPTOR = new Interceptor() {
+        @Override
+        public Response intercept(Chain chain) throws IOException {
+            SourceTimeouts timeouts = chain.request().tag(SourceTimeouts.class);
+            if (timeouts == null) {
+                return chain.proceed(chain.request());
+            }
+            return chain.withConnectTimeout(timeouts.seconds, SECONDS)
+                    .withReadTimeout(timeouts.seconds, SECONDS)
+                    .proceed(chain.request());
+        }
+    };
+
+    private final int seconds;
+
+    private SourceTimeouts(int seconds) {
+        this.seconds = seconds;
+    }
+
+    /**
+     * Sets connect and read timeouts of request.
+     *
+     * @param request a request to be sent.
+     * @param seconds a timeout in seconds, default timeouts of client are used if it isn't positive.
+     */
+    static void apply(Request.Builder request, int seconds) {
+        if (seconds > 0) {
+            request.tag(SourceTimeouts.class, new SourceTimeouts(seconds));
+        }
+    }
+}
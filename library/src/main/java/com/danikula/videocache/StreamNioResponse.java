@@ -0,0 +1,173 @@
+package com.danikula.videocache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import static com.danikula.videocache.ProxyCacheUtils.DEFAULT_BUFFER_SIZE;
+
+/**
+ * {@link NioResponse} which body is written to {@link OutputStream} by blocking code, e.g. read from {@link HttpUrlSource}.
+ * <p/>
+ * Body is written by task submitted to executor passed to {@link #start(ExecutorService)}, written chunks are queued
+ * and pulled by {@link NioProxyServer}. Bounded queue suspends writing if client is slow. Buffers of pulled chunks
+ * are reused for next chunks, so streaming doesn't allocate memory per chunk.
+ */
+abstract class StreamNioResponse extends NioResponse {
+
+    private static final Logger LOG = LoggerFactory.getLogger("StreamNioResponse");
+    private static final int MAX_QUEUED_CHUNKS = 16;
+    private static final ByteBuffer END_OF_DATA = ByteBuffer.allocate(0);
+
+    private final BlockingQueue<ByteBuffer> chunks = new ArrayBlockingQueue<>(MAX_QUEUED_CHUNKS);
+    private final Queue<ByteBuffer> freeBuffers = new ConcurrentLinkedQueue<>();
+    private final String name;
+    private volatile Future<?> writing;
+    private volatile boolean released;
+    private volatile Runnable dataListener;
+    private volatile ProxyCacheException error;
+    private ByteBuffer chunk;
+    private boolean finished;
+
+    StreamNioResponse(String headers, boolean keepAlive, String name) {
+        super(headers, keepAlive);
+        this.name = name;
+    }
+
+    /**
+     * Writes response body. Called on writer thread, writing is blocked while queue of chunks is full.
+     *
+     * @param out a stream to write body to.
+     */
+    protected abstract void writeBody(OutputStream out) throws ProxyCacheException, IOException;
+
+    @Override
+    final void start(ExecutorService executor) {
+        writing = executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                writeChunks();
+            }
+        });
+        if (released) {
+            writing.cancel(true); // response is closed while task was submitted
+        }
+    }
+
+    private void writeChunks() {
+        Thread thread = Thread.currentThread();
+        String threadName = thread.getName();
+        thread.setName(name);
+        try {
+            writeBody(new ChunksOutputStream());
+            onChunkWritten(END_OF_DATA);
+        } catch (ProxyCacheException e) {
+            onError(e);
+        } catch (InterruptedException | InterruptedIOException e) {
+            LOG.debug("Writing " + name + " is interrupted");
+        } catch (IOException e) {
+            onError(new ProxyCacheException("Error writing " + name, e));
+        } finally {
+            thread.setName(threadName);
+        }
+    }
+
+    private void onChunkWritten(ByteBuffer data) throws InterruptedException {
+        chunks.put(data);
+        notifyDataListener();
+    }
+
+    private void onError(ProxyCacheException e) {
+        error = e;
+        notifyDataListener();
+    }
+
+    private void notifyDataListener() {
+        Runnable listener = dataListener;
+        if (listener != null) {
+            listener.run();
+        }
+    }
+
+    private ByteBuffer obtainBuffer() {
+        ByteBuffer buffer = freeBuffers.poll();
+        return buffer != null ? buffer : ByteBuffer.allocate(DEFAULT_BUFFER_SIZE);
+    }
+
+    @Override
+    int read(byte[] buffer) throws ProxyCacheException {
+        if (finished) {
+            return -1;
+        }
+        if (chunk == null) {
+            chunk = chunks.poll();
+            if (chunk == null) {
+                if (error != null) {
+                    throw error;
+                }
+                return 0;
+            }
+            if (chunk == END_OF_DATA) {
+                finished = true;
+                return -1;
+            }
+        }
+        int length = Math.min(buffer.length, chunk.remaining());
+        chunk.get(buffer, 0, length);
+        if (!chunk.hasRemaining()) {
+            chunk.clear();
+            freeBuffers.offer(chunk);
+            chunk = null;
+        }
+        return length;
+    }
+
+    @Override
+    void setDataListener(Runnable listener) {
+        this.dataListener = listener;
+    }
+
+    @Override
+    protected void release() {
+        released = true;
+        Future<?> task = writing;
+        if (task != null) {
+            task.cancel(true);
+        }
+    }
+
+    private final class ChunksOutputStream extends OutputStream {
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int length) throws IOException {
+            try {
+                while (length > 0) {
+                    ByteBuffer data = obtainBuffer();
+                    int chunkLength = Math.min(length, data.remaining());
+                    data.put(buffer, offset, chunkLength);
+                    data.flip();
+                    onChunkWritten(data);
+                    offset += chunkLength;
+                    length -= chunkLength;
+                }
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException("Queueing chunk is interrupted");
+            }
+        }
+    }
+}
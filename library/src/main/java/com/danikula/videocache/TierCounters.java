@@ -0,0 +1,70 @@
+package com.danikula.videocache;
+
+import com.danikula.videocache.file.CacheVolume;
+import com.danikula.videocache.file.CacheVolumes;
+import com.danikula.videocache.file.FileCache;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters of requests served by {@link HttpProxyCache} per tier of cache that holds requested offset:
+ * memory tier, every cache volume or source if requested data isn't cached.
+ */
+final class TierCounters {
+
+    static final String MEMORY_TIER = "memory";
+    static final String SOURCE_TIER = "source";
+
+    private final CacheVolumes cacheVolumes;
+    private final AtomicLongArray hits; // memory, volumes in order, source
+
+    TierCounters(CacheVolumes cacheVolumes) {
+        this.cacheVolumes = cacheVolumes;
+        this.hits = new AtomicLongArray(cacheVolumes.getVolumes().size() + 2);
+    }
+
+    /**
+     * Counts request by tier that holds requested offset now.
+     *
+     * @param cache  a cache of requested video.
+     * @param offset a requested offset.
+     */
+    void onRequest(FileCache cache, long offset) throws ProxyCacheException {
+        int sourceTier = hits.length() - 1;
+        int tier = sourceTier;
+        if (cache.isInMemory(offset)) {
+            tier = 0;
+        } else if (cache.available(offset) > 0) {
+            int volume = cacheVolumes.getVolumeIndex(cache.getFile());
+            tier = volume >= 0 ? volume + 1 : sourceTier;
+        }
+        hits.incrementAndGet(tier);
+    }
+
+    /**
+     * Returns share of requests served by every tier.
+     *
+     * @return hit ratios by tier names, ordered from fastest tier. Volumes are named by their directories.
+     */
+    Map<String, Float> getHitRatios() {
+        long total = 0;
+        for (int i = 0; i < hits.length(); i++) {
+            total += hits.get(i);
+        }
+        List<CacheVolume> volumes = cacheVolumes.getVolumes();
+        Map<String, Float> ratios = new LinkedHashMap<>();
+        ratios.put(MEMORY_TIER, ratio(0, total));
+        for (int i = 0; i < volumes.size(); i++) {
+            ratios.put(volumes.get(i).getRoot().getPath(), ratio(i + 1, total));
+        }
+        ratios.put(SOURCE_TIER, ratio(hits.length() - 1, total));
+        return ratios;
+    }
+
+    private float ratio(int tier, long total) {
+        return total == 0 ? 0 : (float) hits.get(tier) / total;
+    }
+}
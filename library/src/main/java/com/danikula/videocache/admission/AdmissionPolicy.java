@@ -0,0 +1,24 @@
+package com.danikula.videocache.admission;
+
+/**
+ * Decides whether video should be cached on disk or just streamed from source to player.
+ * <p>
+ * Policy is asked only when video is requested from the beginning while it isn't played and there is no cache file
+ * for it yet, seeks within not admitted video are streamed without asking policy again. Video that already has cache
+ * file is always admitted. Not admitted video doesn't take disk space and doesn't push
+ * other videos out of cache, so keeping videos that are opened only once off disk saves flash writes and leaves room
+ * for videos that are played again.
+ * <p>
+ * Implementation must be thread safe.
+ */
+public interface AdmissionPolicy {
+
+    /**
+     * Checks should video be cached.
+     *
+     * @param id            an id of requested video.
+     * @param streamedBytes a count of bytes of this video that were streamed without caching since proxy is started.
+     * @return {@code true} if video should be cached on disk, {@code false} if it should be streamed without caching.
+     */
+    boolean admit(String id, long streamedBytes);
+}
@@ -0,0 +1,12 @@
+package com.danikula.videocache.admission;
+
+/**
+ * {@link AdmissionPolicy} that caches every requested video.
+ */
+public class AdmitAllPolicy implements AdmissionPolicy {
+
+    @Override
+    public boolean admit(String id, long streamedBytes) {
+        return true;
+    }
+}
@@ -0,0 +1,59 @@
+package com.danikula.videocache.admission;
+
+import java.util.BitSet;
+
+/**
+ * {@link AdmissionPolicy} that caches video only when it is requested second time.
+ * <p>
+ * Ids of requested videos are remembered by doorkeeper: compact Bloom filter that takes about 10 bits per video.
+ * First request of video adds it to filter and video is streamed without caching, video found in filter is cached.
+ * Filter may give false positive answer for small part of videos (~1%), these videos are cached on first request.
+ * When count of remembered videos reaches expected count, filter is cleared, so videos requested long time ago
+ * are treated as new ones. Filter is kept in memory only and it is empty after restart.
+ */
+public class DoorkeeperAdmissionPolicy implements AdmissionPolicy {
+
+    private static final int BITS_PER_VIDEO = 10;
+    private static final int HASHES_COUNT = 4;
+
+    private final BitSet bits;
+    private final int bitsCount;
+    private final int maxVideosCount;
+    private int videosCount;
+
+    /**
+     * @param expectedVideosCount a count of videos to be remembered before filter is cleared.
+     */
+    public DoorkeeperAdmissionPolicy(int expectedVideosCount) {
+        if (expectedVideosCount <= 0) {
+            throw new IllegalArgumentException("Expected videos count must be positive number!");
+        }
+        this.maxVideosCount = expectedVideosCount;
+        this.bitsCount = expectedVideosCount * BITS_PER_VIDEO;
+        this.bits = new BitSet(bitsCount);
+    }
+
+    @Override
+    public synchronized boolean admit(String id, long streamedBytes) {
+        int hash = id.hashCode();
+        int step = mix(hash) | 1;
+        boolean remembered = true;
+        for (int i = 0; i < HASHES_COUNT; i++) {
+            int index = ((hash + i * step) & Integer.MAX_VALUE) % bitsCount;
+            if (!bits.get(index)) {
+                remembered = false;
+                bits.set(index);
+            }
+        }
+        if (!remembered && ++videosCount >= maxVideosCount) {
+            bits.clear();
+            videosCount = 0;
+        }
+        return remembered;
+    }
+
+    private int mix(int hash) {
+        int h = hash * 0x9e3779b9;
+        return h ^ (h >>> 16);
+    }
+}
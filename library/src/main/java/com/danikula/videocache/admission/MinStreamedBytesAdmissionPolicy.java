@@ -0,0 +1,27 @@
+package com.danikula.videocache.admission;
+
+/**
+ * {@link AdmissionPolicy} that caches video only after some part of it is watched without caching.
+ * <p>
+ * Video is streamed without caching until count of streamed bytes reaches threshold, next playback of video
+ * from the beginning starts caching.
+ */
+public class MinStreamedBytesAdmissionPolicy implements AdmissionPolicy {
+
+    private final long minStreamedBytes;
+
+    /**
+     * @param minStreamedBytes a count of bytes to be watched without caching before video is cached.
+     */
+    public MinStreamedBytesAdmissionPolicy(long minStreamedBytes) {
+        if (minStreamedBytes < 0) {
+            throw new IllegalArgumentException("Min streamed bytes must not be negative!");
+        }
+        this.minStreamedBytes = minStreamedBytes;
+    }
+
+    @Override
+    public boolean admit(String id, long streamedBytes) {
+        return streamedBytes >= minStreamedBytes;
+    }
+}
@@ -0,0 +1,41 @@
+package com.danikula.videocache.file;
+
+import java.io.File;
+
+/**
+ * Cache directory with own {@link DiskUsage}, e.g. on internal flash or SD card. See {@link CacheVolumes}.
+ */
+public final class CacheVolume {
+
+    final File root;
+    final DiskUsage diskUsage;
+    final int weight;
+
+    /**
+     * Creates volume.
+     *
+     * @param root      a cache directory of volume, must be used only for cache files.
+     * @param diskUsage a disk usage strategy of volume, every volume needs own instance.
+     * @param weight    a relative share of files placed to volume, must be positive.
+     */
+    public CacheVolume(File root, DiskUsage diskUsage, int weight) {
+        if (root == null || diskUsage == null) {
+            throw new NullPointerException("Root and disk usage of volume can't be null!");
+        }
+        if (weight <= 0) {
+            throw new IllegalArgumentException("Weight of volume must be positive number!");
+        }
+        this.root = root;
+        this.diskUsage = diskUsage;
+        this.weight = weight;
+    }
+
+    public File getRoot() {
+        return root;
+    }
+
+    @Override
+    public String toString() {
+        return "CacheVolume{root=" + root + ", weight=" + weight + '}';
+    }
+}
@@ -0,0 +1,377 @@
+package com.danikula.videocache.file;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Places cache files to several {@link CacheVolume}s, e.g. fast internal flash and large SD card.
+ * <p>
+ * Volume of file is selected by weighted rendezvous hashing of file name: every volume gets share of files
+ * proportional to its weight, lookups of same name always give same volume, and adding or removing of volume moves
+ * only files that belong to that volume. If volume is not available (e.g. SD card is unmounted), file is placed to next
+ * volume by rank. File cached before in other volume (e.g. before volumes were reconfigured) is found and used as is.
+ * <p>
+ * Every volume has own {@link DiskUsage}, so volumes are trimmed independently according to their own budgets,
+ * {@link #touch(File)} is dispatched to disk usage of volume that contains file.
+ * <p>
+ * Tiered volumes are ordered from fastest storage to slowest one (e.g. internal flash, then SD card) instead of hashing.
+ * New files are cached to first available tier. Completed file evicted from tier is moved to next tier instead of deleting
+ * (if disk usage of tier is {@link IndexedDiskUsage}), so recent files are kept on fast storage and cold bulk on slow one.
+ * Completed file found in lower tier is promoted to first tier in background when it is used again. Copy in lower tier
+ * is kept until disk usage of lower tier evicts it, because its path may be handed out already (e.g. as file:// uri).
+ * Files are copied by own threads, so touches aren't delayed by copying.
+ */
+public final class CacheVolumes implements DiskUsage, SpaceReclaimer {
+
+    private static final Logger LOG = LoggerFactory.getLogger("CacheVolumes");
+    private static final int MAX_FILE_DEPTH = 3; // file in root/shard/shard
+    private static final String COPY_POSTFIX = ".copy";
+
+    private final List<CacheVolume> volumes;
+    private final ShardedLayout[] layouts;
+    private final long[] seeds;
+    private final boolean tiered;
+    private final ExecutorService promotionThread;
+    private final ExecutorService demotionThread;
+    private final Set<String> promotions = new HashSet<>();
+
+    /**
+     * Creates volumes.
+     *
+     * @param volumes volumes to place cache files to, at least one.
+     * @param sharded {@code true} if files in every volume are stored with {@link ShardedLayout}.
+     */
+    public CacheVolumes(List<CacheVolume> volumes, boolean sharded) {
+        this(volumes, sharded, false);
+    }
+
+    /**
+     * Creates volumes.
+     *
+     * @param volumes volumes to place cache files to, at least one. Tiered volumes are ordered from fastest one.
+     * @param sharded {@code true} if files in every volume are stored with {@link ShardedLayout}.
+     * @param tiered  {@code true} if volumes are tiers with promotion and demotion of files instead of hashing.
+     */
+    public CacheVolumes(List<CacheVolume> volumes, boolean sharded, boolean tiered) {
+        if (volumes.isEmpty()) {
+            throw new IllegalArgumentException("At least one cache volume is required!");
+        }
+        Map<DiskUsage, Boolean> diskUsages = new IdentityHashMap<>();
+        List<File> roots = new ArrayList<>();
+        for (CacheVolume volume : volumes) {
+            if (diskUsages.put(volume.diskUsage, Boolean.TRUE) != null) {
+                throw new IllegalArgumentException("Every cache volume must have own disk usage instance!");
+            }
+            if (roots.contains(volume.root.getAbsoluteFile())) {
+                throw new IllegalArgumentException("Cache directory " + volume.root + " is used by several volumes!");
+            }
+            roots.add(volume.root.getAbsoluteFile());
+        }
+        this.volumes = Collections.unmodifiableList(new ArrayList<>(volumes));
+        this.layouts = new ShardedLayout[volumes.size()];
+        this.seeds = new long[volumes.size()];
+        for (int i = 0; i < layouts.length; i++) {
+            CacheVolume volume = volumes.get(i);
+            layouts[i] = sharded ? new ShardedLayout(volume.root) : null;
+            seeds[i] = volume.root.getAbsolutePath().hashCode(); // independent of other volumes and their order
+        }
+        this.tiered = tiered && volumes.size() > 1;
+        this.promotionThread = this.tiered ? Executors.newSingleThreadExecutor() : null;
+        this.demotionThread = this.tiered ? Executors.newSingleThreadExecutor() : null;
+        for (int i = 0; this.tiered && i < volumes.size() - 1; i++) {
+            DiskUsage diskUsage = volumes.get(i).diskUsage;
+            if (diskUsage instanceof IndexedDiskUsage) {
+                ((IndexedDiskUsage) diskUsage).setDemotion(new TierDemotion(i + 1));
+            } else {
+                LOG.warn("Files evicted from {} are deleted, its disk usage doesn't support demotion", volumes.get(i));
+            }
+        }
+    }
+
+    /**
+     * Returns cache file for name.
+     *
+     * @param name a name of cache file.
+     * @return cache file in volume selected for name or in volume that already contains cached data for name.
+     */
+    public File getFile(String name) {
+        if (volumes.size() == 1) {
+            return getFile(0, name);
+        }
+        if (tiered) {
+            return getTieredFile(name);
+        }
+        int preferred = selectVolume(name);
+        File file = getFile(preferred, name);
+        if (FileCache.isCacheStarted(file)) {
+            return file;
+        }
+        for (int i = 0; i < volumes.size(); i++) {
+            if (i != preferred) {
+                File cachedFile = getFile(i, name);
+                if (FileCache.isCacheStarted(cachedFile)) {
+                    return cachedFile;
+                }
+            }
+        }
+        return file;
+    }
+
+    /**
+     * Moves cache files of flat layout to subdirectories in every volume. See {@link ShardedLayout#migrate()}.
+     */
+    public void migrate() {
+        for (int i = 0; i < layouts.length; i++) {
+            if (layouts[i] != null) {
+                try {
+                    layouts[i].migrate();
+                } catch (IOException e) {
+                    LOG.error("Error migrating " + volumes.get(i) + " to sharded layout", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns index of volume that contains file.
+     *
+     * @param file a cache file.
+     * @return index in list of volumes or {@code -1} if file doesn't belong to any volume.
+     */
+    public int getVolumeIndex(File file) {
+        CacheVolume volume = findVolume(file);
+        return volume == null ? -1 : volumes.indexOf(volume);
+    }
+
+    public boolean isTiered() {
+        return tiered;
+    }
+
+    public boolean isSharded() {
+        return layouts[0] != null;
+    }
+
+    public List<CacheVolume> getVolumes() {
+        return volumes;
+    }
+
+    @Override
+    public void touch(File file) throws IOException {
+        CacheVolume volume = findVolume(file);
+        if (volume == null) {
+            throw new IOException("File " + file + " doesn't belong to any cache volume");
+        }
+        volume.diskUsage.touch(file);
+    }
+
+    @Override
+    public void reclaim(File file, long bytes) {
+        CacheVolume volume = findVolume(file);
+        if (volume != null && volume.diskUsage instanceof SpaceReclaimer) {
+            ((SpaceReclaimer) volume.diskUsage).reclaim(file, bytes);
+        }
+    }
+
+    private File getFile(int volume, String name) {
+        ShardedLayout layout = layouts[volume];
+        return layout != null ? layout.getFile(name) : new File(volumes.get(volume).root, name);
+    }
+
+    private File getTieredFile(String name) {
+        for (int i = 0; i < volumes.size(); i++) {
+            File file = getFile(i, name);
+            if (FileCache.isCacheStarted(file)) {
+                if (i > 0 && file.exists()) {
+                    promote(i, name);
+                }
+                return file;
+            }
+        }
+        return getFile(selectTier(name), name);
+    }
+
+    private int selectTier(String name) {
+        for (int i = 0; i < volumes.size(); i++) {
+            if (isAvailable(volumes.get(i))) {
+                return i;
+            }
+        }
+        LOG.warn("There is no available cache volume for {}, first volume is used", name);
+        return 0;
+    }
+
+    private void promote(final int tier, final String name) {
+        synchronized (promotions) {
+            if (!promotions.add(name)) {
+                return; // promotion is in progress
+            }
+        }
+        promotionThread.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    promoteInBackground(tier, name);
+                } finally {
+                    synchronized (promotions) {
+                        promotions.remove(name);
+                    }
+                }
+            }
+        });
+    }
+
+    private void promoteInBackground(int tier, String name) {
+        int targetTier = selectTier(name);
+        File file = getFile(tier, name);
+        File promotedFile = getFile(targetTier, name);
+        if (targetTier >= tier || !file.exists() || !copy(file, promotedFile)) {
+            return;
+        }
+        // file stays in lower tier until it is evicted, its path may be used by player
+        touchQuietly(targetTier, promotedFile);
+        LOG.info("Cache file {} is promoted to {}", file, promotedFile);
+    }
+
+    /**
+     * Copies completed cache file. Data is copied to temp file that is renamed when data is copied,
+     * so readers never see partially copied file.
+     */
+    private boolean copy(File source, File target) {
+        if (target.exists()) {
+            return true;
+        }
+        File copyFile = new File(target.getParentFile(), target.getName() + COPY_POSTFIX);
+        try {
+            Files.makeDir(target.getParentFile());
+            RandomAccessFile in = new RandomAccessFile(source, "r");
+            RandomAccessFile out = new RandomAccessFile(copyFile, "rw");
+            try {
+                out.setLength(0);
+                FileChannel channel = in.getChannel();
+                long size = channel.size();
+                for (long position = 0; position < size; ) {
+                    long copied = channel.transferTo(position, size - position, out.getChannel());
+                    if (copied <= 0) {
+                        throw new IOException("File " + source + " is truncated while copying");
+                    }
+                    position += copied;
+                }
+            } finally {
+                in.close();
+                out.close();
+            }
+            if (!copyFile.renameTo(target)) {
+                throw new IOException("Error renaming " + copyFile + " to " + target);
+            }
+            return true;
+        } catch (IOException e) {
+            LOG.error("Error copying cache file " + source + " to " + target, e);
+            if (copyFile.exists() && !copyFile.delete()) {
+                LOG.warn("Error deleting partial copy {}", copyFile);
+            }
+            return false;
+        }
+    }
+
+    private void touchQuietly(int volume, File file) {
+        try {
+            volumes.get(volume).diskUsage.touch(file);
+        } catch (IOException e) {
+            LOG.error("Error touching " + file, e);
+        }
+    }
+
+    private int selectVolume(String name) {
+        int hash = FileCache.getCompletedName(name).hashCode();
+        int selected = -1;
+        double selectedScore = 0;
+        for (int i = 0; i < volumes.size(); i++) {
+            double score = score(hash, i);
+            if (score > selectedScore && isAvailable(volumes.get(i))) {
+                selected = i;
+                selectedScore = score;
+            }
+        }
+        if (selected < 0) {
+            LOG.warn("There is no available cache volume for {}, first volume is used", name);
+            return 0;
+        }
+        return selected;
+    }
+
+    private double score(int hash, int volume) {
+        long mixed = mix(seeds[volume] * 0x9e3779b97f4a7c15L + hash);
+        double point = ((mixed >>> 11) + 0.5) / (1L << 53); // uniform in (0, 1)
+        return volumes.get(volume).weight / -Math.log(point);
+    }
+
+    private long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb9fe1a85ec53L;
+        value ^= value >>> 33;
+        return value;
+    }
+
+    private boolean isAvailable(CacheVolume volume) {
+        return volume.root.isDirectory() || volume.root.mkdirs();
+    }
+
+    private CacheVolume findVolume(File file) {
+        File parent = file.getAbsoluteFile().getParentFile();
+        for (int depth = 1; parent != null && depth <= MAX_FILE_DEPTH; depth++) {
+            for (CacheVolume volume : volumes) {
+                if (volume.root.getAbsoluteFile().equals(parent)) {
+                    return volume;
+                }
+            }
+            parent = parent.getParentFile();
+        }
+        return null;
+    }
+
+    private final class TierDemotion implements IndexedDiskUsage.Demotion {
+
+        private final int lowerTier;
+
+        TierDemotion(int lowerTier) {
+            this.lowerTier = lowerTier;
+        }
+
+        @Override
+        public void demote(final File file) {
+            demotionThread.execute(new Runnable() {
+                @Override
+                public void run() {
+                    demoteInBackground(file);
+                }
+            });
+        }
+
+        private void demoteInBackground(File file) {
+            File demotedFile = getFile(lowerTier, file.getName());
+            if (isAvailable(volumes.get(lowerTier)) && copy(file, demotedFile)) {
+                touchQuietly(lowerTier, demotedFile);
+                LOG.info("Cache file {} is demoted to {}", file, demotedFile);
+            }
+            if (!file.delete() && file.exists()) {
+                LOG.error("Error deleting cache file {} evicted from tier", file);
+            }
+        }
+    }
+}
@@ -1,82 +1,617 @@
 package com.danikula.videocache.file;
 
 import com.danikula.videocache.Cache;
+import com.danikula.videocache.InsufficientSpaceException;
 import com.danikula.videocache.ProxyCacheException;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 /**
  * {@link Cache} that uses file for storing data.
+ * <p>
+ * Not completed cache is sparse file: besides appending data sequentially any range can be written with help of
+ * {@link #write(long, byte[], int)}, e.g. when user seeks video. Written ranges are tracked by {@link RangeSet} that is
+ * persisted in companion file, so data survives restarts. {@link #available()} returns count of bytes cached
+ * continuously from start of file, cache can be completed only if there are no gaps. This count is published to
+ * volatile field by writers, so {@link #available()} never blocks and never touches file system.
+ * <p>
+ * Data is read and written by positional operations of {@link FileChannel}, so readers don't block each other and
+ * writer. Writers are serialized with each other and with lifecycle transitions (preallocation, completion, closing).
+ * <p>
+ * If {@link MemoryTier} is used, beginning of completed file is read from memory.
+ * <p>
+ * If length of data is known, space for whole file can be reserved by {@link #preallocate(long)}.
+ * Cached ranges are persisted for preallocated file, because its length doesn't say how much data is cached.
+ * <p>
+ * If {@link WriteBehindPolicy} is used, appended data is gathered into blocks in memory and every block is written by
+ * single positional write. Data that isn't written yet is read from memory. Not full block is written by shared timer
+ * thread when it is older than max delay, even if nothing is appended any more (e.g. source is stalled).
  *
  * @author Alexey Danilov (danikula@gmail.com).
  */
 public class FileCache implements Cache {
 
+    private static final Logger LOG = LoggerFactory.getLogger("FileCache");
     private static final String TEMP_POSTFIX = ".download";
+    private static final String RANGES_POSTFIX = ".ranges";
+    private static final ScheduledThreadPoolExecutor FLUSH_TIMER = newFlushTimer();
+    private static final Map<File, Integer> OPEN_FILES = new HashMap<>(); // completed file -> count of open caches
 
     private final DiskUsage diskUsage;
-    public File file;
-    private RandomAccessFile dataFile;
+    private final boolean mappedReads;
+    private final MemoryTier memoryTier;
+    private final WriteBehindBuffer writeBehind;
+    private final Object writeLock = new Object();
+    private final RangeSet ranges;
+    public volatile File file;
+    private volatile RandomAccessFile dataFile;
+    private boolean closed;
+    private volatile MappedFileReader mappedFile;
+    private boolean rangesPersisted;
+    private volatile long availableLength;
+    private ScheduledFuture<?> scheduledFlush;
+    private final File registeredFile;
+    private boolean registered;
 
     public FileCache(File file) throws ProxyCacheException {
         this(file, new UnlimitedDiskUsage());
     }
 
     public FileCache(File file, DiskUsage diskUsage) throws ProxyCacheException {
+        this(file, diskUsage, false);
+    }
+
+    /**
+     * Creates file cache.
+     *
+     * @param file        a file to be used for caching.
+     * @param diskUsage   a disk usage strategy.
+     * @param mappedReads {@code true} if completed cache should be read with help of memory mapping.
+     *                    It allows concurrent readers of same file don't block each other.
+     * @throws ProxyCacheException if file can't be used for caching.
+     */
+    public FileCache(File file, DiskUsage diskUsage, boolean mappedReads) throws ProxyCacheException {
+        this(file, diskUsage, mappedReads, null);
+    }
+
+    /**
+     * Creates file cache.
+     *
+     * @param file        a file to be used for caching.
+     * @param diskUsage   a disk usage strategy.
+     * @param mappedReads {@code true} if completed cache should be read with help of memory mapping.
+     * @param memoryTier  a memory tier to keep beginning of completed file in, may be {@code null}.
+     * @throws ProxyCacheException if file can't be used for caching.
+     */
+    public FileCache(File file, DiskUsage diskUsage, boolean mappedReads, MemoryTier memoryTier) throws ProxyCacheException {
+        this(file, diskUsage, mappedReads, memoryTier, null);
+    }
+
+    /**
+     * Creates file cache.
+     *
+     * @param file        a file to be used for caching.
+     * @param diskUsage   a disk usage strategy.
+     * @param mappedReads {@code true} if completed cache should be read with help of memory mapping.
+     * @param memoryTier  a memory tier to keep beginning of completed file in, may be {@code null}.
+     * @param writeBehind a policy of writing appended data, {@code null} to write every append at once.
+     * @throws ProxyCacheException if file can't be used for caching.
+     */
+    public FileCache(File file, DiskUsage diskUsage, boolean mappedReads, MemoryTier memoryTier,
+                     WriteBehindPolicy writeBehind) throws ProxyCacheException {
         try {
             if (diskUsage == null) {
                 throw new NullPointerException();
             }
             this.diskUsage = diskUsage;
+            this.mappedReads = mappedReads;
+            this.memoryTier = memoryTier;
+            this.writeBehind = writeBehind != null ? new WriteBehindBuffer(writeBehind) : null;
+            this.registeredFile = file;
+            register(file);
+            this.registered = true;
             File directory = file.getParentFile();
             Files.makeDir(directory);
             boolean completed = file.exists();
-            this.file = completed ? file : new File(file.getParentFile(), file.getName() + TEMP_POSTFIX);
+            this.file = completed ? file : getTempFile(file);
+            this.ranges = isTempFile(this.file) ? loadRanges(this.file) : new RangeSet();
             this.dataFile = new RandomAccessFile(this.file, completed ? "r" : "rw");
+            if (completed) {
+                mapIfNeeded();
+            }
+            availableLength = completed ? dataFile.length() : ranges.available(0);
         } catch (IOException e) {
+            if (registered) {
+                unregister(file);
+            }
             throw new ProxyCacheException("Error using file " + file + " as disc cache", e);
         }
     }
 
     @Override
-    public synchronized long available() throws ProxyCacheException {
+    public long available() {
+        return availableLength;
+    }
+
+    /**
+     * Returns count of bytes cached continuously starting from passed offset.
+     *
+     * @param offset an offset in cache file.
+     * @return count of cached bytes or {@code 0} if there is no data for offset.
+     */
+    @Override
+    public long available(long offset) {
+        long available = availableLength;
+        if (offset < available || isCompleted()) {
+            return Math.max(0, available - offset); // data before available length is cached continuously
+        }
+        synchronized (this) {
+            return isCompleted() ? Math.max(0, availableLength - offset) : ranges.available(offset);
+        }
+    }
+
+    /**
+     * Publishes count of bytes cached continuously from start of file. Must be called under lock
+     * when cached ranges of not completed file are changed.
+     */
+    private void publishAvailable() {
+        availableLength = ranges.available(0);
+    }
+
+    @Override
+    public int read(byte[] buffer, long offset, int length) throws ProxyCacheException {
+        byte[] head;
         try {
-            return (int) dataFile.length();
+            head = getHead(offset);
         } catch (IOException e) {
-            throw new ProxyCacheException("Error reading length of file " + file, e);
+            throw new ProxyCacheException("Error reading head of file " + file + " to memory", e);
+        }
+        if (head != null) {
+            int count = (int) Math.min(length, head.length - offset);
+            System.arraycopy(head, (int) offset, buffer, 0, count);
+            return count;
         }
+        MappedFileReader mapped = mappedFile;
+        if (mapped != null) {
+            try {
+                try {
+                    return mapped.read(buffer, offset, length);
+                } catch (ClosedChannelException e) {
+                    reopenedChannel(mapped.channel(), e);
+                    mapped = mappedFile;
+                    if (mapped == null) {
+                        throw e; // cache is closed
+                    }
+                    return mapped.read(buffer, offset, length);
+                }
+            } catch (IOException e) {
+                String format = "Error reading %d bytes with offset %d from mapped file %s";
+                throw new ProxyCacheException(String.format(format, length, offset, file), e);
+            }
+        }
+        return readFile(buffer, offset, length);
     }
 
-    @Override
-    public synchronized int read(byte[] buffer, long offset, int length) throws ProxyCacheException {
+    private int readFile(byte[] buffer, long offset, int length) throws ProxyCacheException {
+        if (!isCompleted()) {
+            // sparse file may contain gaps, don't read them
+            long cached = available(offset);
+            if (cached == 0) {
+                return -1;
+            }
+            length = (int) Math.min(length, cached);
+            if (writeBehind != null) {
+                synchronized (this) {
+                    int read = writeBehind.read(offset, buffer, length);
+                    if (read >= 0) {
+                        return read;
+                    }
+                    length = (int) writeBehind.inFile(offset, length);
+                }
+            }
+        }
+        FileChannel channel = dataFile.getChannel();
         try {
-            dataFile.seek(offset);
-            return dataFile.read(buffer, 0, length);
+            try {
+                return channel.read(ByteBuffer.wrap(buffer, 0, length), offset);
+            } catch (ClosedChannelException e) {
+                return reopenedChannel(channel, e).read(ByteBuffer.wrap(buffer, 0, length), offset);
+            }
         } catch (IOException e) {
             String format = "Error reading %d bytes with offset %d from file[%d bytes] to buffer[%d bytes]";
             throw new ProxyCacheException(String.format(format, length, offset, available(), buffer.length), e);
         }
     }
 
+    /**
+     * Returns channel to repeat IO with if channel is closed by completion of cache or by interruption of other thread.
+     *
+     * @param channel a closed channel.
+     * @param e       an exception thrown by closed channel.
+     * @return new channel of cache file.
+     * @throws ClosedChannelException if cache is closed or current thread is interrupted.
+     */
+    private FileChannel reopenedChannel(FileChannel channel, ClosedChannelException e) throws ClosedChannelException {
+        recoverChannel(channel);
+        FileChannel reopened = dataFile.getChannel();
+        if (reopened == channel || e instanceof ClosedByInterruptException) {
+            throw e;
+        }
+        return reopened;
+    }
+
+    /**
+     * Reopens file if its channel is closed because thread that used channel is interrupted,
+     * so interruption of one reader doesn't break other readers and writer of same cache.
+     *
+     * @param channel a closed channel.
+     */
+    private synchronized void recoverChannel(FileChannel channel) {
+        if (closed || dataFile.getChannel() != channel) {
+            return; // cache is closed or file is already reopened
+        }
+        try {
+            dataFile = new RandomAccessFile(file, isCompleted() ? "r" : "rw");
+            if (mappedFile != null) {
+                mappedFile = new MappedFileReader(dataFile); // windows can't be mapped by closed channel
+            }
+            LOG.debug("File {} is reopened after interruption of IO", file);
+        } catch (IOException e) {
+            LOG.error("Error reopening file " + file, e);
+        }
+    }
+
+    /**
+     * Transfers cached bytes directly to channel without copying them through java heap.
+     * <p>
+     * Lock isn't held while data is transferred, so slow client doesn't block writing cache.
+     *
+     * @param offset an offset in cache file.
+     * @param count  max count of bytes to transfer.
+     * @param target a channel to transfer bytes to.
+     * @return a count of transferred bytes. May be {@code 0} if cache file is reopened while transferring
+     * or if data for offset isn't written to file yet (see {@link #availableInFile(long)}).
+     * @throws IOException if error occur while transferring data.
+     */
+    public long transferTo(long offset, long count, WritableByteChannel target) throws IOException {
+        byte[] head = getHead(offset);
+        if (head != null) {
+            return target.write(ByteBuffer.wrap(head, (int) offset, (int) Math.min(count, head.length - offset)));
+        }
+        FileChannel channel;
+        synchronized (this) {
+            channel = dataFile.getChannel();
+            if (writeBehind != null && !isCompleted()) {
+                count = writeBehind.inFile(offset, count);
+            }
+        }
+        if (count == 0) {
+            return 0;
+        }
+        try {
+            return channel.transferTo(offset, count, target);
+        } catch (IOException e) {
+            if (!channel.isOpen()) {
+                recoverChannel(channel);
+            }
+            if (!channel.isOpen() && target.isOpen() && !(e instanceof ClosedByInterruptException)) {
+                return 0; // cache is completed or closed concurrently, nothing is transferred
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Returns count of bytes cached continuously starting from passed offset that are written to file already,
+     * so they can be transferred by {@link #transferTo(long, long, WritableByteChannel)}.
+     *
+     * @param offset an offset in cache file.
+     * @return count of cached bytes in file.
+     */
+    public long availableInFile(long offset) {
+        if (writeBehind == null) {
+            return available(offset);
+        }
+        synchronized (this) {
+            long cached = available(offset);
+            return isCompleted() ? cached : writeBehind.inFile(offset, cached);
+        }
+    }
+
+    /**
+     * Checks is data for offset kept in memory tier.
+     *
+     * @param offset an offset in cache file.
+     * @return {@code true} if data is read from memory.
+     */
+    public boolean isInMemory(long offset) {
+        byte[] head = memoryTier != null && isCompleted() ? memoryTier.get(file.getName()) : null;
+        return head != null && offset < head.length;
+    }
+
+    /**
+     * Returns head of completed file from memory tier, head is loaded if it isn't in memory yet.
+     *
+     * @return head or {@code null} if offset isn't in head.
+     */
+    private byte[] getHead(long offset) throws IOException {
+        if (memoryTier == null || offset >= memoryTier.getHeadSize() || !isCompleted()) {
+            return null;
+        }
+        byte[] head = memoryTier.get(file.getName());
+        if (head == null) {
+            synchronized (this) {
+                head = memoryTier.load(dataFile, file.getName()); // file is read from its beginning, keep head for next playback
+            }
+        }
+        return offset < head.length ? head : null;
+    }
+
+    /**
+     * Reserves disk space for whole not completed file, so data is written to allocated file instead of
+     * extending file by every append. Does nothing if file is completed or isn't shorter than passed length.
+     * <p>
+     * If there is no free space, cache is trimmed (if disk usage supports it) and exception is thrown at once,
+     * before any data is fetched.
+     *
+     * @param length a full length of data.
+     * @throws InsufficientSpaceException if there is no free space for file.
+     * @throws ProxyCacheException        if file can't be extended.
+     */
+    public void preallocate(long length) throws ProxyCacheException {
+        synchronized (writeLock) { // file isn't extended by concurrent writing while space is allocated
+            synchronized (this) {
+                preallocateFile(length);
+            }
+        }
+    }
+
+    private void preallocateFile(long length) throws ProxyCacheException {
+        if (isCompleted()) {
+            return;
+        }
+        try {
+            flushWriteBehind();
+            long fileLength = dataFile.length();
+            if (length <= fileLength) {
+                return;
+            }
+            long required = length - fileLength;
+            if (!rangesPersisted) {
+                saveRanges(); // length of file doesn't say which data is cached any more
+            }
+            if (file.getParentFile().getUsableSpace() < required || !Files.allocate(dataFile, length)) {
+                if (diskUsage instanceof SpaceReclaimer) {
+                    ((SpaceReclaimer) diskUsage).reclaim(file, required);
+                }
+                throw new InsufficientSpaceException("There is no free space to preallocate " + required + " bytes for " + file);
+            }
+        } catch (IOException e) {
+            throw new ProxyCacheException("Error preallocating " + length + " bytes for file " + file, e);
+        }
+    }
+
     @Override
-    public synchronized void append(byte[] data, int length) throws ProxyCacheException {
+    public void append(byte[] data, int length) throws ProxyCacheException {
+        synchronized (writeLock) { // appended data is written in order of offsets, so file length never covers gaps
+            if (writeBehind == null) {
+                long offset;
+                synchronized (this) {
+                    checkNotCompleted();
+                    offset = ranges.available(0);
+                }
+                writeRange(offset, data, length);
+                return;
+            }
+            List<WriteBehindBuffer.Block> blocks;
+            FileChannel channel;
+            synchronized (this) {
+                checkNotCompleted();
+                long offset = ranges.available(0);
+                blocks = writeBehind.append(offset, data, length);
+                ranges.add(offset, offset + length);
+                publishAvailable();
+                channel = dataFile.getChannel();
+                scheduleFlush();
+            }
+            writeBlocks(channel, blocks);
+        }
+    }
+
+    /**
+     * Schedules writing of pending block when it becomes older than max delay. Must be called under lock of cache.
+     */
+    private void scheduleFlush() {
+        long delay = writeBehind.pendingDelayMs();
+        if (delay >= 0 && scheduledFlush == null) {
+            scheduledFlush = FLUSH_TIMER.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    flushExpired();
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void flushExpired() {
+        synchronized (writeLock) {
+            List<WriteBehindBuffer.Block> blocks;
+            FileChannel channel;
+            synchronized (this) {
+                scheduledFlush = null;
+                if (closed || isCompleted()) {
+                    return; // data is flushed by closing
+                }
+                blocks = writeBehind.takeExpired();
+                channel = dataFile.getChannel();
+                scheduleFlush(); // pending block is replaced by newer one since scheduling
+            }
+            try {
+                writeBlocks(channel, blocks);
+            } catch (ProxyCacheException e) {
+                LOG.warn("Error flushing delayed data of " + file, e);
+            }
+        }
+    }
+
+    private void checkNotCompleted() throws ProxyCacheException {
+        if (isCompleted()) {
+            throw new ProxyCacheException("Error append cache: cache file " + file + " is completed!");
+        }
+    }
+
+    /**
+     * Writes taken blocks without holding lock, so readers are not blocked by writing.
+     */
+    private void writeBlocks(FileChannel channel, List<WriteBehindBuffer.Block> blocks) throws ProxyCacheException {
+        for (WriteBehindBuffer.Block block : blocks) {
+            boolean written = false;
+            try {
+                writeBlock(channel, block);
+                written = true;
+            } catch (IOException e) {
+                throw new ProxyCacheException("Error writing " + block + " to " + file, e);
+            } finally {
+                synchronized (this) {
+                    if (!written) {
+                        ranges.truncate(block.offset); // data of block is lost, it will be fetched again
+                        publishAvailable();
+                    }
+                    writeBehind.release(block);
+                }
+            }
+        }
+    }
+
+    private void writeBlock(FileChannel channel, WriteBehindBuffer.Block block) throws IOException {
+        try {
+            writeBehind.write(channel, block);
+        } catch (ClosedChannelException e) {
+            writeBehind.write(reopenedChannel(channel, e), block); // whole block is written again
+        }
+    }
+
+    /**
+     * Writes all data kept in memory to file. Must be called under write lock and lock of cache,
+     * so there are no blocks being written by appender.
+     */
+    private void flushWriteBehind() throws IOException {
+        if (writeBehind == null) {
+            return;
+        }
+        for (WriteBehindBuffer.Block block : writeBehind.takeAll()) {
+            try {
+                writeBlock(dataFile.getChannel(), block);
+            } catch (IOException e) {
+                ranges.truncate(block.offset);
+                publishAvailable();
+                throw e;
+            } finally {
+                writeBehind.release(block);
+            }
+        }
+    }
+
+    /**
+     * Writes data to arbitrary position of cache. Gaps between written ranges are allowed.
+     * Does nothing if cache is completed, it already contains all data.
+     *
+     * @param offset an offset in cache file to write data to.
+     * @param data   a buffer with data to be written.
+     * @param length count of bytes to be written.
+     * @throws ProxyCacheException if data can't be written.
+     */
+    public void write(long offset, byte[] data, int length) throws ProxyCacheException {
+        synchronized (writeLock) {
+            if (!isCompleted()) {
+                writeRange(offset, data, length);
+            }
+        }
+    }
+
+    /**
+     * Writes data without holding lock, so readers are not blocked by writing. Must be called under write lock.
+     */
+    private void writeRange(long offset, byte[] data, int length) throws ProxyCacheException {
+        FileChannel channel;
         try {
-            if (isCompleted()) {
-                throw new ProxyCacheException("Error append cache: cache file " + file + " is completed!");
+            synchronized (this) {
+                if (!rangesPersisted && offset > ranges.available(0)) {
+                    // file becomes sparse, so its length doesn't say which data is cached any more
+                    saveRanges();
+                }
+                channel = dataFile.getChannel();
+            }
+            try {
+                writeFully(channel, offset, data, length);
+            } catch (ClosedChannelException e) {
+                writeFully(reopenedChannel(channel, e), offset, data, length);
+            }
+            synchronized (this) {
+                ranges.add(offset, offset + length);
+                publishAvailable();
             }
-            dataFile.seek(available());
-            dataFile.write(data, 0, length);
         } catch (IOException e) {
-            String format = "Error writing %d bytes to %s from buffer with size %d";
-            throw new ProxyCacheException(String.format(format, length, dataFile, data.length), e);
+            String format = "Error writing %d bytes with offset %d to %s from buffer with size %d";
+            throw new ProxyCacheException(String.format(format, length, offset, file, data.length), e);
+        }
+    }
+
+    private void writeFully(FileChannel channel, long offset, byte[] data, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(data, 0, length);
+        for (long position = offset; buffer.hasRemaining(); ) {
+            position += channel.write(buffer, position);
         }
     }
 
     @Override
-    public synchronized void close() throws ProxyCacheException {
+    public void close() throws ProxyCacheException {
+        synchronized (writeLock) {
+            synchronized (this) {
+                try {
+                    closeFile();
+                } finally {
+                    if (registered) {
+                        registered = false;
+                        unregister(registeredFile);
+                    }
+                }
+            }
+        }
+    }
+
+    private void closeFile() throws ProxyCacheException {
         try {
+            closed = true;
+            mappedFile = null; // buffers stay valid until they are garbage collected
+            if (scheduledFlush != null) {
+                scheduledFlush.cancel(false);
+                scheduledFlush = null;
+            }
+            if (!isCompleted()) {
+                flushWriteBehind();
+            }
+            if (rangesPersisted && !isCompleted()) {
+                saveRanges();
+            }
             dataFile.close();
             diskUsage.touch(file);
         } catch (IOException e) {
@@ -85,21 +620,41 @@ public class FileCache implements Cache {
     }
 
     @Override
-    public synchronized void complete() throws ProxyCacheException {
+    public void complete() throws ProxyCacheException {
+        synchronized (writeLock) {
+            synchronized (this) {
+                completeFile();
+            }
+        }
+    }
+
+    private void completeFile() throws ProxyCacheException {
         if (isCompleted()) {
             return;
         }
+        try {
+            flushWriteBehind();
+            if (!ranges.covers(dataFile.length())) {
+                throw new ProxyCacheException("Error completing " + file + ": file has not cached ranges " + ranges);
+            }
+        } catch (IOException e) {
+            throw new ProxyCacheException("Error writing data to file " + file, e);
+        }
 
-        close();
+        closeFile();
         String fileName = file.getName().substring(0, file.getName().length() - TEMP_POSTFIX.length());
         File completedFile = new File(file.getParentFile(), fileName);
         boolean renamed = file.renameTo(completedFile);
         if (!renamed) {
             throw new ProxyCacheException("Error renaming file " + file + " to " + completedFile + " for completion!");
         }
+        deleteRanges(file);
         file = completedFile;
         try {
             dataFile = new RandomAccessFile(file, "r");
+            closed = false;
+            availableLength = dataFile.length();
+            mapIfNeeded();
             diskUsage.touch(file);
         } catch (IOException e) {
             throw new ProxyCacheException("Error opening " + file + " as disc cache", e);
@@ -107,21 +662,164 @@ public class FileCache implements Cache {
     }
 
     @Override
-    public synchronized boolean isCompleted() {
+    public boolean isCompleted() {
         return !isTempFile(file);
     }
 
+    private static ScheduledThreadPoolExecutor newFlushTimer() {
+        final ThreadFactory threadFactory = Executors.defaultThreadFactory();
+        ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = threadFactory.newThread(runnable);
+                thread.setName("FileCache flusher");
+                thread.setDaemon(true); // doesn't prevent exit of process, data of closed caches is already flushed
+                return thread;
+            }
+        });
+        timer.setRemoveOnCancelPolicy(true);
+        return timer;
+    }
+
+    private RangeSet loadRanges(File tempFile) {
+        File rangesFile = getRangesFile(tempFile);
+        rangesPersisted = rangesFile.exists();
+        RangeSet loaded = new RangeSet();
+        if (!tempFile.exists()) {
+            deleteRanges(tempFile); // stale ranges of deleted file
+            rangesPersisted = false;
+        } else if (!rangesPersisted) {
+            loaded.add(0, tempFile.length()); // file has been written only sequentially
+        } else {
+            try {
+                loaded = RangeSet.load(rangesFile);
+                loaded.truncate(tempFile.length());
+            } catch (IOException e) {
+                LOG.warn("Error reading cached ranges of " + tempFile + ", file will be downloaded again", e);
+            }
+        }
+        return loaded;
+    }
+
+    private void saveRanges() throws IOException {
+        flushWriteBehind(); // saved ranges must not contain data that is kept only in memory
+        ranges.save(getRangesFile(file));
+        rangesPersisted = true;
+    }
+
+    private void deleteRanges(File tempFile) {
+        File rangesFile = getRangesFile(tempFile);
+        if (rangesFile.exists() && !rangesFile.delete()) {
+            LOG.warn("Error deleting ranges file " + rangesFile);
+        }
+    }
+
     /**
-     * Returns file to be used fo caching. It may as original file passed in constructor as some temp file for not completed cache.
+     * Returns companion file that contains ranges cached in sparse file.
      *
-     * @return file for caching.
+     * @param file a not completed cache file.
+     * @return file with cached ranges.
      */
-    public File getFile() {
-        return file;
+    static File getRangesFile(File file) {
+        return new File(file.getParentFile(), file.getName() + RANGES_POSTFIX);
+    }
+
+    /**
+     * Returns temp file used for caching data until cache is completed.
+     *
+     * @param file a completed cache file.
+     * @return not completed cache file.
+     */
+    static File getTempFile(File file) {
+        return new File(file.getParentFile(), file.getName() + TEMP_POSTFIX);
+    }
+
+    /**
+     * Checks is there any cached data for file: completed or not completed cache file exists.
+     *
+     * @param file a completed cache file.
+     * @return {@code true} if caching of file is started before.
+     */
+    public static boolean isCacheStarted(File file) {
+        return file.exists() || getTempFile(file).exists();
     }
 
-    private boolean isTempFile(File file) {
+    /**
+     * Returns name of completed cache file for name of cache file, its temp file or ranges file.
+     *
+     * @param name a name of file.
+     * @return name of completed cache file.
+     */
+    static String getCompletedName(String name) {
+        if (name.endsWith(RANGES_POSTFIX)) {
+            name = name.substring(0, name.length() - RANGES_POSTFIX.length());
+        }
+        if (name.endsWith(TEMP_POSTFIX)) {
+            name = name.substring(0, name.length() - TEMP_POSTFIX.length());
+        }
+        return name;
+    }
+
+    private static void register(File file) {
+        synchronized (OPEN_FILES) {
+            Integer count = OPEN_FILES.get(file);
+            OPEN_FILES.put(file, count == null ? 1 : count + 1);
+        }
+    }
+
+    private static void unregister(File file) {
+        synchronized (OPEN_FILES) {
+            Integer count = OPEN_FILES.get(file);
+            if (count == null || count <= 1) {
+                OPEN_FILES.remove(file);
+            } else {
+                OPEN_FILES.put(file, count - 1);
+            }
+        }
+    }
+
+    /**
+     * Returns lock that prevents creating new caches while it is held, e.g. while file is changed in place.
+     *
+     * @return a lock of open files.
+     */
+    static Object getOpenFilesLock() {
+        return OPEN_FILES;
+    }
+
+    /**
+     * Checks is file used by any not closed cache: it is downloaded, read or memory mapped.
+     *
+     * @param file a completed cache file or its temp file.
+     * @return {@code true} if file is used.
+     */
+    static boolean isOpen(File file) {
+        File completedFile = new File(file.getParentFile(), getCompletedName(file.getName()));
+        synchronized (OPEN_FILES) {
+            return OPEN_FILES.containsKey(completedFile);
+        }
+    }
+
+    static boolean isTempFile(File file) {
         return file.getName().endsWith(TEMP_POSTFIX);
     }
 
+    static boolean isRangesFile(File file) {
+        return file.getName().endsWith(RANGES_POSTFIX);
+    }
+
+    private void mapIfNeeded() throws IOException {
+        if (mappedReads) {
+            mappedFile = new MappedFileReader(dataFile);
+        }
+    }
+
+    /**
+     * Returns file to be used fo caching. It may as original file passed in constructor as some temp file for not completed cache.
+     *
+     * @return file for caching.
+     */
+    public File getFile() {
+        return file;
+    }
 }
@@ -1,15 +1,14 @@
 package com.danikula.videocache.file;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.Date;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -20,8 +19,6 @@ import java.util.List;
  */
 class Files {
 
-    private static final Logger LOG = LoggerFactory.getLogger("Files");
-
     static void makeDir(File directory) throws IOException {
         if (directory.exists()) {
             if (!directory.isDirectory()) {
@@ -35,49 +32,63 @@ class Files {
         }
     }
 
+    /**
+     * Reserves disk space for file with help of {@code posix_fallocate}, so file is not fragmented and its metadata
+     * is not updated while it is written. File is just extended if file system doesn't support allocation.
+     *
+     * @param file   a file to be extended.
+     * @param length new length of file.
+     * @return {@code false} if there is no free space for file.
+     * @throws IOException if file can't be extended.
+     */
+    static boolean allocate(RandomAccessFile file, long length) throws IOException {
+        long fileLength = file.length();
+        try {
+            Os.posix_fallocate(file.getFD(), fileLength, length - fileLength);
+        } catch (ErrnoException e) {
+            if (e.errno == OsConstants.ENOSPC) {
+                file.setLength(fileLength); // release partially allocated space
+                return false;
+            }
+            file.setLength(length); // allocation isn't supported, e.g. by FAT of sd card
+        } catch (UnsatisfiedLinkError e) {
+            file.setLength(length); // native allocation isn't available, e.g. in unit tests on jvm
+        }
+        return true;
+    }
+
+    /**
+     * Lists cache files in directory including files in subdirectories of {@link ShardedLayout}.
+     *
+     * @param directory a root of cache directory.
+     * @return cache files, least recently modified first.
+     */
     static List<File> getLruListFiles(File directory) {
         List<File> result = new LinkedList<>();
-        File[] files = directory.listFiles();
-        if (files != null) {
-            result = Arrays.asList(files);
-            Collections.sort(result, new LastModifiedComparator());
-        }
+        listCacheFiles(directory, 0, result);
+        Collections.sort(result, new LastModifiedComparator());
         return result;
     }
 
-    static void setLastModifiedNow(File file) throws IOException {
-        if (file.exists()) {
-            long now = System.currentTimeMillis();
-            boolean modified = file.setLastModified(now); // on some devices (e.g. Nexus 5) doesn't work
-            if (!modified) {
-                modify(file);
-                if (file.lastModified() < now) {
-                    // NOTE: apparently this is a known issue (see: http://stackoverflow.com/questions/6633748/file-lastmodified-is-never-what-was-set-with-file-setlastmodified)
-                    LOG.warn("Last modified date {} is not set for file {}", new Date(file.lastModified()), file.getAbsolutePath());
+    private static void listCacheFiles(File directory, int depth, List<File> result) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.isDirectory()) {
+                if (depth < 2 && ShardedLayout.isShardName(file.getName())) {
+                    listCacheFiles(file, depth + 1, result);
                 }
+            } else if (!isServiceFile(file)) {
+                result.add(file);
             }
         }
     }
 
-    static void modify(File file) throws IOException {
-        long size = file.length();
-        if (size == 0) {
-            recreateZeroSizeFile(file);
-            return;
-        }
-
-        RandomAccessFile accessFile = new RandomAccessFile(file, "rwd");
-        accessFile.seek(size - 1);
-        byte lastByte = accessFile.readByte();
-        accessFile.seek(size - 1);
-        accessFile.write(lastByte);
-        accessFile.close();
-    }
-
-    private static void recreateZeroSizeFile(File file) throws IOException {
-        if (!file.delete() || !file.createNewFile()) {
-            throw new IOException("Error recreate zero-size file " + file);
-        }
+    static boolean isServiceFile(File file) {
+        return FileCache.isRangesFile(file) || LruJournal.isJournalFile(file) || FrequencySketch.isSketchFile(file)
+                || ShardedLayout.isMarkerFile(file);
     }
 
     private static final class LastModifiedComparator implements Comparator<File> {
@@ -0,0 +1,144 @@
+package com.danikula.videocache.file;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Compact approximate counter of usage frequency of cache files (count-min sketch).
+ * <p>
+ * Every key increments one counter in each of {@link #DEPTH} rows, frequency is minimal of these counters, so
+ * collisions can only overestimate it. Counters are limited by {@code 15}. When count of increments reaches
+ * {@code 10 * width} all counters are halved, so popularity of files becomes older with time (aging).
+ * <p>
+ * Class is not thread safe, owner is responsible for synchronization.
+ */
+final class FrequencySketch {
+
+    private static final Logger LOG = LoggerFactory.getLogger("FrequencySketch");
+    private static final String SKETCH_FILE_NAME = ".frequencies";
+    private static final int FORMAT_VERSION = 1;
+    private static final int DEPTH = 4;
+    private static final int MAX_FREQUENCY = 15;
+    private static final int[] SEEDS = {0x97cb3127, 0xb2e7a4d5, 0x8d1f3e6b, 0x5c2e9a73};
+
+    private final byte[][] counters;
+    private final int mask;
+    private final int sampleSize;
+    private int additions;
+
+    /**
+     * @param width count of counters in every row, it is rounded up to power of two.
+     */
+    FrequencySketch(int width) {
+        if (width <= 0) {
+            throw new IllegalArgumentException("Width must be positive number!");
+        }
+        int powerOfTwoWidth = Integer.highestOneBit(width) == width ? width : Integer.highestOneBit(width) << 1;
+        this.counters = new byte[DEPTH][powerOfTwoWidth];
+        this.mask = powerOfTwoWidth - 1;
+        this.sampleSize = 10 * powerOfTwoWidth;
+    }
+
+    void increment(String key) {
+        int hash = key.hashCode();
+        int frequency = frequency(hash);
+        if (frequency >= MAX_FREQUENCY) {
+            return;
+        }
+        for (int row = 0; row < DEPTH; row++) {
+            int index = indexOf(hash, row);
+            if (counters[row][index] == frequency) { // conservative update: only minimal counters are incremented
+                counters[row][index]++;
+            }
+        }
+        if (++additions >= sampleSize) {
+            age();
+        }
+    }
+
+    int frequency(String key) {
+        return frequency(key.hashCode());
+    }
+
+    private int frequency(int hash) {
+        int frequency = MAX_FREQUENCY;
+        for (int row = 0; row < DEPTH; row++) {
+            frequency = Math.min(frequency, counters[row][indexOf(hash, row)]);
+        }
+        return frequency;
+    }
+
+    private int indexOf(int hash, int row) {
+        int h = (hash ^ SEEDS[row]) * 0x9e3779b9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    private void age() {
+        for (byte[] row : counters) {
+            for (int i = 0; i < row.length; i++) {
+                row[i] = (byte) (row[i] >> 1);
+            }
+        }
+        additions /= 2;
+    }
+
+    void save(File file) throws IOException {
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+        try {
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(mask + 1);
+            out.writeInt(additions);
+            for (byte[] row : counters) {
+                out.write(row);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Loads sketch saved before or creates new one if there is no saved sketch of passed width.
+     */
+    static FrequencySketch load(File file, int width) {
+        FrequencySketch sketch = new FrequencySketch(width);
+        if (!file.exists()) {
+            return sketch;
+        }
+        try {
+            DataInputStream in = new DataInputStream(new FileInputStream(file));
+            try {
+                int version = in.readInt();
+                int savedWidth = in.readInt();
+                if (version != FORMAT_VERSION || savedWidth != sketch.mask + 1) {
+                    LOG.warn("Frequencies file " + file + " has other format, frequencies are reset");
+                    return sketch;
+                }
+                sketch.additions = in.readInt();
+                for (byte[] row : sketch.counters) {
+                    in.readFully(row);
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            LOG.warn("Error reading frequencies file " + file + ", frequencies are reset", e);
+            return new FrequencySketch(width);
+        }
+        return sketch;
+    }
+
+    static File getSketchFile(File directory) {
+        return new File(directory, SKETCH_FILE_NAME);
+    }
+
+    static boolean isSketchFile(File file) {
+        return SKETCH_FILE_NAME.equals(file.getName());
+    }
+}
@@ -0,0 +1,446 @@
+package com.danikula.videocache.file;
+
+import com.danikula.videocache.ItemCachesHolder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Base class for {@link DiskUsage} strategies that track cache files in memory and delete files selected
+ * by strategy when cache is too big.
+ * <p>
+ * Files and their sizes are tracked by in-memory index ordered by usage, so touching file costs a couple of file
+ * system calls no matter how many files are cached. Index is restored from {@link LruJournal} on first touch,
+ * cache directory is listed only if there is no journal yet. Files of {@link ShardedLayout} are indexed by root directory. Index and journal are accessed only by single worker thread,
+ * all hooks of subclasses are called by this thread too.
+ * <p>
+ * Touches made while worker is busy are coalesced into single pass. Trimming is started if
+ * {@link #isTrimmingNeeded()} (high watermark) and deletes files returned by {@link #selectVictim()} in small batches,
+ * so touches are not delayed by trimming, until strategy returns {@code null} (low watermark).
+ * <p>
+ * If retained prefix is set by {@link #setRetainedPrefix(long, int)}, selected file bigger than prefix is not deleted
+ * but truncated to prefix and gets second chance: it becomes most recently used file and is deleted when it is
+ * selected again. So cache keeps beginnings of many videos, that are enough for instant start of playback,
+ * instead of keeping few whole videos. File used by open {@link FileCache} (e.g. it is still downloaded) is deleted.
+ * <p>
+ * If {@link Demotion} is set, selected completed file is moved to slower storage instead of deleting,
+ * see tiered {@link CacheVolumes}.
+ * <p>
+ * If there is no free space on device, {@link #reclaim(File, long)} deletes least recently used files regardless of strategy.
+ */
+abstract class IndexedDiskUsage implements DiskUsage, SpaceReclaimer {
+
+    private static final Logger LOG = LoggerFactory.getLogger("IndexedDiskUsage");
+    private static final int TRIMMING_BATCH_SIZE = 16;
+
+    private final ExecutorService workerThread = Executors.newSingleThreadExecutor();
+    private final Set<File> pendingTouches = new LinkedHashSet<>();
+    private boolean touchesScheduled;
+    private final LinkedHashMap<File, Long> lruIndex = new LinkedHashMap<>(); // file -> size, least recently used first
+    private File indexedDirectory;
+    private boolean indexedDirectorySharded;
+    private LruJournal journal;
+    private long totalSize;
+    private boolean trimming;
+    private boolean trimmingScheduled;
+    private volatile long retainedPrefixBytes;
+    private volatile int retainedPrefixPercents;
+    private volatile Demotion demotion;
+
+    @Override
+    public void touch(File file) throws IOException {
+        synchronized (pendingTouches) {
+            pendingTouches.remove(file); // keep order of last touches
+            pendingTouches.add(file);
+            if (!touchesScheduled) {
+                touchesScheduled = true;
+                workerThread.submit(new TouchesRunnable());
+            }
+        }
+    }
+
+    @Override
+    public void reclaim(File file, long bytes) {
+        workerThread.submit(new ReclaimRunnable(file, bytes));
+    }
+
+    /**
+     * Updates usage of file. Called by worker thread, visible for benchmarks.
+     */
+    void touchInBackground(File file) {
+        File directory = file.getParentFile();
+        if (!directory.equals(indexedDirectory)) {
+            File shardedRoot = ShardedLayout.getShardedRoot(file);
+            directory = shardedRoot != null ? shardedRoot : directory;
+            if (!directory.equals(indexedDirectory) || (shardedRoot != null && !indexedDirectorySharded)) {
+                loadIndex(directory); // reload index of flat directory that is migrated to sharded layout meanwhile
+            }
+        }
+        updateIndex(file);
+    }
+
+    /**
+     * Enables partial eviction: files are truncated to prefix before they are deleted.
+     * Size of prefix is max of passed bytes and percents of file size, file is deleted at once if it isn't bigger than prefix.
+     *
+     * @param bytes    a size of retained prefix in bytes.
+     * @param percents a size of retained prefix in percents of file size, must be less than {@code 100}.
+     */
+    final void setRetainedPrefix(long bytes, int percents) {
+        if (bytes < 0 || percents < 0 || percents >= 100) {
+            throw new IllegalArgumentException("Wrong retained prefix: " + bytes + " bytes, " + percents + "%");
+        }
+        this.retainedPrefixBytes = bytes;
+        this.retainedPrefixPercents = percents;
+    }
+
+    /**
+     * Sets storage to move evicted completed files to.
+     *
+     * @param demotion a demotion of evicted files, {@code null} to delete them.
+     */
+    final void setDemotion(Demotion demotion) {
+        this.demotion = demotion;
+    }
+
+    /**
+     * Checks is cache too big, called after every pass of touches.
+     *
+     * @return {@code true} to start trimming.
+     */
+    abstract boolean isTrimmingNeeded();
+
+    /**
+     * Selects next file to be deleted while cache is trimmed.
+     *
+     * @return indexed file to be deleted or {@code null} to stop trimming.
+     */
+    abstract File selectVictim();
+
+    /**
+     * Called when index of cache directory is loaded, before any other hook.
+     */
+    void onIndexLoaded(File directory) {
+    }
+
+    /**
+     * Called when file is created or used.
+     */
+    void onFileTouched(File file, long size) {
+    }
+
+    /**
+     * Called when file is removed from index: deleted while trimming, deleted by someone else or replaced
+     * by completed file.
+     */
+    void onFileRemoved(File file) {
+    }
+
+    /**
+     * Called when file is truncated to retained prefix while cache is trimmed. Completed file is renamed to temp file,
+     * so {@code prefixFile} replaces {@code file} in index, temp file is truncated in place.
+     */
+    void onFileTruncated(File file, File prefixFile, long size) {
+    }
+
+    /**
+     * Called after pass of touches.
+     */
+    void onTouchesProcessed() {
+    }
+
+    /**
+     * Returns indexed files and their sizes, least recently used first. Map must not be modified.
+     */
+    final Map<File, Long> getIndexedFiles() {
+        return lruIndex;
+    }
+
+    /**
+     * Returns indexed file by its name.
+     */
+    final File getIndexedFile(String name) {
+        return indexedDirectorySharded ? ShardedLayout.getFile(indexedDirectory, name) : new File(indexedDirectory, name);
+    }
+
+    final File getLeastRecentlyUsedFile() {
+        return lruIndex.isEmpty() ? null : lruIndex.keySet().iterator().next();
+    }
+
+    final long getTotalSize() {
+        return totalSize;
+    }
+
+    final int getTotalCount() {
+        return lruIndex.size();
+    }
+
+    private void processPendingTouches() {
+        List<File> files;
+        synchronized (pendingTouches) {
+            files = new ArrayList<>(pendingTouches);
+            pendingTouches.clear();
+            touchesScheduled = false;
+        }
+        for (File file : files) {
+            touchInBackground(file);
+        }
+        onTouchesProcessed();
+        scheduleTrimmingIfNeeded();
+        journal.compactIfNeeded(lruIndex);
+    }
+
+    private void loadIndex(File directory) {
+        if (journal != null) {
+            journal.close();
+        }
+        lruIndex.clear();
+        totalSize = 0;
+        boolean sharded = ShardedLayout.isSharded(directory);
+        journal = new LruJournal(directory, sharded);
+        Map<File, Long> journaledFiles = journal.read();
+        if (journaledFiles != null) {
+            for (Map.Entry<File, Long> entry : journaledFiles.entrySet()) {
+                addToIndex(entry.getKey(), entry.getValue());
+            }
+        } else {
+            for (File file : Files.getLruListFiles(directory)) { // ordered by last modified date
+                addToIndex(file, file.length());
+            }
+            journal.rewrite(lruIndex);
+        }
+        indexedDirectory = directory;
+        indexedDirectorySharded = sharded;
+        LOG.debug("Index of cache directory {} is loaded: {} files, {} bytes", directory, lruIndex.size(), totalSize);
+        onIndexLoaded(directory);
+    }
+
+    private void updateIndex(File file) {
+        boolean removed = removeFromIndex(file);
+        File tempFile = FileCache.getTempFile(file);
+        boolean completed = removeFromIndex(tempFile); // completed file replaces its temp file
+        if (completed) {
+            onFileRemoved(tempFile);
+        }
+        if (file.exists()) {
+            long size = file.length();
+            addToIndex(file, size);
+            if (completed) {
+                journal.complete(file, size);
+            } else {
+                journal.touch(file, size);
+            }
+            onFileTouched(file, size);
+        } else if (removed) {
+            journal.remove(file);
+            onFileRemoved(file);
+        }
+    }
+
+    private void addToIndex(File file, long size) {
+        lruIndex.put(file, size);
+        totalSize += size;
+    }
+
+    private boolean removeFromIndex(File file) {
+        Long size = lruIndex.remove(file);
+        if (size != null) {
+            totalSize -= size;
+        }
+        return size != null;
+    }
+
+    private void scheduleTrimmingIfNeeded() {
+        if (!trimming && !lruIndex.isEmpty()) {
+            trimming = isTrimmingNeeded();
+        }
+        if (trimming && !trimmingScheduled) {
+            trimmingScheduled = true;
+            workerThread.submit(new TrimmingRunnable());
+        }
+    }
+
+    private void trimBatch() {
+        for (int i = 0; trimming && i < TRIMMING_BATCH_SIZE; i++) {
+            File victim = lruIndex.isEmpty() ? null : selectVictim();
+            if (victim == null || !lruIndex.containsKey(victim)) {
+                trimming = false;
+                break;
+            }
+            evict(victim, lruIndex.get(victim));
+        }
+        if (trimming) {
+            scheduleTrimmingIfNeeded(); // next batch after touches made meanwhile
+        } else {
+            journal.compactIfNeeded(lruIndex);
+        }
+    }
+
+    private void reclaimInBackground(File file, long bytes) {
+        touchInBackground(file); // load index, file that needs space becomes most recently used
+        long freed = 0;
+        File victim;
+        while (freed < bytes && (victim = getLeastRecentlyUsedFile()) != null && !victim.equals(file)) {
+            freed += lruIndex.get(victim);
+            delete(victim);
+        }
+        LOG.info("{} bytes are freed in {} to get {} bytes for {}", freed, indexedDirectory, bytes, file);
+        journal.compactIfNeeded(lruIndex);
+    }
+
+    private void evict(File file, long size) {
+        Demotion demotion = this.demotion;
+        if (demotion != null && !FileCache.isTempFile(file)) {
+            ItemCachesHolder.getInstance().removeFileCache(file);
+            removeFromIndex(file);
+            journal.remove(file);
+            onFileRemoved(file);
+            demotion.demote(file); // file is copied to lower tier and deleted by demotion
+            return;
+        }
+        long prefixSize = Math.max(retainedPrefixBytes, size * retainedPrefixPercents / 100);
+        File prefixFile = prefixSize > 0 && prefixSize < size ? truncate(file, prefixSize) : null;
+        if (prefixFile == null) {
+            delete(file);
+            return;
+        }
+        removeFromIndex(file);
+        if (!prefixFile.equals(file)) {
+            journal.remove(file);
+        }
+        addToIndex(prefixFile, prefixSize); // second chance
+        journal.touch(prefixFile, prefixSize);
+        onFileTruncated(file, prefixFile, prefixSize);
+    }
+
+    /**
+     * Truncates file to prefix. Completed file is renamed to temp file, so it is cached again when it is played.
+     * File used by open cache isn't truncated: cache would write or read beyond truncated end and memory mapped
+     * file would crash process, such file is deleted, it is safe for open files.
+     *
+     * @return truncated temp file or {@code null} if file can't be truncated.
+     */
+    private File truncate(File file, long size) {
+        ItemCachesHolder.getInstance().removeFileCache(file);
+        synchronized (FileCache.getOpenFilesLock()) { // no cache is opened for file while it is truncated
+            if (FileCache.isOpen(file)) {
+                LOG.debug("File {} is used by cache, it is deleted instead of truncating", file);
+                return null;
+            }
+            return truncateNotOpen(file, size);
+        }
+    }
+
+    private File truncateNotOpen(File file, long size) {
+        File prefixFile = FileCache.isTempFile(file) ? file : FileCache.getTempFile(file);
+        if (!prefixFile.equals(file) && (prefixFile.exists() || !file.renameTo(prefixFile))) {
+            LOG.error("Error renaming file " + file + " to " + prefixFile + " for truncating");
+            return null;
+        }
+        try {
+            RandomAccessFile dataFile = new RandomAccessFile(prefixFile, "rw");
+            try {
+                dataFile.setLength(size);
+            } finally {
+                dataFile.close();
+            }
+            LOG.info("Cache file {} is truncated to {} bytes because cache exceeds limit", prefixFile, size);
+            return prefixFile;
+        } catch (IOException e) {
+            LOG.error("Error truncating file " + prefixFile + " for trimming cache", e);
+            if (!prefixFile.equals(file) && !prefixFile.delete()) {
+                LOG.error("Error deleting file " + prefixFile + " that can't be truncated");
+            }
+            return null;
+        }
+    }
+
+    private void delete(File file) {
+        ItemCachesHolder.getInstance().removeFileCache(file);
+        boolean deleted = file.delete();
+        File rangesFile = FileCache.getRangesFile(file);
+        if (rangesFile.exists() && !rangesFile.delete()) {
+            LOG.error("Error deleting ranges file " + rangesFile + " for trimming cache");
+        }
+        if (deleted) {
+            LOG.info("Cache file " + file + " is deleted because it exceeds cache limit");
+        } else if (file.exists()) {
+            LOG.error("Error deleting file " + file + " for trimming cache, it is not tracked anymore");
+        }
+        removeFromIndex(file); // file is deleted or has been deleted by someone else before
+        journal.remove(file);
+        onFileRemoved(file);
+    }
+
+    /**
+     * Moves evicted files to other storage.
+     */
+    interface Demotion {
+
+        /**
+         * Moves completed file selected for eviction to other storage. Called by worker thread when file is already
+         * removed from index, so file must be copied and deleted in background without blocking worker.
+         * File is deleted even if it can't be copied.
+         *
+         * @param file a completed cache file.
+         */
+        void demote(File file);
+    }
+
+    private final class TouchesRunnable implements Runnable {
+
+        @Override
+        public void run() {
+            try {
+                processPendingTouches();
+            } catch (RuntimeException e) {
+                LOG.error("Error processing touches of cache files", e);
+            }
+        }
+    }
+
+    private final class ReclaimRunnable implements Runnable {
+
+        private final File file;
+        private final long bytes;
+
+        ReclaimRunnable(File file, long bytes) {
+            this.file = file;
+            this.bytes = bytes;
+        }
+
+        @Override
+        public void run() {
+            try {
+                reclaimInBackground(file, bytes);
+            } catch (RuntimeException e) {
+                LOG.error("Error freeing space for " + file, e);
+            }
+        }
+    }
+
+    private final class TrimmingRunnable implements Runnable {
+
+        @Override
+        public void run() {
+            trimmingScheduled = false;
+            try {
+                trimBatch();
+            } catch (RuntimeException e) {
+                LOG.error("Error trimming cache", e);
+            }
+        }
+    }
+}
@@ -1,80 +1,50 @@
 package com.danikula.videocache.file;
 
-import com.danikula.videocache.ItemCachesHolder;
-
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
 import java.io.File;
-import java.io.IOException;
-import java.util.List;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 /**
  * {@link DiskUsage} that uses LRU (Least Recently Used) strategy to trim cache.
+ * <p>
+ * Cache is trimmed only when least recently used file is not accepted by {@link #accept(File, long, int)}
+ * (high watermark). Then least recently used files are deleted until least recently used file is kept
+ * by {@link #keepWhileTrimming(File, long, int)} (low watermark).
  *
  * @author Alexey Danilov (danikula@gmail.com).
  */
-public abstract class LruDiskUsage implements DiskUsage {
-
-    private static final Logger LOG = LoggerFactory.getLogger("LruDiskUsage");
-    private final ExecutorService workerThread = Executors.newSingleThreadExecutor();
-
-    @Override
-    public void touch(File file) throws IOException {
-        workerThread.submit(new TouchCallable(file));
-    }
-
-    private void touchInBackground(File file) throws IOException {
-        Files.setLastModifiedNow(file);
-        List<File> files = Files.getLruListFiles(file.getParentFile());
-        trim(files);
-    }
-
+public abstract class LruDiskUsage extends IndexedDiskUsage {
+
+    /**
+     * Checks can file stay in cache. Cache trimming is started if least recently used file is not accepted.
+     *
+     * @param file       a least recently used cache file.
+     * @param totalSize  a total size of all cache files.
+     * @param totalCount a total count of cache files.
+     * @return {@code false} if cache should be trimmed.
+     */
     protected abstract boolean accept(File file, long totalSize, int totalCount);
 
-    private void trim(List<File> files) {
-        long totalSize = countTotalSize(files);
-        int totalCount = files.size();
-        for (File file : files) {
-            boolean accepted = accept(file, totalSize, totalCount);
-            if (!accepted) {
-                long fileSize = file.length();
-                ItemCachesHolder.getInstance().removeFileCache(file);
-                boolean deleted = file.delete();
-                if (deleted) {
-                    totalCount--;
-                    totalSize -= fileSize;
-                    LOG.info("Cache file " + file + " is deleted because it exceeds cache limit");
-                } else {
-                    LOG.error("Error deleting file " + file + " for trimming cache");
-                }
-            }
-        }
+    /**
+     * Checks can file stay in cache while cache is trimmed. Files are deleted in LRU order until this method
+     * returns {@code true}. It is the same as {@link #accept(File, long, int)} by default, override it to trim
+     * cache below its limit and not to start trimming again right after next touch.
+     *
+     * @param file       a least recently used cache file.
+     * @param totalSize  a total size of all cache files.
+     * @param totalCount a total count of cache files.
+     * @return {@code true} if trimming should be stopped.
+     */
+    protected boolean keepWhileTrimming(File file, long totalSize, int totalCount) {
+        return accept(file, totalSize, totalCount);
     }
 
-    private long countTotalSize(List<File> files) {
-        long totalSize = 0;
-        for (File file : files) {
-            totalSize += file.length();
-        }
-        return totalSize;
+    @Override
+    final boolean isTrimmingNeeded() {
+        return !accept(getLeastRecentlyUsedFile(), getTotalSize(), getTotalCount());
     }
 
-    private class TouchCallable implements Callable<Void> {
-
-        private final File file;
-
-        public TouchCallable(File file) {
-            this.file = file;
-        }
-
-        @Override
-        public Void call() throws Exception {
-            touchInBackground(file);
-            return null;
-        }
+    @Override
+    final File selectVictim() {
+        File file = getLeastRecentlyUsedFile();
+        return keepWhileTrimming(file, getTotalSize(), getTotalCount()) ? null : file;
     }
 }
@@ -0,0 +1,241 @@
+package com.danikula.videocache.file;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Append-only journal of cache files usage stored in cache directory.
+ * <p>
+ * Journal allows to restore LRU order, sizes and completion state of cache files on next launch without listing
+ * cache directory and reading attributes of every file. Every line after header is a record:
+ * <ul>
+ * <li>{@code TOUCH <size> <name>} – file is created or used;</li>
+ * <li>{@code COMPLETE <size> <name>} – file is completed and replaces its temp file;</li>
+ * <li>{@code REMOVE <name>} – file is deleted.</li>
+ * </ul>
+ * Records are appended without syncing to disk, losing last records on crash only makes order a bit less precise.
+ * When journal contains too many redundant records it is compacted: rewritten with single record per file.
+ * Records contain only names of files, for {@link ShardedLayout} subdirectory of file is calculated by name.
+ * Name is last field of record, so it may contain spaces. Files with line breaks in names are not journaled.
+ * <p>
+ * Class is not thread safe, owner is responsible for synchronization.
+ */
+final class LruJournal {
+
+    private static final Logger LOG = LoggerFactory.getLogger("LruJournal");
+    private static final String JOURNAL_FILE_NAME = ".journal";
+    private static final String JOURNAL_TEMP_FILE_NAME = ".journal.tmp";
+    private static final String MAGIC = "videocache.lru.journal";
+    private static final String VERSION = "1";
+    private static final String TOUCH = "TOUCH";
+    private static final String COMPLETE = "COMPLETE";
+    private static final String REMOVE = "REMOVE";
+    private static final int REDUNDANT_RECORDS_THRESHOLD = 2000;
+
+    private final File directory;
+    private final boolean sharded;
+    private final File journalFile;
+    private Writer writer;
+    private int recordsCount;
+
+    LruJournal(File directory, boolean sharded) {
+        this.directory = directory;
+        this.sharded = sharded;
+        this.journalFile = new File(directory, JOURNAL_FILE_NAME);
+    }
+
+    /**
+     * Reads cache files from journal.
+     *
+     * @return cache files and their sizes, least recently used first, or {@code null} if there is no valid journal.
+     */
+    LinkedHashMap<File, Long> read() {
+        if (!journalFile.exists()) {
+            return null;
+        }
+        LinkedHashMap<File, Long> files = new LinkedHashMap<>();
+        boolean corrupted = false;
+        recordsCount = 0;
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(journalFile), "UTF-8"));
+            try {
+                if (!MAGIC.equals(reader.readLine()) || !VERSION.equals(reader.readLine())) {
+                    LOG.warn("Journal " + journalFile + " has unknown format");
+                    return null;
+                }
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (!readRecord(line, files)) {
+                        corrupted = true; // e.g. last record is partially written before crash
+                        break;
+                    }
+                    recordsCount++;
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
+            LOG.warn("Error reading journal " + journalFile, e);
+            return null;
+        }
+        if (corrupted) {
+            rewrite(files); // not to append records to broken line
+        }
+        return files;
+    }
+
+    private boolean readRecord(String line, Map<File, Long> files) {
+        String[] parts = line.split(" ", 2);
+        if (parts.length != 2) {
+            return false;
+        }
+        try {
+            if (REMOVE.equals(parts[0])) {
+                files.remove(resolve(parts[1]));
+                return true;
+            }
+            String[] sizeAndName = parts[1].split(" ", 2);
+            if ((TOUCH.equals(parts[0]) || COMPLETE.equals(parts[0])) && sizeAndName.length == 2) {
+                File file = resolve(sizeAndName[1]);
+                if (COMPLETE.equals(parts[0])) {
+                    files.remove(FileCache.getTempFile(file));
+                }
+                files.remove(file);
+                files.put(file, Long.parseLong(sizeAndName[0]));
+                return true;
+            }
+        } catch (NumberFormatException e) {
+            // fall through
+        }
+        return false;
+    }
+
+    private File resolve(String name) {
+        return sharded ? ShardedLayout.getFile(directory, name) : new File(directory, name);
+    }
+
+    void touch(File file, long size) {
+        if (isJournaled(file)) {
+            append(TOUCH + ' ' + size + ' ' + file.getName());
+        }
+    }
+
+    void complete(File file, long size) {
+        if (isJournaled(file)) {
+            append(COMPLETE + ' ' + size + ' ' + file.getName());
+        }
+    }
+
+    void remove(File file) {
+        if (isJournaled(file)) {
+            append(REMOVE + ' ' + file.getName());
+        }
+    }
+
+    private boolean isJournaled(File file) {
+        String name = file.getName();
+        if (name.indexOf('\n') >= 0 || name.indexOf('\r') >= 0) {
+            LOG.warn("File {} has line break in name, it isn't kept in journal", file);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Rewrites journal if it contains too many redundant records.
+     *
+     * @param files actual cache files and their sizes, least recently used first.
+     */
+    void compactIfNeeded(Map<File, Long> files) {
+        int redundantRecords = recordsCount - files.size();
+        if (redundantRecords >= REDUNDANT_RECORDS_THRESHOLD && redundantRecords >= files.size()) {
+            rewrite(files);
+        }
+    }
+
+    /**
+     * Rewrites journal with single record per file.
+     *
+     * @param files actual cache files and their sizes, least recently used first.
+     */
+    void rewrite(Map<File, Long> files) {
+        close();
+        File tempFile = new File(directory, JOURNAL_TEMP_FILE_NAME);
+        try {
+            Writer tempWriter = newWriter(tempFile, false);
+            try {
+                tempWriter.write(MAGIC + '\n' + VERSION + '\n');
+                for (Map.Entry<File, Long> entry : files.entrySet()) {
+                    if (isJournaled(entry.getKey())) {
+                        tempWriter.write(TOUCH + ' ' + entry.getValue() + ' ' + entry.getKey().getName() + '\n');
+                    }
+                }
+            } finally {
+                tempWriter.close();
+            }
+            if (!tempFile.renameTo(journalFile)) {
+                throw new IOException("Error renaming " + tempFile + " to " + journalFile);
+            }
+            recordsCount = files.size();
+            LOG.debug("Journal {} is compacted: {} files", journalFile, files.size());
+        } catch (IOException e) {
+            LOG.error("Error rewriting journal " + journalFile, e);
+            delete();
+        }
+    }
+
+    void close() {
+        if (writer != null) {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                LOG.warn("Error closing journal " + journalFile, e);
+            }
+            writer = null;
+        }
+    }
+
+    private void append(String record) {
+        try {
+            if (writer == null) {
+                if (!journalFile.exists()) {
+                    return; // journal is broken and will be rebuilt on next launch
+                }
+                writer = newWriter(journalFile, true);
+            }
+            writer.write(record + '\n');
+            writer.flush();
+            recordsCount++;
+        } catch (IOException e) {
+            LOG.error("Error writing journal " + journalFile + ", it is deleted to be rebuilt on next launch", e);
+            delete();
+        }
+    }
+
+    private void delete() {
+        close();
+        if (journalFile.exists() && !journalFile.delete()) {
+            LOG.error("Error deleting journal " + journalFile);
+        }
+    }
+
+    private Writer newWriter(File file, boolean append) throws IOException {
+        return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, append), "UTF-8"));
+    }
+
+    static boolean isJournalFile(File file) {
+        return file.getName().startsWith(JOURNAL_FILE_NAME);
+    }
+}
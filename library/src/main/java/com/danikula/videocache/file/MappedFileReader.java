@@ -0,0 +1,69 @@
+package com.danikula.videocache.file;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Reads immutable file with help of {@link MappedByteBuffer}s.
+ * <p>
+ * File is mapped lazily by windows of limited size to keep address space usage predictable for large files.
+ * Reading doesn't require any locks or syscalls, so many readers of same file don't block each other.
+ * Reader is bound to channel it is created with, so new reader is created if file is reopened.
+ */
+final class MappedFileReader {
+
+    private static final int WINDOW_SIZE = 32 * 1024 * 1024;
+
+    private final FileChannel channel;
+    private final long length;
+    private final AtomicReferenceArray<MappedByteBuffer> windows;
+
+    MappedFileReader(RandomAccessFile file) throws IOException {
+        this.channel = file.getChannel();
+        this.length = file.length(); // unlike size() of channel, it doesn't close file if thread is interrupted
+        this.windows = new AtomicReferenceArray<>((int) ((length + WINDOW_SIZE - 1) / WINDOW_SIZE));
+    }
+
+    FileChannel channel() {
+        return channel;
+    }
+
+    long length() {
+        return length;
+    }
+
+    /**
+     * Reads data from file. Data is read only from single window, so count of read bytes may be less than requested.
+     *
+     * @return a count of read bytes or {@code -1} if offset is beyond file end.
+     */
+    int read(byte[] buffer, long offset, int length) throws IOException {
+        if (offset >= this.length) {
+            return -1;
+        }
+        int windowIndex = (int) (offset / WINDOW_SIZE);
+        int windowOffset = (int) (offset % WINDOW_SIZE);
+        ByteBuffer window = getWindow(windowIndex).duplicate();
+        int read = Math.min(length, window.limit() - windowOffset);
+        window.position(windowOffset);
+        window.get(buffer, 0, read);
+        return read;
+    }
+
+    private MappedByteBuffer getWindow(int index) throws IOException {
+        MappedByteBuffer window = windows.get(index);
+        if (window == null) {
+            long position = (long) index * WINDOW_SIZE;
+            long size = Math.min(WINDOW_SIZE, length - position);
+            window = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+            if (!windows.compareAndSet(index, null, window)) {
+                window = windows.get(index); // mapped concurrently by another reader
+            }
+        }
+        return window;
+    }
+}
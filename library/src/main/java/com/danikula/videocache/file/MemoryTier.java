@@ -0,0 +1,70 @@
+package com.danikula.videocache.file;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Memory tier of cache: keeps beginnings (heads) of recently played completed cache files, so repeated playback
+ * starts without reading storage.
+ * <p>
+ * Head is loaded to memory when completed file is read from its beginning (see {@link FileCache}), heads of least
+ * recently used files are dropped when total size of heads exceeds limit. Dropped head is still available in file.
+ */
+public final class MemoryTier {
+
+    private final LinkedHashMap<String, byte[]> heads = new LinkedHashMap<>(16, 0.75f, true); // least recently used first
+    private final long maxSize;
+    private final int headSize;
+    private long size;
+
+    /**
+     * Creates memory tier.
+     *
+     * @param maxSize  max total size of heads kept in memory, in bytes.
+     * @param headSize max size of single head, in bytes.
+     */
+    public MemoryTier(long maxSize, int headSize) {
+        if (maxSize <= 0 || headSize <= 0 || headSize > maxSize) {
+            throw new IllegalArgumentException("Wrong memory tier sizes: max size " + maxSize + ", head size " + headSize);
+        }
+        this.maxSize = maxSize;
+        this.headSize = headSize;
+    }
+
+    int getHeadSize() {
+        return headSize;
+    }
+
+    synchronized byte[] get(String name) {
+        return heads.get(name);
+    }
+
+    /**
+     * Reads head of completed file and keeps it in memory.
+     *
+     * @param dataFile opened completed file.
+     * @param name     a name of completed file.
+     * @return loaded head.
+     * @throws IOException if file can't be read.
+     */
+    byte[] load(RandomAccessFile dataFile, String name) throws IOException {
+        byte[] head = new byte[(int) Math.min(headSize, dataFile.length())];
+        dataFile.seek(0);
+        dataFile.readFully(head);
+        put(name, head);
+        return head;
+    }
+
+    private synchronized void put(String name, byte[] head) {
+        byte[] oldHead = heads.put(name, head);
+        size += head.length - (oldHead == null ? 0 : oldHead.length);
+        Iterator<Map.Entry<String, byte[]>> iterator = heads.entrySet().iterator();
+        while (size > maxSize && iterator.hasNext()) {
+            size -= iterator.next().getValue().length;
+            iterator.remove();
+        }
+    }
+}
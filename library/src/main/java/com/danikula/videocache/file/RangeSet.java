@@ -0,0 +1,130 @@
+package com.danikula.videocache.file;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Set of not intersecting byte ranges stored in sparse cache file.
+ * <p>
+ * Adjacent and overlapping ranges are merged, so set contains minimal count of ranges.
+ * Class is not thread safe, owner is responsible for synchronization.
+ */
+final class RangeSet {
+
+    private static final int FORMAT_VERSION = 1;
+
+    private final TreeMap<Long, Long> ranges = new TreeMap<>(); // start -> end (exclusive)
+
+    /**
+     * Adds range to set.
+     *
+     * @param start a first byte of range.
+     * @param end   a byte after last byte of range.
+     */
+    void add(long start, long end) {
+        if (start < 0 || end < start) {
+            throw new IllegalArgumentException("Wrong range [" + start + ", " + end + ")");
+        }
+        if (start == end) {
+            return;
+        }
+        Map.Entry<Long, Long> floor = ranges.floorEntry(start);
+        if (floor != null && floor.getValue() >= start) {
+            start = floor.getKey();
+            end = Math.max(end, floor.getValue());
+        }
+        Map.Entry<Long, Long> next = ranges.ceilingEntry(start);
+        while (next != null && next.getKey() <= end) {
+            end = Math.max(end, next.getValue());
+            ranges.remove(next.getKey());
+            next = ranges.ceilingEntry(start);
+        }
+        ranges.put(start, end);
+    }
+
+    /**
+     * Returns count of bytes contained in set continuously starting from passed offset.
+     *
+     * @param offset an offset to check.
+     * @return count of bytes available from offset or {@code 0} if offset doesn't belong to any range.
+     */
+    long available(long offset) {
+        Map.Entry<Long, Long> floor = ranges.floorEntry(offset);
+        return floor != null && floor.getValue() > offset ? floor.getValue() - offset : 0;
+    }
+
+    /**
+     * Checks is set contains all bytes from {@code 0} to {@code length}.
+     */
+    boolean covers(long length) {
+        return length <= 0 || available(0) >= length;
+    }
+
+    /**
+     * Removes all bytes after passed length, e.g. if file is shorter than set states.
+     */
+    void truncate(long length) {
+        while (!ranges.isEmpty() && ranges.lastEntry().getValue() > length) {
+            Map.Entry<Long, Long> last = ranges.pollLastEntry();
+            if (last.getKey() < length) {
+                ranges.put(last.getKey(), length);
+            }
+        }
+    }
+
+    int size() {
+        return ranges.size();
+    }
+
+    void save(File file) throws IOException {
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+        try {
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(ranges.size());
+            for (Map.Entry<Long, Long> range : ranges.entrySet()) {
+                out.writeLong(range.getKey());
+                out.writeLong(range.getValue());
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    static RangeSet load(File file) throws IOException {
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+            int version = in.readInt();
+            if (version != FORMAT_VERSION) {
+                throw new IOException("Unsupported version " + version + " of ranges file " + file);
+            }
+            RangeSet rangeSet = new RangeSet();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                long start = in.readLong();
+                long end = in.readLong();
+                if (start < 0 || end < start) {
+                    throw new IOException("Ranges file " + file + " is corrupted");
+                }
+                rangeSet.add(start, end);
+            }
+            return rangeSet;
+        } finally {
+            in.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder();
+        for (Map.Entry<Long, Long> range : ranges.entrySet()) {
+            result.append(result.length() == 0 ? "" : ", ").append('[').append(range.getKey()).append(", ").append(range.getValue()).append(')');
+        }
+        return "RangeSet{" + result + '}';
+    }
+}
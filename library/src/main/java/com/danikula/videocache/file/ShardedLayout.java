@@ -0,0 +1,163 @@
+package com.danikula.videocache.file;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Layout of cache directory that spreads cache files over two levels of subdirectories: {@code <root>/3/a/<name>}.
+ * <p>
+ * Subdirectories are named by hex digits of file name's hash, so directory of file is known without any lookups and
+ * every directory contains only small part of files even if there are tens of thousands of them. Temp and ranges files
+ * are stored next to their cache file. Service files (journal, usage frequencies) stay in root directory.
+ * <p>
+ * Root is marked with {@code .sharded} file before first file is placed to subdirectory, so {@link DiskUsage}
+ * strategies recognize cache files in subdirectories. Files cached with flat layout before are moved to subdirectories by {@link #migrate()},
+ * until migration is finished every file is moved on demand by {@link #getFile(String)}.
+ */
+public final class ShardedLayout {
+
+    private static final Logger LOG = LoggerFactory.getLogger("ShardedLayout");
+    private static final String MARKER_FILE_NAME = ".sharded";
+    private static final String HEX_DIGITS = "0123456789abcdef";
+
+    private final File root;
+    private boolean marked;
+    private volatile boolean migrated;
+
+    public ShardedLayout(File root) {
+        if (root == null) {
+            throw new NullPointerException("Cache root can't be null!");
+        }
+        this.root = root;
+    }
+
+    /**
+     * Returns cache file for name. If flat cache is not migrated yet, file (with its temp and ranges files)
+     * is moved to subdirectory if it is needed.
+     *
+     * @param name a name of cache file.
+     * @return file in subdirectory of root.
+     */
+    public File getFile(String name) {
+        File file = getFile(root, name);
+        if (!migrated) {
+            moveToShard(name);
+        }
+        return file;
+    }
+
+    /**
+     * Marks root as sharded and moves all cache files of flat layout to subdirectories.
+     * It is long operation for big cache, so it should be called on worker thread.
+     *
+     * @throws IOException if root can't be marked as sharded.
+     */
+    public void migrate() throws IOException {
+        markRoot();
+        int moved = 0;
+        File[] files = root.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isFile() && !Files.isServiceFile(file)) {
+                    moved += moveToShard(FileCache.getCompletedName(file.getName())) ? 1 : 0; // with companion files
+                }
+            }
+        }
+        migrated = true;
+        if (moved > 0) {
+            LOG.info("{} cache files are moved from {} to subdirectories", moved, root);
+        }
+    }
+
+    private synchronized void markRoot() throws IOException {
+        if (marked) {
+            return;
+        }
+        Files.makeDir(root);
+        File marker = new File(root, MARKER_FILE_NAME);
+        if (!marker.exists() && !marker.createNewFile()) {
+            throw new IOException("Error creating layout marker " + marker);
+        }
+        marked = true;
+    }
+
+    private synchronized boolean moveToShard(String name) {
+        try {
+            markRoot(); // before any file is created in subdirectory
+        } catch (IOException e) {
+            LOG.error("Error marking " + root + " as sharded", e);
+        }
+        File file = new File(root, name);
+        File tempFile = FileCache.getTempFile(file);
+        File rangesFile = FileCache.getRangesFile(tempFile);
+        return move(file) | move(tempFile) | move(rangesFile);
+    }
+
+    private boolean move(File file) {
+        if (!file.exists()) {
+            return false;
+        }
+        File target = getFile(root, file.getName());
+        try {
+            Files.makeDir(target.getParentFile());
+            if (target.exists()) {
+                LOG.warn("File {} is already moved to {}, stale copy is deleted", file, target);
+                return file.delete();
+            }
+            if (!file.renameTo(target)) {
+                throw new IOException("Error renaming " + file + " to " + target);
+            }
+            return true;
+        } catch (IOException e) {
+            LOG.error("Error moving cache file " + file + " to subdirectory", e);
+            return false;
+        }
+    }
+
+    /**
+     * Returns cache file for name in sharded root.
+     *
+     * @param root a root of cache directory.
+     * @param name a name of cache file, temp file or ranges file.
+     * @return file in subdirectory of root.
+     */
+    static File getFile(File root, String name) {
+        int hash = FileCache.getCompletedName(name).hashCode() * 0x9e3779b9;
+        hash ^= hash >>> 16;
+        File shard = new File(new File(root, hexDigit(hash >>> 4)), hexDigit(hash));
+        return new File(shard, name);
+    }
+
+    /**
+     * Returns root of sharded cache directory that contains passed file.
+     *
+     * @param file a file to check.
+     * @return root directory or {@code null} if file is not in subdirectory of sharded root.
+     */
+    static File getShardedRoot(File file) {
+        File shard = file.getParentFile();
+        File parentShard = shard == null ? null : shard.getParentFile();
+        File root = parentShard == null ? null : parentShard.getParentFile();
+        boolean inShard = root != null && isShardName(shard.getName()) && isShardName(parentShard.getName());
+        return inShard && isSharded(root) ? root : null;
+    }
+
+    static boolean isSharded(File root) {
+        return new File(root, MARKER_FILE_NAME).exists();
+    }
+
+    static boolean isShardName(String name) {
+        return name.length() == 1 && HEX_DIGITS.indexOf(name.charAt(0)) >= 0;
+    }
+
+    static boolean isMarkerFile(File file) {
+        return MARKER_FILE_NAME.equals(file.getName());
+    }
+
+    private static String hexDigit(int value) {
+        return String.valueOf(HEX_DIGITS.charAt(value & 0xf));
+    }
+}
@@ -0,0 +1,17 @@
+package com.danikula.videocache.file;
+
+import java.io.File;
+
+/**
+ * {@link DiskUsage} that is able to free disk space on demand, e.g. when {@link FileCache} can't be preallocated.
+ */
+interface SpaceReclaimer {
+
+    /**
+     * Deletes least recently used cache files asynchronously.
+     *
+     * @param file  a file that needs space, it is never deleted.
+     * @param bytes count of bytes to be freed.
+     */
+    void reclaim(File file, long bytes);
+}
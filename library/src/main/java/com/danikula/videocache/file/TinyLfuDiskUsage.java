@@ -0,0 +1,117 @@
+package com.danikula.videocache.file;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * {@link DiskUsage} that uses W-TinyLFU strategy and trims cache size to max size if needed.
+ * <p>
+ * Unlike {@link TotalSizeLruDiskUsage} it takes into account not only recency but also frequency of files usage:
+ * files used only once (e.g. preloaded but not watched videos) are deleted before popular files, even if they are
+ * used later than popular ones. See {@link WTinyLfuPolicy} for details.
+ * Usage frequencies are saved in cache directory and are restored on next launch.
+ * <p>
+ * Once max size is exceeded, cache is trimmed to 90% of max size, so it is not trimmed again on every touch.
+ * Evicted files may be truncated instead of deleting, see {@link #retainPrefix(long, int)}.
+ */
+public class TinyLfuDiskUsage extends IndexedDiskUsage {
+
+    private static final Logger LOG = LoggerFactory.getLogger("TinyLfuDiskUsage");
+    static final int SKETCH_WIDTH = 4096;
+    private static final long SKETCH_SAVING_INTERVAL_MS = 30 * 1000;
+
+    private final long maxSize;
+    private final long lowWatermarkSize;
+    private File directory;
+    private FrequencySketch sketch;
+    private WTinyLfuPolicy policy;
+    private boolean sketchChanged;
+    private long sketchSavingTime;
+
+    public TinyLfuDiskUsage(long maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("Max size must be positive number!");
+        }
+        this.maxSize = maxSize;
+        this.lowWatermarkSize = maxSize - maxSize / 10;
+    }
+
+    /**
+     * Enables partial eviction: evicted file is truncated to prefix first and deleted only if it is evicted again.
+     * Partial eviction is disabled by default.
+     *
+     * @param bytes    a size of retained prefix in bytes.
+     * @param percents a size of retained prefix in percents of file size, prefix is max of both sizes.
+     * @return this disk usage.
+     */
+    public TinyLfuDiskUsage retainPrefix(long bytes, int percents) {
+        setRetainedPrefix(bytes, percents);
+        return this;
+    }
+
+    @Override
+    void onIndexLoaded(File directory) {
+        saveSketchIfNeeded(true);
+        this.directory = directory;
+        this.sketch = FrequencySketch.load(FrequencySketch.getSketchFile(directory), SKETCH_WIDTH);
+        this.policy = new WTinyLfuPolicy(maxSize, sketch);
+        for (Map.Entry<File, Long> file : getIndexedFiles().entrySet()) {
+            policy.restore(file.getKey().getName(), file.getValue());
+        }
+    }
+
+    @Override
+    void onFileTouched(File file, long size) {
+        policy.onAccess(file.getName(), size);
+        sketchChanged = true;
+    }
+
+    @Override
+    void onFileRemoved(File file) {
+        policy.onRemove(file.getName());
+    }
+
+    @Override
+    void onFileTruncated(File file, File prefixFile, long size) {
+        policy.onRemove(file.getName());
+        policy.restore(prefixFile.getName(), size); // truncating is not a usage
+    }
+
+    @Override
+    void onTouchesProcessed() {
+        saveSketchIfNeeded(false);
+    }
+
+    @Override
+    boolean isTrimmingNeeded() {
+        return getTotalSize() > maxSize;
+    }
+
+    @Override
+    File selectVictim() {
+        if (getTotalSize() <= lowWatermarkSize) {
+            return null;
+        }
+        String victim = policy.selectVictim();
+        return victim == null ? null : getIndexedFile(victim);
+    }
+
+    private void saveSketchIfNeeded(boolean force) {
+        long now = System.currentTimeMillis();
+        if (sketch == null || !sketchChanged || (!force && now - sketchSavingTime < SKETCH_SAVING_INTERVAL_MS)) {
+            return;
+        }
+        File sketchFile = FrequencySketch.getSketchFile(directory);
+        try {
+            sketch.save(sketchFile);
+            sketchChanged = false;
+            sketchSavingTime = now;
+        } catch (IOException e) {
+            LOG.error("Error saving usage frequencies to " + sketchFile, e);
+        }
+    }
+}
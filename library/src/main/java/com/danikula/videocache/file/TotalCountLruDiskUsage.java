@@ -4,22 +4,30 @@ import java.io.File;
 
 /**
  * {@link DiskUsage} that uses LRU (Least Recently Used) strategy and trims cache size to max files count if needed.
+ * Once max count is exceeded, cache is trimmed to 90% of max count, so it is not trimmed again on every touch.
  *
  * @author Alexey Danilov (danikula@gmail.com).
  */
 public class TotalCountLruDiskUsage extends LruDiskUsage {
 
     private final int maxCount;
+    private final int lowWatermarkCount;
 
     public TotalCountLruDiskUsage(int maxCount) {
         if (maxCount <= 0) {
             throw new IllegalArgumentException("Max count must be positive number!");
         }
         this.maxCount = maxCount;
+        this.lowWatermarkCount = maxCount - maxCount / 10;
     }
 
     @Override
     protected boolean accept(File file, long totalSize, int totalCount) {
         return totalCount <= maxCount;
     }
+
+    @Override
+    protected boolean keepWhileTrimming(File file, long totalSize, int totalCount) {
+        return totalCount <= lowWatermarkCount;
+    }
 }
@@ -4,22 +4,45 @@ import java.io.File;
 
 /**
  * {@link DiskUsage} that uses LRU (Least Recently Used) strategy and trims cache size to max size if needed.
+ * Once max size is exceeded, cache is trimmed to 90% of max size, so it is not trimmed again on every touch.
+ * Least recently used files may be truncated instead of deleting, see {@link #retainPrefix(long, int)}.
  *
  * @author Alexey Danilov (danikula@gmail.com).
  */
 public class TotalSizeLruDiskUsage extends LruDiskUsage {
 
     private final long maxSize;
+    private final long lowWatermarkSize;
 
     public TotalSizeLruDiskUsage(long maxSize) {
         if (maxSize <= 0) {
             throw new IllegalArgumentException("Max size must be positive number!");
         }
         this.maxSize = maxSize;
+        this.lowWatermarkSize = maxSize - maxSize / 10;
+    }
+
+    /**
+     * Enables partial eviction: least recently used file is truncated to prefix first and deleted only
+     * if it becomes least recently used again. Beginnings of many videos give faster start of playback
+     * per byte of storage than few whole videos. Partial eviction is disabled by default.
+     *
+     * @param bytes    a size of retained prefix in bytes.
+     * @param percents a size of retained prefix in percents of file size, prefix is max of both sizes.
+     * @return this disk usage.
+     */
+    public TotalSizeLruDiskUsage retainPrefix(long bytes, int percents) {
+        setRetainedPrefix(bytes, percents);
+        return this;
     }
 
     @Override
     protected boolean accept(File file, long totalSize, int totalCount) {
         return totalSize <= maxSize;
     }
+
+    @Override
+    protected boolean keepWhileTrimming(File file, long totalSize, int totalCount) {
+        return totalSize <= lowWatermarkSize;
+    }
 }
@@ -0,0 +1,139 @@
+package com.danikula.videocache.file;
+
+import java.util.AbstractMap;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * W-TinyLFU eviction policy for cache entries of different sizes.
+ * <p>
+ * New entries get to small LRU window (1% of cache size). Entries pushed out of window go to probation segment
+ * of main LRU cache, entries used again while in probation go to protected segment (80% of main cache).
+ * When something should be evicted, the newest entry admitted to probation (candidate) competes with least recently
+ * used probation entry (victim): the one with lower usage frequency estimated by {@link FrequencySketch} is evicted.
+ * So burst of entries used only once (e.g. preloads) doesn't push popular entries out of cache.
+ * <p>
+ * Policy only tracks entries, it is not thread safe and doesn't delete anything by itself.
+ */
+final class WTinyLfuPolicy {
+
+    private static final int WINDOW_PERCENT = 1;
+    private static final int PROTECTED_PERCENT = 80;
+
+    private final FrequencySketch sketch;
+    private final long windowMaxSize;
+    private final long protectedMaxSize;
+    private final LinkedHashMap<String, Long> window = new LinkedHashMap<>(); // least recently used first
+    private final LinkedHashMap<String, Long> probation = new LinkedHashMap<>();
+    private final LinkedHashMap<String, Long> protectedEntries = new LinkedHashMap<>();
+    private final Deque<String> candidates = new ArrayDeque<>(); // entries admitted to probation, newest last
+    private long windowSize;
+    private long protectedSize;
+
+    WTinyLfuPolicy(long maxSize, FrequencySketch sketch) {
+        this.sketch = sketch;
+        this.windowMaxSize = maxSize * WINDOW_PERCENT / 100;
+        this.protectedMaxSize = (maxSize - windowMaxSize) * PROTECTED_PERCENT / 100;
+    }
+
+    /**
+     * Adds entry known before (e.g. restored after restart) to main cache without counting usage.
+     */
+    void restore(String key, long size) {
+        probation.put(key, size);
+    }
+
+    void onAccess(String key, long size) {
+        sketch.increment(key);
+        Long oldSize;
+        if ((oldSize = window.remove(key)) != null) {
+            window.put(key, size);
+            windowSize += size - oldSize;
+        } else if ((oldSize = protectedEntries.remove(key)) != null) {
+            protectedEntries.put(key, size);
+            protectedSize += size - oldSize;
+        } else if (probation.remove(key) != null) {
+            protectedEntries.put(key, size);
+            protectedSize += size;
+            demoteProtected();
+        } else {
+            window.put(key, size);
+            windowSize += size;
+        }
+        while (windowSize > windowMaxSize && !window.isEmpty()) {
+            Map.Entry<String, Long> eldest = removeEldest(window);
+            windowSize -= eldest.getValue();
+            probation.put(eldest.getKey(), eldest.getValue());
+            candidates.addLast(eldest.getKey());
+        }
+        if (candidates.size() > 2 * probation.size() + 64) {
+            removeStaleCandidates();
+        }
+    }
+
+    void onRemove(String key) {
+        Long size;
+        if ((size = window.remove(key)) != null) {
+            windowSize -= size;
+        } else if ((size = protectedEntries.remove(key)) != null) {
+            protectedSize -= size;
+        } else {
+            probation.remove(key);
+        }
+    }
+
+    /**
+     * Selects entry to be evicted.
+     *
+     * @return key of entry to be evicted or {@code null} if there are no entries.
+     */
+    String selectVictim() {
+        if (probation.isEmpty()) {
+            return !protectedEntries.isEmpty() ? eldestKey(protectedEntries) : !window.isEmpty() ? eldestKey(window) : null;
+        }
+        String victim = eldestKey(probation);
+        String candidate = newestCandidate();
+        if (candidate == null || candidate.equals(victim)) {
+            return victim;
+        }
+        return sketch.frequency(candidate) > sketch.frequency(victim) ? victim : candidate;
+    }
+
+    private void demoteProtected() {
+        while (protectedSize > protectedMaxSize && protectedEntries.size() > 1) {
+            Map.Entry<String, Long> eldest = removeEldest(protectedEntries);
+            protectedSize -= eldest.getValue();
+            probation.put(eldest.getKey(), eldest.getValue());
+        }
+    }
+
+    private String newestCandidate() {
+        while (!candidates.isEmpty() && !probation.containsKey(candidates.peekLast())) {
+            candidates.removeLast(); // evicted or promoted
+        }
+        return candidates.peekLast();
+    }
+
+    private void removeStaleCandidates() {
+        Iterator<String> iterator = candidates.iterator();
+        while (iterator.hasNext()) {
+            if (!probation.containsKey(iterator.next())) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private String eldestKey(LinkedHashMap<String, Long> segment) {
+        return segment.keySet().iterator().next();
+    }
+
+    private Map.Entry<String, Long> removeEldest(LinkedHashMap<String, Long> segment) {
+        Iterator<Map.Entry<String, Long>> iterator = segment.entrySet().iterator();
+        Map.Entry<String, Long> eldest = new AbstractMap.SimpleImmutableEntry<>(iterator.next());
+        iterator.remove();
+        return eldest;
+    }
+}
@@ -0,0 +1,208 @@
+package com.danikula.videocache.file;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Blocks of data appended to {@link FileCache} that are not written to file yet, see {@link WriteBehindPolicy}.
+ * <p>
+ * Block is filled while it is pending, then it is taken for writing and stays readable until it is released
+ * after writing. Not thread safe: all methods except {@link #write(FileChannel, Block)} are called under lock of cache.
+ */
+final class WriteBehindBuffer {
+
+    private final WriteBehindPolicy policy;
+    private final List<Block> writingBlocks = new ArrayList<>();
+    private Block pendingBlock;
+    private byte[] spareData;
+
+    WriteBehindBuffer(WriteBehindPolicy policy) {
+        this.policy = policy;
+    }
+
+    /**
+     * Appends data to pending block.
+     *
+     * @param offset an offset in file to append data to.
+     * @return blocks to be written to file by caller.
+     */
+    List<Block> append(long offset, byte[] data, int length) {
+        List<Block> readyBlocks = new ArrayList<>();
+        if (pendingBlock != null && pendingBlock.end() != offset) {
+            takePendingBlock(readyBlocks); // appended data is joined with range cached before
+        }
+        int appended = 0;
+        while (appended < length) {
+            if (pendingBlock == null) {
+                pendingBlock = newBlock(offset + appended);
+            }
+            int count = Math.min(length - appended, pendingBlock.capacity - pendingBlock.length);
+            System.arraycopy(data, appended, pendingBlock.data, pendingBlock.length, count);
+            pendingBlock.length += count;
+            appended += count;
+            if (pendingBlock.length == pendingBlock.capacity) {
+                takePendingBlock(readyBlocks);
+            }
+        }
+        if (pendingDelayMs() == 0) {
+            takePendingBlock(readyBlocks);
+        }
+        return readyBlocks;
+    }
+
+    /**
+     * Takes pending block for writing if it is older than max delay.
+     *
+     * @return blocks to be written to file by caller.
+     */
+    List<Block> takeExpired() {
+        List<Block> readyBlocks = new ArrayList<>();
+        if (pendingDelayMs() == 0) {
+            takePendingBlock(readyBlocks);
+        }
+        return readyBlocks;
+    }
+
+    /**
+     * Returns time left until pending block should be written to file.
+     *
+     * @return time in milliseconds, {@code 0} if pending block is expired or {@code -1} if there is no pending block.
+     */
+    long pendingDelayMs() {
+        if (pendingBlock == null) {
+            return -1;
+        }
+        return Math.max(0, pendingBlock.createdAt + policy.maxDelayMs - System.currentTimeMillis());
+    }
+
+    /**
+     * Takes all pending data for writing.
+     *
+     * @return blocks to be written to file by caller.
+     */
+    List<Block> takeAll() {
+        List<Block> readyBlocks = new ArrayList<>();
+        takePendingBlock(readyBlocks);
+        return readyBlocks;
+    }
+
+    /**
+     * Reads data that is not written to file yet.
+     *
+     * @return count of read bytes or {@code -1} if there is no data for offset in memory.
+     */
+    int read(long offset, byte[] buffer, int length) {
+        Block block = findBlock(offset);
+        if (block == null) {
+            return -1;
+        }
+        int count = (int) Math.min(length, block.end() - offset);
+        System.arraycopy(block.data, (int) (offset - block.offset), buffer, 0, count);
+        return count;
+    }
+
+    /**
+     * Returns count of bytes starting from offset that can be read from file, i.e. are not kept in memory.
+     *
+     * @param offset an offset in file.
+     * @param count  max count of bytes.
+     * @return count of bytes before first block in memory.
+     */
+    long inFile(long offset, long count) {
+        long end = offset + count;
+        for (Block block : blocks()) {
+            if (block.offset <= offset && offset < block.end()) {
+                return 0;
+            }
+            if (block.offset > offset) {
+                end = Math.min(end, block.offset);
+            }
+        }
+        return end - offset;
+    }
+
+    /**
+     * Writes block to file, can be called without lock.
+     */
+    void write(FileChannel channel, Block block) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(block.data, 0, block.length);
+        long position = block.offset;
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+        if (policy.sync) {
+            channel.force(false);
+        }
+    }
+
+    /**
+     * Releases written block, its data isn't readable any more.
+     */
+    void release(Block block) {
+        writingBlocks.remove(block);
+        spareData = block.data;
+    }
+
+    private List<Block> blocks() {
+        if (pendingBlock == null) {
+            return writingBlocks;
+        }
+        List<Block> blocks = new ArrayList<>(writingBlocks);
+        blocks.add(pendingBlock);
+        return blocks;
+    }
+
+    private Block findBlock(long offset) {
+        if (pendingBlock != null && pendingBlock.offset <= offset && offset < pendingBlock.end()) {
+            return pendingBlock;
+        }
+        for (Block block : writingBlocks) {
+            if (block.offset <= offset && offset < block.end()) {
+                return block;
+            }
+        }
+        return null;
+    }
+
+    private void takePendingBlock(List<Block> readyBlocks) {
+        if (pendingBlock != null && pendingBlock.length > 0) {
+            writingBlocks.add(pendingBlock);
+            readyBlocks.add(pendingBlock);
+        }
+        pendingBlock = null;
+    }
+
+    private Block newBlock(long offset) {
+        byte[] data = spareData != null ? spareData : new byte[policy.blockSize];
+        spareData = null;
+        int capacity = policy.blockSize - (int) (offset % policy.blockSize); // next blocks are aligned
+        return new Block(offset, data, capacity);
+    }
+
+    static final class Block {
+
+        final long offset;
+        private final byte[] data;
+        private final int capacity;
+        private final long createdAt = System.currentTimeMillis();
+        private int length;
+
+        Block(long offset, byte[] data, int capacity) {
+            this.offset = offset;
+            this.data = data;
+            this.capacity = capacity;
+        }
+
+        long end() {
+            return offset + length;
+        }
+
+        @Override
+        public String toString() {
+            return "Block{offset=" + offset + ", length=" + length + '}';
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.danikula.videocache.file;
+
+/**
+ * Policy of write-behind for appended data of {@link FileCache}.
+ * <p>
+ * Appended data is gathered in memory into blocks aligned by block size and every block is written to file by single
+ * positional write when it is full. Readers get data of blocks that are not written yet from memory. Not full block
+ * is written when it is older than max delay or when cache is closed, so in case of crash not more than block of data
+ * (or data fetched during max delay) is lost and downloaded again.
+ */
+public final class WriteBehindPolicy {
+
+    private static final int MIN_BLOCK_SIZE = 4 * 1024;
+
+    final int blockSize;
+    final long maxDelayMs;
+    final boolean sync;
+
+    /**
+     * Creates policy.
+     *
+     * @param blockSize  a size of block in bytes, e.g. 256 Kb or 1 Mb.
+     * @param maxDelayMs max time data stays in not full block, in milliseconds. {@code 0} to write every append at once.
+     * @param sync       {@code true} to force every written block to storage device.
+     */
+    public WriteBehindPolicy(int blockSize, long maxDelayMs, boolean sync) {
+        if (blockSize < MIN_BLOCK_SIZE) {
+            throw new IllegalArgumentException("Block size must be at least " + MIN_BLOCK_SIZE + " bytes!");
+        }
+        if (maxDelayMs < 0) {
+            throw new IllegalArgumentException("Max delay can't be negative!");
+        }
+        this.blockSize = blockSize;
+        this.maxDelayMs = maxDelayMs;
+        this.sync = sync;
+    }
+}
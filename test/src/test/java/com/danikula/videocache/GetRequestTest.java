@@ -46,6 +46,28 @@ public class GetRequestTest extends BaseTest {
         assertThat(getRequest.partial).isTrue();
     }
 
+    @Test
+    public void testReadPipelinedRequests() throws Exception {
+        String requestString = "GET /first HTTP/1.1\r\n\r\nGET /second HTTP/1.1\r\nRange: bytes=100-\r\n\r\n";
+        InputStream stream = new ByteArrayInputStream(requestString.getBytes());
+        assertThat(GetRequest.read(stream).uri).isEqualTo("first");
+        GetRequest second = GetRequest.read(stream);
+        assertThat(second.uri).isEqualTo("second");
+        assertThat(second.rangeOffset).isEqualTo(100);
+        assertThat(GetRequest.read(stream)).isNull();
+    }
+
+    @Test
+    public void testKeepAlive() throws Exception {
+        assertThat(new GetRequest("GET /uri HTTP/1.1\n").keepAlive).isTrue();
+        assertThat(new GetRequest("GET /uri HTTP/1.1\nConnection: close\n").keepAlive).isFalse();
+        assertThat(new GetRequest("GET /uri HTTP/1.0\n").keepAlive).isFalse();
+        assertThat(new GetRequest("GET /uri HTTP/1.0\nConnection: Keep-Alive\n").keepAlive).isTrue();
+        assertThat(new GetRequest("GET /uri HTTP/1.1\nProxy-Connection: close\n").keepAlive).isTrue();
+        assertThat(new GetRequest("GET /uri HTTP/1.1\nRange: bytes=100-\n").withoutKeepAlive().keepAlive).isFalse();
+        assertThat(new GetRequest("GET /uri HTTP/1.1\nRange: bytes=100-\n").withoutKeepAlive().rangeOffset).isEqualTo(100);
+    }
+
     @Test
     public void testMinimal() throws Exception {
         GetRequest getRequest = new GetRequest("GET /uri HTTP/1.1");
@@ -0,0 +1,81 @@
+package com.danikula.videocache;
+
+import org.junit.Test;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+/**
+ * Tests {@link HealthWatchdog}.
+ */
+public class HealthWatchdogTest extends BaseTest {
+
+    @Test
+    public void testRestartDeadAcceptLoop() throws Exception {
+        FakeServer server = new FakeServer(false, true);
+        ScheduledExecutorService watchdogThread = Executors.newSingleThreadScheduledExecutor();
+        HealthWatchdog watchdog = new HealthWatchdog(server, watchdogThread);
+        assertThat(watchdog.isAlive()).isFalse();
+
+        watchdog.start();
+        waitForCheck(watchdogThread);
+
+        assertThat(server.restarted).isTrue();
+        assertThat(watchdog.isAlive()).isTrue();
+        watchdog.shutdown();
+    }
+
+    @Test
+    public void testNotAliveIfNotPingable() throws Exception {
+        FakeServer server = new FakeServer(true, false);
+        ScheduledExecutorService watchdogThread = Executors.newSingleThreadScheduledExecutor();
+        HealthWatchdog watchdog = new HealthWatchdog(server, watchdogThread);
+        assertThat(watchdog.isAlive()).isTrue();
+
+        watchdog.start();
+        waitForCheck(watchdogThread);
+
+        assertThat(server.restarted).isFalse();
+        assertThat(watchdog.isAlive()).isFalse();
+        watchdog.shutdown();
+    }
+
+    private void waitForCheck(ScheduledExecutorService watchdogThread) throws Exception {
+        // first check is scheduled without delay, so task submitted after it is run when check is finished
+        watchdogThread.submit(new Runnable() {
+            @Override
+            public void run() {
+            }
+        }).get();
+    }
+
+    private static final class FakeServer implements HealthWatchdog.MonitoredServer {
+
+        private final boolean pingable;
+        private volatile boolean accepting;
+        private volatile boolean restarted;
+
+        FakeServer(boolean accepting, boolean pingable) {
+            this.accepting = accepting;
+            this.pingable = pingable;
+        }
+
+        @Override
+        public boolean isAccepting() {
+            return accepting;
+        }
+
+        @Override
+        public boolean ping() {
+            return pingable;
+        }
+
+        @Override
+        public void restart() {
+            restarted = true;
+            accepting = true;
+        }
+    }
+}
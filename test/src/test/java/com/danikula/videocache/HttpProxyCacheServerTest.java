@@ -4,6 +4,7 @@ import android.net.Uri;
 import android.util.Pair;
 
 import com.danikula.android.garden.io.IoUtils;
+import com.danikula.videocache.admission.DoorkeeperAdmissionPolicy;
 import com.danikula.videocache.file.FileNameGenerator;
 import com.danikula.videocache.file.Md5FileNameGenerator;
 import com.danikula.videocache.headers.HeaderInjector;
@@ -378,6 +379,52 @@ public class HttpProxyCacheServerTest extends BaseTest {
         verify(mockedHeaderInjector, times(2)).addHeaders(HTTP_DATA_URL);   // content info & fetch data requests
     }
 
+    @Test
+    public void testNotAdmittedVideoIsStreamedWithoutCaching() throws Exception {
+        HttpProxyCacheServer proxy = new HttpProxyCacheServer.Builder(RuntimeEnvironment.application)
+                .cacheDirectory(cacheFolder)
+                .admissionPolicy(new DoorkeeperAdmissionPolicy(100))
+                .build();
+
+        Response firstResponse = readProxyResponse(proxy, HTTP_DATA_URL, -1);
+        Thread.sleep(100); // wait for finishing request, so next request is admitted again
+        assertThat(firstResponse.data).isEqualTo(loadAssetFile(ASSETS_DATA_NAME));
+        assertThat(file(cacheFolder, HTTP_DATA_URL)).doesNotExist();
+        assertThat(new File(cacheFolder, file(cacheFolder, HTTP_DATA_URL).getName() + ".download")).doesNotExist();
+        assertThat(proxy.getRejectedBytes()).isEqualTo(HTTP_DATA_SIZE);
+        assertThat(proxy.getAdmittedBytes()).isEqualTo(0);
+
+        Response secondResponse = readProxyResponse(proxy, HTTP_DATA_URL, -1);
+        proxy.shutdown();
+
+        assertThat(secondResponse.data).isEqualTo(loadAssetFile(ASSETS_DATA_NAME));
+        assertThat(getFileContent(file(cacheFolder, HTTP_DATA_URL))).isEqualTo(loadAssetFile(ASSETS_DATA_NAME));
+        assertThat(proxy.getRejectedBytes()).isEqualTo(HTTP_DATA_SIZE);
+        assertThat(proxy.getAdmittedBytes()).isEqualTo(HTTP_DATA_SIZE);
+    }
+
+    @Test
+    public void testSeekWithinNotAdmittedVideoIsNotAdmitted() throws Exception {
+        HttpProxyCacheServer proxy = new HttpProxyCacheServer.Builder(RuntimeEnvironment.application)
+                .cacheDirectory(cacheFolder)
+                .admissionPolicy(new DoorkeeperAdmissionPolicy(100))
+                .build();
+
+        readProxyResponse(proxy, HTTP_DATA_URL, -1);
+        Thread.sleep(100); // wait for finishing request, so seek is processed while video isn't played
+        Response seekResponse = readProxyResponse(proxy, HTTP_DATA_URL, 1000);
+        Thread.sleep(100);
+
+        assertThat(seekResponse.data).isEqualTo(Arrays.copyOfRange(loadAssetFile(ASSETS_DATA_NAME), 1000, HTTP_DATA_SIZE));
+        assertThat(new File(cacheFolder, file(cacheFolder, HTTP_DATA_URL).getName() + ".download")).doesNotExist();
+        assertThat(proxy.getRejectedBytes()).isEqualTo(2 * HTTP_DATA_SIZE - 1000);
+        assertThat(proxy.getAdmittedBytes()).isEqualTo(0);
+
+        readProxyResponse(proxy, HTTP_DATA_URL, -1); // next playback is admitted by doorkeeper
+        proxy.shutdown();
+        assertThat(getFileContent(file(cacheFolder, HTTP_DATA_URL))).isEqualTo(loadAssetFile(ASSETS_DATA_NAME));
+    }
+
     private Pair<File, Response> readProxyData(String url, int offset) throws IOException {
         File file = file(cacheFolder, url);
         HttpProxyCacheServer proxy = newProxy(cacheFolder);
@@ -97,6 +97,24 @@ public class HttpProxyCacheTest extends BaseTest {
         assertThat(secondResponse.data).isEqualTo(partialData);
     }
 
+    @Test
+    public void testSegmentedDownload() throws Exception {
+        HttpUrlSource source = new HttpUrlSource(HTTP_DATA_BIG_URL);
+        File file = newCacheFile();
+        HttpProxyCache proxyCache = new HttpProxyCache(source, new FileCache(file), 3);
+
+        int offset = 30000;
+        Response partialResponse = processRequest(proxyCache, "GET /" + HTTP_DATA_BIG_URL + " HTTP/1.1\nRange: bytes=" + offset + "-");
+        Response fullResponse = processRequest(proxyCache, "GET /" + HTTP_DATA_BIG_URL + " HTTP/1.1");
+
+        byte[] responseData = loadAssetFile(ASSETS_DATA_BIG_NAME);
+        assertThat(fullResponse.data).isEqualTo(responseData);
+        byte[] partialData = new byte[responseData.length - offset];
+        System.arraycopy(responseData, offset, partialData, 0, partialData.length);
+        assertThat(partialResponse.data).isEqualTo(partialData);
+        assertThat(file.exists()).isTrue();
+    }
+
     @Test
     public void testProcessManyThreads() throws Exception {
         final String url = "https://raw.githubusercontent.com/danikula/AndroidVideoCache/master/files/space.jpg";
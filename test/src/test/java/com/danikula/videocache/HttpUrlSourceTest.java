@@ -68,6 +68,33 @@ public class HttpUrlSourceTest extends BaseTest {
         assertThat(source.length()).isEqualTo(loadAssetFile(ASSETS_DATA_NAME).length);
     }
 
+    @Test
+    public void testContentInfoIsTakenFromDataResponse() throws Exception {
+        HttpUrlSource source = new HttpUrlSource(HTTP_DATA_URL);
+        assertThat(source.isLengthKnown()).isFalse();
+        source.open(1000);
+        source.close();
+
+        assertThat(source.isLengthKnown()).isTrue();
+        assertThat(source.awaitLength(10000)).isTrue();
+        assertThat(source.length()).isEqualTo(HTTP_DATA_SIZE);
+    }
+
+    @Test
+    public void testAwaitLengthDoesNotWaitAfterFailedOpening() throws Exception {
+        HttpUrlSource source = new HttpUrlSource("http://localhost:1/unavailable.jpg");
+        try {
+            source.open(0);
+            fail("Source is unavailable");
+        } catch (ProxyCacheException e) {
+            // expected
+        }
+
+        long start = System.currentTimeMillis();
+        assertThat(source.awaitLength(10000)).isFalse();
+        assertThat(System.currentTimeMillis() - start).isLessThan(1000);
+    }
+
     @Test
     public void testFetchInfoWithRedirect() throws Exception {
         HttpUrlSource source = new HttpUrlSource(HTTP_DATA_URL_ONE_REDIRECT);
@@ -126,6 +153,18 @@ public class HttpUrlSourceTest extends BaseTest {
         fail("Too many redirects");
     }
 
+    @Test
+    public void testConnectionIsReusedFromPool() throws Exception {
+        readWholeSource(HTTP_DATA_URL);
+        ConnectionPoolCounters counters = OkHttpProvider.INSTANCE.getPoolCounters();
+        long hits = counters.getHits();
+        long misses = counters.getMisses();
+
+        readWholeSource(HTTP_DATA_URL); // connection is returned to pool when response is read
+        assertThat(counters.getHits()).isEqualTo(hits + 1);
+        assertThat(counters.getMisses()).isEqualTo(misses);
+    }
+
     @Ignore("Seems Robolectric bug: MimeTypeMap.getFileExtensionFromUrl always returns null")
     @Test
     public void testMimeByUrl() throws Exception {
@@ -177,4 +216,11 @@ public class HttpUrlSourceTest extends BaseTest {
             totalRead += readBytes;
         }
     }
+
+    private void readWholeSource(String url) throws ProxyCacheException {
+        Source source = new HttpUrlSource(url);
+        source.open(0);
+        readSource(source, new byte[HTTP_DATA_SIZE]);
+        source.close();
+    }
 }
@@ -0,0 +1,148 @@
+package com.danikula.videocache;
+
+import com.google.common.io.ByteStreams;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.channels.ServerSocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+/**
+ * Tests {@link NioProxyServer}.
+ */
+public class NioProxyServerTest extends BaseTest {
+
+    private static final int CLIENTS_COUNT = 32;
+    private static final int BIG_RESPONSE_SIZE = 256 * 1024;
+
+    private NioProxyServer server;
+    private int port;
+
+    @Before
+    public void setup() throws Exception {
+        ServerSocketChannel serverChannel = ServerSocketChannel.open();
+        serverChannel.socket().bind(new InetSocketAddress("127.0.0.1", 0));
+        port = serverChannel.socket().getLocalPort();
+        server = new NioProxyServer(serverChannel, 2, 1000, new EchoUriRequestHandler());
+        server.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.shutdown();
+    }
+
+    @Test
+    public void testFixedResponse() throws Exception {
+        assertThat(read("hello")).isEqualTo("hello".getBytes());
+    }
+
+    @Test
+    public void testManyConcurrentResponsesWithFewThreads() throws Exception {
+        ExecutorService clients = Executors.newFixedThreadPool(CLIENTS_COUNT);
+        List<Future<byte[]>> responses = new ArrayList<>();
+        for (int i = 0; i < CLIENTS_COUNT; i++) {
+            responses.add(clients.submit(new Callable<byte[]>() {
+                @Override
+                public byte[] call() throws Exception {
+                    return read("big");
+                }
+            }));
+        }
+        for (Future<byte[]> response : responses) {
+            assertThat(response.get().length).isEqualTo(BIG_RESPONSE_SIZE);
+        }
+        clients.shutdown();
+    }
+
+    @Test
+    public void testPipelinedKeepAliveRequests() throws Exception {
+        Socket socket = new Socket("127.0.0.1", port);
+        String requests = "GET /a HTTP/1.1\r\n\r\nGET /b HTTP/1.1\r\n\r\nGET /c HTTP/1.1\r\nConnection: close\r\n\r\n";
+        socket.getOutputStream().write(requests.getBytes());
+        String responses = new String(ByteStreams.toByteArray(socket.getInputStream()));
+        socket.close();
+
+        String expected = "" +
+                "HTTP/1.1 200 OK\nContent-Length: 1\n\na" +
+                "HTTP/1.1 200 OK\nContent-Length: 1\n\nb" +
+                "HTTP/1.1 200 OK\nContent-Length: 1\n\nc";
+        assertThat(responses).isEqualTo(expected);
+    }
+
+    @Test
+    public void testConnectionIsClosedAfterTruncatedBody() throws Exception {
+        Socket socket = new Socket("127.0.0.1", port);
+        String requests = "GET /truncated HTTP/1.1\r\n\r\nGET /b HTTP/1.1\r\n\r\n";
+        socket.getOutputStream().write(requests.getBytes());
+        String responses = new String(ByteStreams.toByteArray(socket.getInputStream()));
+        socket.close();
+
+        assertThat(responses).isEqualTo("HTTP/1.1 200 OK\nContent-Length: 10\n\ntruncated");
+    }
+
+    @Test
+    public void testHttpError() throws Exception {
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://127.0.0.1:" + port + "/error").openConnection();
+        assertThat(connection.getResponseCode()).isEqualTo(404);
+        connection.disconnect();
+    }
+
+    private byte[] read(String uri) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://127.0.0.1:" + port + "/" + uri).openConnection();
+        try {
+            return ByteStreams.toByteArray(connection.getInputStream());
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private static final class EchoUriRequestHandler implements NioProxyServer.RequestHandler {
+
+        @Override
+        public NioResponse handle(GetRequest request) throws ProxyCacheException {
+            if ("error".equals(request.uri)) {
+                throw new ProxyCacheException(ProxyCacheException.ERROR_TYPE_HTTP, 404, "Not Found");
+            }
+            final byte[] body = "big".equals(request.uri) ? new byte[BIG_RESPONSE_SIZE] : request.uri.getBytes();
+            final int declaredLength = "truncated".equals(request.uri) ? body.length + 1 : body.length;
+            String headers = "HTTP/1.1 200 OK\nContent-Length: " + declaredLength + "\n\n";
+            return new NioResponse(headers, request.keepAlive) {
+
+                private int offset;
+
+                @Override
+                boolean isBodyComplete() {
+                    return offset == declaredLength;
+                }
+
+                @Override
+                int read(byte[] buffer) {
+                    int length = Math.min(buffer.length, body.length - offset);
+                    System.arraycopy(body, offset, buffer, 0, length);
+                    offset += length;
+                    return length == 0 ? -1 : length;
+                }
+            };
+        }
+
+        @Override
+        public NioResponse handleError(ProxyCacheException e) {
+            return NioResponse.newFixedResponse("HTTP/1.1 " + e.getErrorCode() + " " + e.getMessage() + "\nContent-Length: 0\n\n", new byte[0]);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.danikula.videocache;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+/**
+ * Tests {@link OffsetWaiters}.
+ */
+public class OffsetWaitersTest extends BaseTest {
+
+    @Test
+    public void testNoWaitingIfDataCachedAfterCheck() throws Exception {
+        OffsetWaiters waiters = new OffsetWaiters();
+        long version = waiters.version();
+        waiters.onAvailable(0, 100);
+
+        long start = System.currentTimeMillis();
+        waiters.await(100, version, 5000);
+        assertThat(System.currentTimeMillis() - start).isLessThan(1000);
+    }
+
+    @Test
+    public void testWakeUpOnlyReachedOffsets() throws Exception {
+        OffsetWaiters waiters = new OffsetWaiters();
+        CountDownLatch nearReleased = startWaiting(waiters, 100);
+        CountDownLatch farReleased = startWaiting(waiters, 1000);
+        Thread.sleep(100);
+
+        waiters.onAvailable(0, 500);
+        assertThat(nearReleased.await(1, TimeUnit.SECONDS)).isTrue();
+        assertThat(farReleased.await(200, TimeUnit.MILLISECONDS)).isFalse();
+
+        waiters.onAvailable(500, 1000);
+        assertThat(farReleased.await(1, TimeUnit.SECONDS)).isTrue();
+    }
+
+    @Test
+    public void testWakeUpByRange() throws Exception {
+        OffsetWaiters waiters = new OffsetWaiters();
+        CountDownLatch beforeRangeReleased = startWaiting(waiters, 100);
+        CountDownLatch inRangeReleased = startWaiting(waiters, 1000);
+        Thread.sleep(100);
+
+        waiters.onAvailable(900, 2000);
+        assertThat(inRangeReleased.await(1, TimeUnit.SECONDS)).isTrue();
+        assertThat(beforeRangeReleased.await(200, TimeUnit.MILLISECONDS)).isFalse();
+        waiters.releaseAll();
+    }
+
+    @Test
+    public void testReleaseAll() throws Exception {
+        OffsetWaiters waiters = new OffsetWaiters();
+        CountDownLatch released = startWaiting(waiters, 1000);
+        Thread.sleep(100);
+
+        waiters.releaseAll();
+        assertThat(released.await(1, TimeUnit.SECONDS)).isTrue();
+    }
+
+    private CountDownLatch startWaiting(final OffsetWaiters waiters, final long target) {
+        final CountDownLatch released = new CountDownLatch(1);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    waiters.await(target, waiters.version(), 10000);
+                    released.countDown();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        }).start();
+        return released;
+    }
+}
@@ -37,6 +37,23 @@ public class PingerTest extends BaseTest {
         server.shutdown();
     }
 
+    @Test
+    public void testPingIsNotCountedByConnectionPoolCounters() throws Exception {
+        HttpProxyCacheServer server = new HttpProxyCacheServer(RuntimeEnvironment.application);
+        ConnectionPoolCounters counters = OkHttpProvider.INSTANCE.getPoolCounters();
+        long hits = counters.getHits();
+        long misses = counters.getMisses();
+
+        Pinger pinger = new Pinger("127.0.0.1", getPort(server));
+        assertThat(pinger.ping(1, 100)).isTrue();
+        assertThat(pinger.ping(1, 100)).isTrue();
+        assertThat(counters.getHits()).isEqualTo(hits);
+        assertThat(counters.getMisses()).isEqualTo(misses);
+
+        pinger.shutdown();
+        server.shutdown();
+    }
+
     @Test
     public void testPingFail() throws Exception {
         Pinger pinger = new Pinger("127.0.0.1", 33);
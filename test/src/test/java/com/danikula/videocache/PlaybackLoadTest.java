@@ -0,0 +1,278 @@
+package com.danikula.videocache;
+
+import com.danikula.videocache.support.RangeOriginServer;
+
+import org.junit.Ignore;
+import org.junit.Test;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Load test of {@link HttpProxyCacheServer}: many players play videos from local origin
+ * ({@link RangeOriginServer}) through proxy at the same time.
+ * <p>
+ * Every player plays random video according to one of {@link Scenario}s. For every run time-to-first-byte percentiles,
+ * total throughput, bytes served by proxy vs bytes fetched from origin and peak count of threads and opened file
+ * descriptors are printed. Threads and descriptors are printed after proxy shutdown as well to find leaks.
+ * It is not a test, so it is ignored and should be run manually.
+ */
+@Ignore("Load test, run manually")
+public class PlaybackLoadTest extends BaseTest {
+
+    private static final int[] PLAYERS_COUNTS = {4, 16, 64};
+    private static final int VIDEOS_COUNT = 8;
+    private static final int VIDEO_SIZE = 8 * 1024 * 1024;
+    private static final int ORIGIN_BYTES_PER_SECOND = 4 * 1024 * 1024;
+    private static final int SEEKS_COUNT = 4;
+    private static final int SEEK_READ_SIZE = 512 * 1024;
+    private static final int READ_TIMEOUT_MS = 30 * 1000;
+    private static final long SAMPLING_INTERVAL_MS = 100;
+
+    @Test
+    public void testBlockingEngine() throws Exception {
+        for (int playersCount : PLAYERS_COUNTS) {
+            run("blocking", playersCount, newProxyBuilder());
+        }
+    }
+
+    @Test
+    public void testNioEngine() throws Exception {
+        for (int playersCount : PLAYERS_COUNTS) {
+            run("nio", playersCount, newProxyBuilder().nioEngine(4));
+        }
+    }
+
+    @Test
+    public void testSegmentedDownload() throws Exception {
+        for (int playersCount : PLAYERS_COUNTS) {
+            run("blocking, 4 connections", playersCount, newProxyBuilder().downloadConnections(4));
+        }
+    }
+
+    private HttpProxyCacheServer.Builder newProxyBuilder() {
+        File cacheDir = new File(RuntimeEnvironment.application.getCacheDir(), UUID.randomUUID().toString());
+        return new HttpProxyCacheServer.Builder(RuntimeEnvironment.application)
+                .cacheDirectory(cacheDir)
+                .maxCacheSize(Long.MAX_VALUE);
+    }
+
+    private void run(String engine, int playersCount, HttpProxyCacheServer.Builder proxyBuilder) throws Exception {
+        RangeOriginServer origin = new RangeOriginServer(VIDEOS_COUNT, VIDEO_SIZE, ORIGIN_BYTES_PER_SECOND);
+        origin.start();
+        HttpProxyCacheServer proxy = proxyBuilder.build();
+        ResourcesSampler sampler = new ResourcesSampler();
+        sampler.start();
+        Statistics statistics = new Statistics();
+
+        ExecutorService players = Executors.newFixedThreadPool(playersCount);
+        List<Future<Void>> results = new ArrayList<>();
+        long startTime = System.nanoTime();
+        for (int i = 0; i < playersCount; i++) {
+            Random random = new Random(i);
+            int video = random.nextInt(VIDEOS_COUNT);
+            String proxyUrl = proxy.getProxyUrl("video-" + video, origin.getUrl(video), false);
+            Scenario scenario = Scenario.values()[i % Scenario.values().length];
+            results.add(players.submit(new Player(scenario, video, proxyUrl, random, statistics)));
+        }
+        for (Future<Void> result : results) {
+            result.get();
+        }
+        long durationNs = System.nanoTime() - startTime;
+        players.shutdown();
+
+        int peakThreads = sampler.peakThreads;
+        int peakFds = sampler.peakFds;
+        proxy.shutdown();
+        origin.shutdown();
+        Thread.sleep(500); // let threads finish
+        sampler.stop();
+        statistics.print(engine, playersCount, durationNs, origin, peakThreads, sampler.sampleThreads(), peakFds, sampler.sampleFds());
+    }
+
+    /**
+     * Behaviour of player.
+     */
+    private enum Scenario {
+        /**
+         * Plays whole video from start to end.
+         */
+        SEQUENTIAL,
+        /**
+         * Plays beginning of video then seeks to random positions several times and plays a bit after every seek.
+         */
+        SEEKING,
+        /**
+         * Plays random part of beginning of video and closes connection.
+         */
+        ABANDONING
+    }
+
+    private static final class Player implements Callable<Void> {
+
+        private final Scenario scenario;
+        private final int video;
+        private final String proxyUrl;
+        private final Random random;
+        private final Statistics statistics;
+
+        Player(Scenario scenario, int video, String proxyUrl, Random random, Statistics statistics) {
+            this.scenario = scenario;
+            this.video = video;
+            this.proxyUrl = proxyUrl;
+            this.random = random;
+            this.statistics = statistics;
+        }
+
+        @Override
+        public Void call() throws Exception {
+            try {
+                switch (scenario) {
+                    case SEQUENTIAL:
+                        play(0, VIDEO_SIZE);
+                        break;
+                    case SEEKING:
+                        play(0, SEEK_READ_SIZE);
+                        for (int i = 0; i < SEEKS_COUNT; i++) {
+                            play(random.nextInt(VIDEO_SIZE - SEEK_READ_SIZE), SEEK_READ_SIZE);
+                        }
+                        break;
+                    case ABANDONING:
+                        play(0, 1 + random.nextInt(VIDEO_SIZE / 4));
+                        break;
+                }
+            } catch (IOException e) {
+                statistics.errors.incrementAndGet();
+                System.out.println("Error playing " + proxyUrl + ": " + e);
+            }
+            return null;
+        }
+
+        private void play(long offset, int length) throws IOException {
+            long startTime = System.nanoTime();
+            HttpURLConnection connection = (HttpURLConnection) new URL(proxyUrl).openConnection();
+            connection.setReadTimeout(READ_TIMEOUT_MS);
+            if (offset > 0) {
+                connection.setRequestProperty("Range", "bytes=" + offset + "-");
+            }
+            try {
+                InputStream in = connection.getInputStream();
+                byte[] buffer = new byte[ProxyCacheUtils.DEFAULT_BUFFER_SIZE];
+                int read = 0;
+                int readBytes;
+                while (read < length && (readBytes = in.read(buffer, 0, Math.min(buffer.length, length - read))) != -1) {
+                    if (read == 0) {
+                        statistics.addTimeToFirstByte(System.nanoTime() - startTime);
+                    }
+                    check(buffer, readBytes, offset + read);
+                    read += readBytes;
+                }
+                statistics.servedBytes.addAndGet(read);
+            } finally {
+                connection.disconnect(); // stream is not read fully, so connection is closed like player does on seek
+            }
+        }
+
+        private void check(byte[] data, int length, long offset) {
+            for (int i = 0; i < length; i++) {
+                if (data[i] != RangeOriginServer.getByte(video, offset + i)) {
+                    statistics.corruptions.incrementAndGet();
+                    return;
+                }
+            }
+        }
+    }
+
+    private static final class Statistics {
+
+        private final List<Long> timesToFirstByte = Collections.synchronizedList(new ArrayList<Long>());
+        private final AtomicLong servedBytes = new AtomicLong();
+        private final AtomicInteger errors = new AtomicInteger();
+        private final AtomicInteger corruptions = new AtomicInteger();
+
+        void addTimeToFirstByte(long timeNs) {
+            timesToFirstByte.add(timeNs);
+        }
+
+        void print(String engine, int playersCount, long durationNs, RangeOriginServer origin,
+                   int peakThreads, int threadsAfter, int peakFds, int fdsAfter) {
+            List<Long> times = new ArrayList<>(timesToFirstByte);
+            Collections.sort(times);
+            double megabyte = 1024 * 1024;
+            System.out.println(String.format(Locale.US,
+                    "Engine: %s, players: %d, duration: %.1f s\n" +
+                            "  TTFB: p50 %.1f ms, p90 %.1f ms, p99 %.1f ms, max %.1f ms (%d requests)\n" +
+                            "  Throughput: %.1f MB/s, served: %.1f MB, from origin: %.1f MB (%d requests)\n" +
+                            "  Threads: peak %d, after shutdown %d; file descriptors: peak %d, after shutdown %d\n" +
+                            "  Errors: %d, corrupted responses: %d",
+                    engine, playersCount, durationNs / 1e9,
+                    percentile(times, 50), percentile(times, 90), percentile(times, 99), percentile(times, 100), times.size(),
+                    servedBytes.get() / megabyte / (durationNs / 1e9), servedBytes.get() / megabyte,
+                    origin.getSentBytes() / megabyte, origin.getRequestsCount(),
+                    peakThreads, threadsAfter, peakFds, fdsAfter,
+                    errors.get(), corruptions.get()));
+        }
+
+        private double percentile(List<Long> sortedTimes, int percentile) {
+            if (sortedTimes.isEmpty()) {
+                return 0;
+            }
+            int index = (int) Math.ceil(percentile / 100.0 * sortedTimes.size()) - 1;
+            return sortedTimes.get(Math.max(0, index)) / 1e6;
+        }
+    }
+
+    /**
+     * Periodically samples count of live threads and opened file descriptors of process.
+     */
+    private static final class ResourcesSampler implements Runnable {
+
+        private final ScheduledExecutorService samplingThread = Executors.newSingleThreadScheduledExecutor();
+        private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        private volatile int peakThreads;
+        private volatile int peakFds;
+
+        void start() {
+            samplingThread.scheduleAtFixedRate(this, 0, SAMPLING_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        }
+
+        void stop() {
+            samplingThread.shutdownNow();
+        }
+
+        @Override
+        public void run() {
+            peakThreads = Math.max(peakThreads, sampleThreads());
+            peakFds = Math.max(peakFds, sampleFds());
+        }
+
+        int sampleThreads() {
+            return threads.getThreadCount();
+        }
+
+        int sampleFds() {
+            String[] fds = new File("/proc/self/fd").list(); // available on linux only
+            return fds == null ? -1 : fds.length;
+        }
+    }
+}
@@ -51,4 +51,19 @@ public class ProxySelectorTest extends BaseTest {
         assertThat(localhostPort69Proxies).hasSize(1);
         assertThat(localhostPort69Proxies.get(0).address()).isEqualTo(proxyAddress);
     }
+
+    @Test
+    public void testChangingIgnoredPort() throws Exception {
+        InetSocketAddress proxyAddress = new InetSocketAddress("proxy.com", 80);
+        ProxySelector mockedProxySelector = Mockito.mock(ProxySelector.class);
+        when(mockedProxySelector.select(Mockito.<URI>any())).thenReturn(Lists.newArrayList(new Proxy(Proxy.Type.HTTP, proxyAddress)));
+        ProxySelector.setDefault(mockedProxySelector);
+
+        IgnoreHostProxySelector installed = IgnoreHostProxySelector.install("localhost", 42);
+        installed.setPortToIgnore(69);
+
+        assertThat(ProxySelector.getDefault()).isSameAs(installed);
+        assertThat(installed.select(new URI("http://localhost:69")).get(0)).isEqualTo(Proxy.NO_PROXY);
+        assertThat(installed.select(new URI("http://localhost:42")).get(0).address()).isEqualTo(proxyAddress);
+    }
 }
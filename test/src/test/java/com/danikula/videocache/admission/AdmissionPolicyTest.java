@@ -0,0 +1,51 @@
+package com.danikula.videocache.admission;
+
+import com.danikula.videocache.BaseTest;
+
+import org.junit.Test;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+/**
+ * Tests for implementations of {@link AdmissionPolicy}.
+ */
+public class AdmissionPolicyTest extends BaseTest {
+
+    @Test
+    public void testDoorkeeperAdmitsSecondRequest() throws Exception {
+        AdmissionPolicy policy = new DoorkeeperAdmissionPolicy(100);
+
+        assertThat(policy.admit("first", 0)).isFalse();
+        assertThat(policy.admit("second", 0)).isFalse();
+        assertThat(policy.admit("first", 0)).isTrue();
+        assertThat(policy.admit("second", 0)).isTrue();
+    }
+
+    @Test
+    public void testDoorkeeperIsClearedAfterExpectedCount() throws Exception {
+        AdmissionPolicy policy = new DoorkeeperAdmissionPolicy(10);
+        assertThat(policy.admit("video", 0)).isFalse();
+
+        int rejected = 0;
+        for (int i = 0; i < 9; i++) {
+            rejected += policy.admit("other-" + i, 0) ? 0 : 1;
+        }
+
+        assertThat(rejected).isEqualTo(9);
+        assertThat(policy.admit("video", 0)).isFalse();
+    }
+
+    @Test
+    public void testMinStreamedBytes() throws Exception {
+        AdmissionPolicy policy = new MinStreamedBytesAdmissionPolicy(1000);
+
+        assertThat(policy.admit("video", 0)).isFalse();
+        assertThat(policy.admit("video", 999)).isFalse();
+        assertThat(policy.admit("video", 1000)).isTrue();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDoorkeeperWithZeroCount() throws Exception {
+        new DoorkeeperAdmissionPolicy(0);
+    }
+}
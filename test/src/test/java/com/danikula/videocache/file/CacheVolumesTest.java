@@ -0,0 +1,144 @@
+package com.danikula.videocache.file;
+
+import com.danikula.videocache.BaseTest;
+import com.danikula.videocache.support.ProxyCacheTestUtils;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static com.danikula.android.garden.io.Files.cleanDirectory;
+import static com.danikula.android.garden.io.Files.createDirectory;
+import static org.fest.assertions.api.Assertions.assertThat;
+
+/**
+ * Tests for {@link CacheVolumes}.
+ */
+public class CacheVolumesTest extends BaseTest {
+
+    private File internalRoot;
+    private File externalRoot;
+
+    @Before
+    public void setup() throws Exception {
+        File cacheFolder = ProxyCacheTestUtils.newCacheFile();
+        createDirectory(cacheFolder);
+        cleanDirectory(cacheFolder);
+        internalRoot = new File(cacheFolder, "internal");
+        externalRoot = new File(cacheFolder, "external");
+    }
+
+    @Test
+    public void testPlacementByWeight() throws Exception {
+        CacheVolumes volumes = new CacheVolumes(Arrays.asList(
+                new CacheVolume(internalRoot, new TotalSizeLruDiskUsage(1000), 1),
+                new CacheVolume(externalRoot, new TotalSizeLruDiskUsage(1000), 3)), false);
+        int internalCount = 0;
+        for (int i = 0; i < 1000; i++) {
+            File file = volumes.getFile("video" + i);
+            assertThat(volumes.getFile("video" + i)).isEqualTo(file);
+            internalCount += file.getParentFile().equals(internalRoot) ? 1 : 0;
+        }
+        assertThat(internalCount).isGreaterThan(200).isLessThan(300);
+    }
+
+    @Test
+    public void testAddingVolumeMovesOnlyItsShare() throws Exception {
+        CacheVolumes volumes = new CacheVolumes(Arrays.asList(
+                new CacheVolume(internalRoot, new TotalSizeLruDiskUsage(1000), 1)), false);
+        File newRoot = new File(externalRoot.getParentFile(), "new");
+        CacheVolumes extendedVolumes = new CacheVolumes(Arrays.asList(
+                new CacheVolume(internalRoot, new TotalSizeLruDiskUsage(1000), 1),
+                new CacheVolume(newRoot, new TotalSizeLruDiskUsage(1000), 1)), false);
+        CacheVolumes threeVolumes = new CacheVolumes(Arrays.asList(
+                new CacheVolume(externalRoot, new TotalSizeLruDiskUsage(1000), 1),
+                new CacheVolume(internalRoot, new TotalSizeLruDiskUsage(1000), 1),
+                new CacheVolume(newRoot, new TotalSizeLruDiskUsage(1000), 1)), false);
+        for (int i = 0; i < 100; i++) {
+            String name = "video" + i;
+            File file = extendedVolumes.getFile(name);
+            assertThat(file.getParentFile().equals(newRoot) || file.equals(volumes.getFile(name))).isTrue();
+            File movedFile = threeVolumes.getFile(name);
+            assertThat(movedFile.getParentFile().equals(externalRoot) || movedFile.equals(file)).isTrue();
+        }
+    }
+
+    @Test
+    public void testCachedFileIsFoundInOtherVolume() throws Exception {
+        File cachedFile = new File(internalRoot, "video");
+        createFile(new File(internalRoot, "video.download"), 100);
+        CacheVolumes volumes = new CacheVolumes(Arrays.asList(
+                new CacheVolume(internalRoot, new TotalSizeLruDiskUsage(1000), 1),
+                new CacheVolume(externalRoot, new TotalSizeLruDiskUsage(1000), 1000000)), false);
+
+        assertThat(volumes.getFile("video")).isEqualTo(cachedFile);
+    }
+
+    @Test
+    public void testVolumesAreTrimmedIndependently() throws Exception {
+        CacheVolumes volumes = new CacheVolumes(Arrays.asList(
+                new CacheVolume(internalRoot, new TotalSizeLruDiskUsage(500), 1),
+                new CacheVolume(externalRoot, new TotalSizeLruDiskUsage(100000), 1)), true);
+        for (int i = 0; i < 40; i++) {
+            File file = volumes.getFile("video" + i);
+            createFile(file, 100);
+            volumes.touch(file);
+        }
+        waitForAsyncTrimming();
+
+        assertThat(totalSize(internalRoot)).isLessThanOrEqualTo(500);
+        assertThat(totalSize(internalRoot) + totalSize(externalRoot)).isGreaterThan(1000); // external volume isn't trimmed
+    }
+
+    @Test
+    public void testTieredDemotionAndPromotion() throws Exception {
+        CacheVolumes volumes = new CacheVolumes(Arrays.asList(
+                new CacheVolume(internalRoot, new TotalSizeLruDiskUsage(500), 1),
+                new CacheVolume(externalRoot, new TotalSizeLruDiskUsage(100000), 1)), false, true);
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 10; i++) {
+            File file = volumes.getFile("video" + i);
+            assertThat(file.getParentFile()).isEqualTo(internalRoot);
+            createFile(file, 100);
+            assertThat(file.setLastModified(now - 10000 + i * 1000)).isTrue();
+            volumes.touch(file);
+            waitForAsyncTrimming();
+        }
+
+        assertThat(new File(internalRoot, "video0")).doesNotExist();
+        assertThat(new File(externalRoot, "video0")).exists();
+        assertThat(new File(internalRoot, "video9")).exists();
+        assertThat(totalSize(internalRoot) + totalSize(externalRoot)).isEqualTo(1000);
+
+        assertThat(volumes.getFile("video0")).isEqualTo(new File(externalRoot, "video0"));
+        waitForAsyncTrimming();
+        assertThat(volumes.getFile("video0")).isEqualTo(new File(internalRoot, "video0"));
+        assertThat(new File(externalRoot, "video0")).exists(); // path returned before stays valid until it is evicted
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSharedDiskUsage() throws Exception {
+        DiskUsage diskUsage = new TotalSizeLruDiskUsage(1000);
+        new CacheVolumes(Arrays.asList(new CacheVolume(internalRoot, diskUsage, 1), new CacheVolume(externalRoot, diskUsage, 1)), false);
+    }
+
+    private long totalSize(File root) {
+        long size = 0;
+        for (File file : Files.getLruListFiles(root)) {
+            size += file.length();
+        }
+        return size;
+    }
+
+    private void waitForAsyncTrimming() throws InterruptedException {
+        Thread.sleep(500);
+    }
+
+    private void createFile(File file, int capacity) throws IOException {
+        Files.makeDir(file.getParentFile());
+        com.google.common.io.Files.write(ProxyCacheTestUtils.generate(capacity), file);
+    }
+}
@@ -8,6 +8,8 @@ import org.junit.Test;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 
 import static com.danikula.android.garden.io.Files.cleanDirectory;
 import static com.danikula.android.garden.io.Files.createDirectory;
@@ -100,6 +102,195 @@ public class DiskUsageTest extends BaseTest {
         assertThat(file("b")).doesNotExist();
     }
 
+    @Test
+    public void testCompletedFileReplacesTempFile() throws Exception {
+        DiskUsage diskUsage = new TotalSizeLruDiskUsage(300);
+        long now = System.currentTimeMillis();
+        createFile(file("a"), 100, now - 10000);
+        createFile(file("b.download"), 150, now - 8000);
+        diskUsage.touch(file("b.download"));
+        waitForAsyncTrimming();
+
+        assertThat(file("b.download").renameTo(file("b"))).isTrue();
+        diskUsage.touch(file("b"));
+        createFile(file("c"), 50, now);
+        diskUsage.touch(file("c"));
+        waitForAsyncTrimming();
+
+        assertThat(file("a")).exists(); // 300 bytes in cache, temp file is not counted twice
+        assertThat(file("b")).exists();
+        assertThat(file("c")).exists();
+    }
+
+    @Test
+    public void testUsageOrderIsRestoredFromJournal() throws Exception {
+        DiskUsage diskUsage = new TotalCountLruDiskUsage(3);
+        long now = System.currentTimeMillis();
+        createFile(file("a"), 101, now - 10000);
+        createFile(file("b"), 102, now - 8000);
+        createFile(file("c"), 103, now - 4000);
+        diskUsage.touch(file("a"));
+        waitForAsyncTrimming();
+        assertThat(file(".journal")).exists();
+
+        assertThat(file("a").setLastModified(now - 20000)).isTrue(); // usage order is not kept in dates anymore
+        createFile(file("d"), 104, now);
+        new TotalCountLruDiskUsage(3).touch(file("d"));
+        waitForAsyncTrimming();
+
+        assertThat(file("a")).exists();
+        assertThat(file("b")).doesNotExist();
+        assertThat(file("c")).exists();
+        assertThat(file("d")).exists();
+    }
+
+    @Test
+    public void testJournalKeepsNamesWithSpaces() throws Exception {
+        LruJournal journal = new LruJournal(cacheFolder, false);
+        journal.rewrite(new LinkedHashMap<File, Long>());
+        journal.touch(file("a b"), 101);
+        journal.touch(file("c"), 102);
+        journal.remove(file("a b"));
+        journal.touch(file("d e f"), 103);
+        journal.close();
+
+        LinkedHashMap<File, Long> files = new LruJournal(cacheFolder, false).read();
+        assertThat(files.keySet()).containsExactly(file("c"), file("d e f"));
+        assertThat(files.get(file("d e f"))).isEqualTo(103);
+    }
+
+    @Test
+    public void testTrimToLowWatermark() throws Exception {
+        DiskUsage diskUsage = new TotalSizeLruDiskUsage(1000);
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 10; i++) {
+            createFile(file("f" + i), 100, now - 100000 + i * 1000);
+        }
+        diskUsage.touch(file("f9"));
+        waitForAsyncTrimming();
+        for (int i = 0; i < 10; i++) {
+            assertThat(file("f" + i)).exists(); // limit is not exceeded
+        }
+
+        createFile(file("f10"), 100, now);
+        diskUsage.touch(file("f10"));
+        waitForAsyncTrimming();
+
+        assertThat(file("f0")).doesNotExist(); // trimmed to 900 bytes
+        assertThat(file("f1")).doesNotExist();
+        assertThat(file("f2")).exists();
+        assertThat(file("f10")).exists();
+    }
+
+    @Test
+    public void testCoalescedTouchesAndBatchTrimming() throws Exception {
+        DiskUsage diskUsage = new TotalCountLruDiskUsage(50);
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 100; i++) {
+            createFile(file("f" + i), 10, now - 200000 + i * 1000);
+        }
+        for (int i = 0; i < 100; i++) {
+            diskUsage.touch(file("f" + i));
+        }
+        waitForAsyncTrimming();
+
+        for (int i = 0; i < 100; i++) {
+            if (i < 55) {
+                assertThat(file("f" + i)).doesNotExist();
+            } else {
+                assertThat(file("f" + i)).exists();
+            }
+        }
+    }
+
+    @Test
+    public void testTinyLfuKeepsPopularFile() throws Exception {
+        DiskUsage diskUsage = new TinyLfuDiskUsage(1000);
+        createFile(file("popular"), 300, System.currentTimeMillis());
+        for (int i = 0; i < 5; i++) {
+            diskUsage.touch(file("popular"));
+            waitForAsyncTrimming();
+        }
+
+        for (int i = 0; i < 10; i++) { // burst of files used once
+            createFile(file("once" + i), 100, System.currentTimeMillis());
+            diskUsage.touch(file("once" + i));
+        }
+        waitForAsyncTrimming();
+
+        assertThat(file("popular")).exists();
+        assertThat(file("once0")).exists();
+        assertThat(file("once9")).doesNotExist();
+        assertThat(file(".frequencies")).exists();
+    }
+
+    @Test
+    public void testPartialEviction() throws Exception {
+        DiskUsage diskUsage = new TotalSizeLruDiskUsage(1000).retainPrefix(50, 0);
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 5; i++) {
+            createFile(file("f" + i), 200, now - 100000 + i * 1000);
+        }
+        createFile(file("t.download"), 150, now - 200000);
+
+        diskUsage.touch(file("f4")); // 1150 bytes, trim to 900
+        waitForAsyncTrimming();
+
+        assertThat(file("t.download").length()).isEqualTo(50);
+        assertThat(file("f0")).doesNotExist();
+        assertThat(file("f0.download").length()).isEqualTo(50);
+        assertThat(file("f1").length()).isEqualTo(200);
+
+        createFile(file("g"), 400, now);
+        diskUsage.touch(file("g")); // truncated files get second chance, next ones are truncated first
+        waitForAsyncTrimming();
+
+        assertThat(file("f1.download").length()).isEqualTo(50);
+        assertThat(file("f2.download").length()).isEqualTo(50);
+        assertThat(file("f3.download").length()).isEqualTo(50);
+        assertThat(file("f4").length()).isEqualTo(200);
+        assertThat(file("t.download")).exists();
+
+        createFile(file("h"), 200, now);
+        diskUsage.touch(file("h"));
+        waitForAsyncTrimming();
+
+        assertThat(file("f4")).doesNotExist();
+        assertThat(file("f4.download").length()).isEqualTo(50);
+        assertThat(file("t.download")).exists();
+
+        createFile(file("i"), 150, now);
+        diskUsage.touch(file("i")); // prefixes are deleted when they are least recently used again
+        waitForAsyncTrimming();
+
+        assertThat(file("t.download")).doesNotExist();
+        assertThat(file("f0.download")).doesNotExist();
+        assertThat(file("g.download").length()).isEqualTo(50);
+        assertThat(file("f1.download").length()).isEqualTo(50);
+    }
+
+    @Test
+    public void testFileOfOpenCacheIsDeletedInsteadOfTruncating() throws Exception {
+        DiskUsage diskUsage = new TotalSizeLruDiskUsage(1000).retainPrefix(50, 0);
+        byte[] data = ProxyCacheTestUtils.generate(600);
+        FileCache cache = new FileCache(file("v"), new UnlimitedDiskUsage());
+        cache.append(data, 300);
+        long now = System.currentTimeMillis();
+        assertThat(file("v.download").setLastModified(now - 100000)).isTrue();
+        createFile(file("w"), 800, now);
+
+        diskUsage.touch(file("w")); // 1100 bytes, video being downloaded is least recently used
+        waitForAsyncTrimming();
+
+        assertThat(file("v.download")).doesNotExist();
+        assertThat(file("w")).exists();
+        cache.append(Arrays.copyOfRange(data, 300, 600), 300); // writer keeps appending to unlinked file
+        byte[] readData = new byte[600];
+        assertThat(cache.read(readData, 0, readData.length)).isEqualTo(600);
+        assertThat(readData).isEqualTo(data);
+        cache.close();
+    }
+
     private void waitForAsyncTrimming() throws InterruptedException {
         Thread.sleep(200);
     }
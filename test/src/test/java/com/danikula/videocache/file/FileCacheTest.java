@@ -3,14 +3,17 @@ package com.danikula.videocache.file;
 import com.danikula.android.garden.io.Files;
 import com.danikula.videocache.BaseTest;
 import com.danikula.videocache.Cache;
+import com.danikula.videocache.InsufficientSpaceException;
 import com.danikula.videocache.ProxyCacheException;
 
 import org.junit.Assert;
 import org.junit.Ignore;
 import org.junit.Test;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.nio.channels.Channels;
 import java.util.Arrays;
 
 import static com.danikula.videocache.support.ProxyCacheTestUtils.ASSETS_DATA_NAME;
@@ -172,6 +175,200 @@ public class FileCacheTest extends BaseTest {
         assertThat(deletedFile).doesNotExist();
     }
 
+    @Test
+    public void testTransferTo() throws Exception {
+        byte[] data = generate(30000);
+        FileCache fileCache = new FileCache(newCacheFile());
+        fileCache.append(data, data.length);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long transferred = fileCache.transferTo(1000, 20000, Channels.newChannel(out));
+
+        assertThat(transferred).isEqualTo(20000);
+        assertThat(out.toByteArray()).isEqualTo(Arrays.copyOfRange(data, 1000, 21000));
+    }
+
+    @Test
+    public void testSparseWrite() throws Exception {
+        byte[] data = generate(30000);
+        File file = newCacheFile();
+        FileCache fileCache = new FileCache(file);
+        fileCache.write(20000, Arrays.copyOfRange(data, 20000, 30000), 10000);
+
+        assertThat(fileCache.available()).isEqualTo(0);
+        assertThat(fileCache.available(20000)).isEqualTo(10000);
+        assertThat(fileCache.available(25000)).isEqualTo(5000);
+
+        fileCache.append(data, 20000);
+        assertThat(fileCache.available()).isEqualTo(30000);
+        fileCache.complete();
+
+        assertThat(file.exists()).isTrue();
+        assertThat(getFileContent(file)).isEqualTo(data);
+        assertThat(FileCache.getRangesFile(getTempFile(file)).exists()).isFalse();
+    }
+
+    @Test
+    public void testSparseRangesArePersisted() throws Exception {
+        byte[] data = generate(30000);
+        File file = newCacheFile();
+        FileCache fileCache = new FileCache(file);
+        fileCache.append(data, 5000);
+        fileCache.write(20000, Arrays.copyOfRange(data, 20000, 30000), 10000);
+        fileCache.close();
+
+        FileCache reopened = new FileCache(file);
+        assertThat(reopened.available()).isEqualTo(5000);
+        assertThat(reopened.available(5000)).isEqualTo(0);
+        assertThat(reopened.available(20000)).isEqualTo(10000);
+        byte[] readData = new byte[10000];
+        reopened.read(readData, 20000, readData.length);
+        assertThat(readData).isEqualTo(Arrays.copyOfRange(data, 20000, 30000));
+    }
+
+    @Test(expected = ProxyCacheException.class)
+    public void testErrorCompletingCacheWithGaps() throws Exception {
+        FileCache fileCache = new FileCache(newCacheFile());
+        fileCache.append(generate(100), 100);
+        fileCache.write(200, generate(100), 100);
+        fileCache.complete();
+        Assert.fail();
+    }
+
+    @Test
+    public void testPreallocation() throws Exception {
+        byte[] data = generate(30000);
+        File file = newCacheFile();
+        FileCache fileCache = new FileCache(file);
+        fileCache.append(data, 1000);
+        fileCache.preallocate(data.length);
+
+        assertThat(getTempFile(file).length()).isEqualTo(30000);
+        assertThat(fileCache.available()).isEqualTo(1000);
+        fileCache.close();
+
+        FileCache reopened = new FileCache(file);
+        assertThat(reopened.available()).isEqualTo(1000);
+        reopened.append(Arrays.copyOfRange(data, 1000, 30000), 29000);
+        reopened.complete();
+        assertThat(getFileContent(file)).isEqualTo(data);
+    }
+
+    @Test(expected = InsufficientSpaceException.class)
+    public void testPreallocationWithoutFreeSpace() throws Exception {
+        FileCache fileCache = new FileCache(newCacheFile());
+        fileCache.preallocate(Long.MAX_VALUE / 2);
+        Assert.fail();
+    }
+
+    @Test
+    public void testHeadIsReadFromMemoryTier() throws Exception {
+        byte[] data = generate(30000);
+        File file = newCacheFile();
+        write(data, file);
+        FileCache fileCache = new FileCache(file, new UnlimitedDiskUsage(), false, new MemoryTier(100000, 10000));
+        assertThat(fileCache.isInMemory(0)).isFalse();
+
+        byte[] head = new byte[10000];
+        assertThat(fileCache.read(head, 0, head.length)).isEqualTo(10000);
+        assertThat(fileCache.isInMemory(0)).isTrue();
+        assertThat(fileCache.isInMemory(10000)).isFalse();
+        write(new byte[30000], file); // head isn't read from file any more
+
+        byte[] readData = new byte[5000];
+        assertThat(fileCache.read(readData, 5000, readData.length)).isEqualTo(5000);
+        assertThat(readData).isEqualTo(Arrays.copyOfRange(data, 5000, 10000));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertThat(fileCache.transferTo(9000, 5000, Channels.newChannel(out))).isEqualTo(1000);
+        assertThat(out.toByteArray()).isEqualTo(Arrays.copyOfRange(data, 9000, 10000));
+    }
+
+    @Test
+    public void testWriteBehind() throws Exception {
+        byte[] data = generate(30000);
+        File file = newCacheFile();
+        FileCache fileCache = new FileCache(file, new UnlimitedDiskUsage(), false, null, new WriteBehindPolicy(8192, 60000, false));
+        fileCache.append(data, 10000);
+
+        assertThat(getTempFile(file).length()).isEqualTo(8192); // only full block is written
+        assertThat(fileCache.available()).isEqualTo(10000);
+        assertThat(fileCache.availableInFile(0)).isEqualTo(8192);
+        byte[] readData = new byte[5000];
+        assertThat(fileCache.read(readData, 5000, readData.length)).isEqualTo(3192);
+        assertThat(fileCache.read(readData, 8192, readData.length)).isEqualTo(1808);
+        assertThat(Arrays.copyOf(readData, 1808)).isEqualTo(Arrays.copyOfRange(data, 8192, 10000));
+        fileCache.close();
+        assertThat(getTempFile(file).length()).isEqualTo(10000);
+
+        FileCache reopened = new FileCache(file, new UnlimitedDiskUsage(), false, null, new WriteBehindPolicy(8192, 60000, false));
+        reopened.append(Arrays.copyOfRange(data, 10000, 30000), 20000);
+        reopened.complete();
+        assertThat(getFileContent(file)).isEqualTo(data);
+    }
+
+    @Test
+    public void testWriteBehindFlushesDelayedDataOfStalledWriter() throws Exception {
+        byte[] data = generate(1000);
+        File file = newCacheFile();
+        FileCache fileCache = new FileCache(file, new UnlimitedDiskUsage(), false, null, new WriteBehindPolicy(8192, 100, false));
+        fileCache.append(data, data.length); // source stalls, nothing is appended any more
+
+        assertThat(fileCache.availableInFile(0)).isEqualTo(0);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (fileCache.availableInFile(0) < data.length && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(fileCache.availableInFile(0)).isEqualTo(data.length);
+        assertThat(getTempFile(file).length()).isEqualTo(data.length);
+        assertThat(getFileContent(getTempFile(file))).isEqualTo(data);
+        fileCache.close();
+    }
+
+    @Test
+    public void testInterruptedReadDoesNotBreakCache() throws Exception {
+        byte[] data = generate(20000);
+        File file = newCacheFile();
+        FileCache fileCache = new FileCache(file);
+        fileCache.append(data, 10000);
+
+        Thread.currentThread().interrupt();
+        try {
+            fileCache.read(new byte[1000], 0, 1000);
+            Assert.fail("Interrupted read should fail");
+        } catch (ProxyCacheException e) {
+            assertThat(Thread.interrupted()).isTrue();
+        }
+
+        fileCache.append(Arrays.copyOfRange(data, 10000, 20000), 10000);
+        byte[] readData = new byte[20000];
+        assertThat(fileCache.read(readData, 0, readData.length)).isEqualTo(20000);
+        assertThat(readData).isEqualTo(data);
+        fileCache.complete();
+        assertThat(getFileContent(file)).isEqualTo(data);
+    }
+
+    @Test
+    public void testMappedReadAfterInterruptedTransfer() throws Exception {
+        byte[] data = generate(30000);
+        File file = newCacheFile();
+        FileCache fileCache = new FileCache(file, new UnlimitedDiskUsage(), true);
+        fileCache.append(data, data.length);
+        fileCache.complete();
+
+        Thread.currentThread().interrupt();
+        try {
+            fileCache.transferTo(0, 1000, Channels.newChannel(new ByteArrayOutputStream()));
+            Assert.fail("Interrupted transfer should fail");
+        } catch (IOException e) {
+            assertThat(Thread.interrupted()).isTrue();
+        }
+
+        byte[] readData = new byte[20000];
+        assertThat(fileCache.read(readData, 1000, readData.length)).isEqualTo(20000);
+        assertThat(readData).isEqualTo(Arrays.copyOfRange(data, 1000, 21000));
+        fileCache.close();
+    }
+
     private void saveAndCompleteCache(DiskUsage diskUsage, byte[] data, File... files) throws ProxyCacheException, IOException, InterruptedException {
         for (File file : files) {
             FileCache fileCache = new FileCache(file, diskUsage);
@@ -6,7 +6,9 @@ import com.danikula.videocache.support.ProxyCacheTestUtils;
 import org.junit.Test;
 
 import java.io.File;
+import java.util.List;
 
+import static com.danikula.android.garden.io.Files.createDirectory;
 import static org.fest.assertions.api.Assertions.assertThat;
 
 /**
@@ -17,41 +19,23 @@ import static org.fest.assertions.api.Assertions.assertThat;
 public class FilesTest extends BaseTest {
 
     @Test
-    public void testModify() throws Exception {
-        byte[] data = ProxyCacheTestUtils.generate(999);
-        File file = ProxyCacheTestUtils.newCacheFile();
-        com.google.common.io.Files.write(data, file);
-        long lastModified = file.lastModified();
-
-        Thread.sleep(1100); // file can store modification date in seconds. so wait for ~ 1 sec
-        Files.modify(file);
-
-        assertThat(file).hasBinaryContent(data);
-        assertThat(file.lastModified()).isGreaterThan(lastModified);
+    public void testLruListFiles() throws Exception {
+        File directory = ProxyCacheTestUtils.newCacheFile();
+        createDirectory(directory);
+        long now = System.currentTimeMillis();
+        createFile(new File(directory, "b"), now - 2000);
+        createFile(new File(directory, "a"), now - 1000);
+        createFile(new File(directory, "c.download"), now - 3000);
+        createFile(new File(directory, "c.download.ranges"), now);
+        createFile(new File(directory, ".journal"), now);
+
+        List<File> files = Files.getLruListFiles(directory);
+
+        assertThat(files).containsExactly(new File(directory, "c.download"), new File(directory, "b"), new File(directory, "a"));
     }
 
-    @Test
-    public void testSetModifiedNow() throws Exception {
-        File file = ProxyCacheTestUtils.newCacheFile();
+    private void createFile(File file, long lastModified) throws Exception {
         com.google.common.io.Files.write(ProxyCacheTestUtils.generate(22), file);
-
-        Thread.sleep(1100); // file can store modification date in seconds. so wait for ~ 1 sec
-        long nowRoundedToSecond = System.currentTimeMillis() / 1000 * 1000;
-        Files.setLastModifiedNow(file);
-
-        assertThat(file.lastModified()).isGreaterThanOrEqualTo(nowRoundedToSecond);
-    }
-
-    @Test
-    public void testModifyZeroSizeFile() throws Exception {
-        File file = ProxyCacheTestUtils.newCacheFile();
-        boolean created = file.createNewFile();
-        assertThat(created).isTrue();
-
-        Thread.sleep(1100); // file can store modification date in seconds. so wait for ~ 2 sec
-        long nowRoundedToSecond = System.currentTimeMillis() / 1000 * 1000;
-        Files.modify(file);
-
-        assertThat(file.lastModified()).isGreaterThanOrEqualTo(nowRoundedToSecond);
+        assertThat(file.setLastModified(lastModified)).isTrue();
     }
 }
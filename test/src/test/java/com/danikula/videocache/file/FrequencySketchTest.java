@@ -0,0 +1,65 @@
+package com.danikula.videocache.file;
+
+import com.danikula.videocache.BaseTest;
+import com.danikula.videocache.support.ProxyCacheTestUtils;
+
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+/**
+ * Tests {@link FrequencySketch}.
+ */
+public class FrequencySketchTest extends BaseTest {
+
+    @Test
+    public void testFrequency() throws Exception {
+        FrequencySketch sketch = new FrequencySketch(64);
+        for (int i = 0; i < 5; i++) {
+            sketch.increment("popular");
+        }
+        sketch.increment("rare");
+
+        assertThat(sketch.frequency("popular")).isEqualTo(5);
+        assertThat(sketch.frequency("rare")).isEqualTo(1);
+        assertThat(sketch.frequency("unknown")).isEqualTo(0);
+    }
+
+    @Test
+    public void testFrequencyIsLimited() throws Exception {
+        FrequencySketch sketch = new FrequencySketch(64);
+        for (int i = 0; i < 100; i++) {
+            sketch.increment("popular");
+        }
+
+        assertThat(sketch.frequency("popular")).isEqualTo(15);
+    }
+
+    @Test
+    public void testAging() throws Exception {
+        FrequencySketch sketch = new FrequencySketch(64);
+        for (int i = 0; i < 8; i++) {
+            sketch.increment("old");
+        }
+        for (int i = 0; i < 64 * 10; i++) { // sample size is 10 * width
+            sketch.increment("key" + i);
+        }
+
+        assertThat(sketch.frequency("old")).isLessThan(8);
+    }
+
+    @Test
+    public void testSaveAndLoad() throws Exception {
+        FrequencySketch sketch = new FrequencySketch(64);
+        for (int i = 0; i < 3; i++) {
+            sketch.increment("popular");
+        }
+        File file = ProxyCacheTestUtils.newCacheFile();
+        sketch.save(file);
+
+        assertThat(FrequencySketch.load(file, 64).frequency("popular")).isEqualTo(3);
+        assertThat(FrequencySketch.load(file, 128).frequency("popular")).isEqualTo(0); // other width, reset
+    }
+}
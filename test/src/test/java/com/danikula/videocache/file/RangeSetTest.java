@@ -0,0 +1,70 @@
+package com.danikula.videocache.file;
+
+import com.danikula.videocache.BaseTest;
+
+import org.junit.Test;
+
+import java.io.File;
+
+import static com.danikula.videocache.support.ProxyCacheTestUtils.newCacheFile;
+import static org.fest.assertions.api.Assertions.assertThat;
+
+/**
+ * Tests {@link RangeSet}.
+ */
+public class RangeSetTest extends BaseTest {
+
+    @Test
+    public void testMergeRanges() throws Exception {
+        RangeSet ranges = new RangeSet();
+        ranges.add(100, 200);
+        ranges.add(300, 400);
+        assertThat(ranges.size()).isEqualTo(2);
+
+        ranges.add(150, 300);
+        assertThat(ranges.size()).isEqualTo(1);
+        assertThat(ranges.available(100)).isEqualTo(300);
+        assertThat(ranges.available(399)).isEqualTo(1);
+        assertThat(ranges.available(400)).isEqualTo(0);
+        assertThat(ranges.available(50)).isEqualTo(0);
+    }
+
+    @Test
+    public void testCovers() throws Exception {
+        RangeSet ranges = new RangeSet();
+        ranges.add(500, 1000);
+        assertThat(ranges.covers(1000)).isFalse();
+
+        ranges.add(0, 500);
+        assertThat(ranges.covers(1000)).isTrue();
+        assertThat(ranges.covers(1001)).isFalse();
+    }
+
+    @Test
+    public void testTruncate() throws Exception {
+        RangeSet ranges = new RangeSet();
+        ranges.add(0, 100);
+        ranges.add(200, 300);
+        ranges.truncate(250);
+
+        assertThat(ranges.available(200)).isEqualTo(50);
+        ranges.truncate(50);
+        assertThat(ranges.size()).isEqualTo(1);
+        assertThat(ranges.available(0)).isEqualTo(50);
+    }
+
+    @Test
+    public void testSaveAndLoad() throws Exception {
+        RangeSet ranges = new RangeSet();
+        ranges.add(0, 100);
+        ranges.add(1000, 3000);
+        File file = newCacheFile();
+        file.getParentFile().mkdirs();
+        ranges.save(file);
+
+        RangeSet loaded = RangeSet.load(file);
+        assertThat(loaded.size()).isEqualTo(2);
+        assertThat(loaded.available(0)).isEqualTo(100);
+        assertThat(loaded.available(1000)).isEqualTo(2000);
+    }
+}
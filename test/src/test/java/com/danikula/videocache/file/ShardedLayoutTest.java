@@ -0,0 +1,87 @@
+package com.danikula.videocache.file;
+
+import com.danikula.videocache.BaseTest;
+import com.danikula.videocache.support.ProxyCacheTestUtils;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static com.danikula.android.garden.io.Files.cleanDirectory;
+import static com.danikula.android.garden.io.Files.createDirectory;
+import static org.fest.assertions.api.Assertions.assertThat;
+
+/**
+ * Tests for {@link ShardedLayout}.
+ */
+public class ShardedLayoutTest extends BaseTest {
+
+    private File cacheFolder;
+
+    @Before
+    public void setup() throws Exception {
+        cacheFolder = ProxyCacheTestUtils.newCacheFile();
+        createDirectory(cacheFolder);
+        cleanDirectory(cacheFolder);
+    }
+
+    @Test
+    public void testCompanionFilesAreInSameDirectory() throws Exception {
+        File file = ShardedLayout.getFile(cacheFolder, "video.mp4");
+        File shard = file.getParentFile();
+
+        assertThat(shard.getParentFile().getParentFile()).isEqualTo(cacheFolder);
+        assertThat(ShardedLayout.getFile(cacheFolder, "video.mp4.download").getParentFile()).isEqualTo(shard);
+        assertThat(ShardedLayout.getFile(cacheFolder, "video.mp4.download.ranges").getParentFile()).isEqualTo(shard);
+    }
+
+    @Test
+    public void testMigrateFlatCache() throws Exception {
+        long now = System.currentTimeMillis();
+        DiskUsage flatDiskUsage = new TotalSizeLruDiskUsage(1000);
+        for (int i = 0; i < 5; i++) {
+            createFile(new File(cacheFolder, "v" + i), 150, now - 10000 + i * 1000);
+            flatDiskUsage.touch(new File(cacheFolder, "v" + i));
+        }
+        createFile(new File(cacheFolder, "p.download"), 100, now);
+        createFile(new File(cacheFolder, "p.download.ranges"), 16, now);
+        waitForAsyncTrimming();
+
+        ShardedLayout layout = new ShardedLayout(cacheFolder);
+        File onDemand = layout.getFile("v2");
+        assertThat(onDemand).exists();
+        assertThat(new File(cacheFolder, "v2")).doesNotExist();
+
+        layout.migrate();
+
+        assertThat(new File(cacheFolder, "v0")).doesNotExist();
+        assertThat(layout.getFile("v0")).exists();
+        assertThat(layout.getFile("p.download")).exists();
+        assertThat(layout.getFile("p.download.ranges")).exists();
+        assertThat(Files.getLruListFiles(cacheFolder)).hasSize(6);
+
+        DiskUsage diskUsage = new TotalSizeLruDiskUsage(1000);
+        File newFile = layout.getFile("new");
+        createFile(newFile, 400, now);
+        diskUsage.touch(newFile); // order is restored from journal of flat cache
+        waitForAsyncTrimming();
+
+        assertThat(layout.getFile("v0")).doesNotExist();
+        assertThat(layout.getFile("v1")).doesNotExist();
+        assertThat(layout.getFile("v2")).doesNotExist();
+        assertThat(layout.getFile("v3")).exists();
+        assertThat(layout.getFile("p.download")).exists();
+        assertThat(newFile).exists();
+    }
+
+    private void waitForAsyncTrimming() throws InterruptedException {
+        Thread.sleep(500);
+    }
+
+    private void createFile(File file, int capacity, long lastModified) throws IOException {
+        com.google.common.io.Files.write(ProxyCacheTestUtils.generate(capacity), file);
+        assertThat(file.setLastModified(lastModified)).isTrue();
+    }
+}
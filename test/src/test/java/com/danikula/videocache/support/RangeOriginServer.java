@@ -0,0 +1,175 @@
+package com.danikula.videocache.support;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Local http origin serving generated videos with support of {@code Range} requests.
+ * <p>
+ * Content of video is not stored anywhere, it is generated on the fly (see {@link #getByte(int, long)}), so clients
+ * can check received data without loading whole video. Bandwidth of every connection can be limited to simulate
+ * real network. Origin counts requests and bytes really sent to clients, aborted responses are counted partially.
+ */
+public class RangeOriginServer {
+
+    private static final Pattern REQUEST_LINE_PATTERN = Pattern.compile("^(GET|HEAD) /video-(\\d+)\\.mp4 HTTP");
+    private static final Pattern RANGE_HEADER_PATTERN = Pattern.compile("^[Rr]ange:[ ]?bytes=(\\d+)-(\\d*)");
+    private static final int CHUNK_SIZE = 8 * 1024;
+
+    private final int videosCount;
+    private final long videoSize;
+    private final long bytesPerSecond;
+    private final ExecutorService connections = Executors.newCachedThreadPool();
+    private final AtomicLong sentBytes = new AtomicLong();
+    private final AtomicInteger requestsCount = new AtomicInteger();
+    private ServerSocket serverSocket;
+
+    /**
+     * @param videosCount    a count of different videos served by origin.
+     * @param videoSize      a size of every video in bytes.
+     * @param bytesPerSecond max speed of every connection, {@code 0} for unlimited.
+     */
+    public RangeOriginServer(int videosCount, long videoSize, long bytesPerSecond) {
+        this.videosCount = videosCount;
+        this.videoSize = videoSize;
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    public void start() throws IOException {
+        serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        connections.submit(new Runnable() {
+            @Override
+            public void run() {
+                acceptConnections();
+            }
+        });
+    }
+
+    public void shutdown() throws IOException {
+        serverSocket.close();
+        connections.shutdownNow();
+    }
+
+    public String getUrl(int video) {
+        return String.format(Locale.US, "http://127.0.0.1:%d/video-%d.mp4", serverSocket.getLocalPort(), video);
+    }
+
+    public long getSentBytes() {
+        return sentBytes.get();
+    }
+
+    public int getRequestsCount() {
+        return requestsCount.get();
+    }
+
+    /**
+     * Returns byte of video at passed offset. Content differs for different videos and offsets.
+     */
+    public static byte getByte(int video, long offset) {
+        long value = offset * 31 + video * 131 + (offset >>> 11);
+        return (byte) (value ^ (value >>> 8));
+    }
+
+    private void acceptConnections() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                final Socket socket = serverSocket.accept();
+                connections.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        processConnection(socket);
+                    }
+                });
+            }
+        } catch (IOException e) {
+            // server socket is closed
+        }
+    }
+
+    private void processConnection(Socket socket) {
+        try {
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "ascii"));
+            Matcher requestLine = REQUEST_LINE_PATTERN.matcher(String.valueOf(in.readLine()));
+            long start = 0;
+            long end = -1;
+            String header;
+            while ((header = in.readLine()) != null && !header.isEmpty()) {
+                Matcher range = RANGE_HEADER_PATTERN.matcher(header);
+                if (range.find()) {
+                    start = Long.parseLong(range.group(1));
+                    end = range.group(2).isEmpty() ? -1 : Long.parseLong(range.group(2));
+                }
+            }
+            requestsCount.incrementAndGet();
+            OutputStream out = socket.getOutputStream();
+            if (!requestLine.find() || Integer.parseInt(requestLine.group(2)) >= videosCount) {
+                out.write("HTTP/1.1 404 Not Found\r\nContent-Length: 0\r\nConnection: close\r\n\r\n".getBytes("ascii"));
+                return;
+            }
+            int video = Integer.parseInt(requestLine.group(2));
+            boolean partial = start > 0 || end >= 0;
+            end = end < 0 || end >= videoSize ? videoSize - 1 : end;
+            String headers = (partial ? "HTTP/1.1 206 Partial Content\r\n" : "HTTP/1.1 200 OK\r\n") +
+                    "Content-Type: video/mp4\r\n" +
+                    "Accept-Ranges: bytes\r\n" +
+                    "Content-Length: " + (end - start + 1) + "\r\n" +
+                    (partial ? "Content-Range: bytes " + start + "-" + end + "/" + videoSize + "\r\n" : "") +
+                    "Connection: close\r\n\r\n";
+            out.write(headers.getBytes("ascii"));
+            if ("GET".equals(requestLine.group(1))) {
+                writeBody(out, video, start, end + 1);
+            }
+        } catch (IOException e) {
+            // client closed connection
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+    private void writeBody(OutputStream out, int video, long start, long end) throws IOException {
+        byte[] chunk = new byte[CHUNK_SIZE];
+        long startTime = System.nanoTime();
+        long written = 0;
+        for (long offset = start; offset < end; offset += chunk.length) {
+            int length = (int) Math.min(chunk.length, end - offset);
+            for (int i = 0; i < length; i++) {
+                chunk[i] = getByte(video, offset + i);
+            }
+            out.write(chunk, 0, length);
+            sentBytes.addAndGet(length);
+            written += length;
+            throttle(startTime, written);
+        }
+        out.flush();
+    }
+
+    private void throttle(long startTime, long written) throws IOException {
+        if (bytesPerSecond <= 0) {
+            return;
+        }
+        long aheadMs = written * 1000 / bytesPerSecond - (System.nanoTime() - startTime) / 1000000;
+        if (aheadMs > 0) {
+            try {
+                Thread.sleep(aheadMs);
+            } catch (InterruptedException e) {
+                throw new IOException("Origin is stopped", e);
+            }
+        }
+    }
+}